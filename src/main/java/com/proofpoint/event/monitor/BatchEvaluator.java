@@ -0,0 +1,336 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.proofpoint.units.Duration;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Evaluates batches of events against all registered monitors.  Each event
+ * is visited exactly once; the matches for every monitor are accumulated in
+ * a primitive array and the monitor counters are updated once per batch.
+ * Clauses shared by the filters of several monitors are evaluated once per
+ * event (see {@link FilterGraph}), and monitors whose filter requires a field
+ * to equal a constant the event does not have are skipped (see
+ * {@link MonitorIndex}).
+ * <p/>
+ * When parallel evaluation is enabled, batches larger than the threshold are
+ * split into chunks that are evaluated on a fork/join pool, and the partial
+ * counts are merged before the monitor counters are updated.
+ * <p/>
+ * When an evaluation budget is configured, a monitor whose filter takes
+ * longer than the budget on average over a window of sampled events is
+ * quarantined: its filter is no longer evaluated, so it cannot slow down
+ * ingestion for the other monitors.  Sampled filters are timed without the
+ * clause values shared with other monitors, so each monitor is charged the
+ * full cost of its own filter, whatever its slot.
+ * <p/>
+ * For monitors that window events by their timestamps, the timestamps of the
+ * matched events are collected as well and added to the monitor once per
+ * batch.
+ */
+public class BatchEvaluator
+{
+    // one event in this many is timed per monitor
+    private static final int SAMPLE_INTERVAL = 64;
+
+    private final MonitorRegistry monitorRegistry;
+    private final ForkJoinPool pool;
+    private final int parallelThreshold;
+    private final double budgetNanos;
+
+    @Inject
+    public BatchEvaluator(MonitorRegistry monitorRegistry, MonitorConfig config)
+    {
+        this(monitorRegistry, config.isParallelEvaluationEnabled(), config.getParallelEvaluationThreshold(), config.getEvaluationBudget());
+    }
+
+    @VisibleForTesting
+    BatchEvaluator(MonitorRegistry monitorRegistry)
+    {
+        this(monitorRegistry, false, Integer.MAX_VALUE, null);
+    }
+
+    @VisibleForTesting
+    BatchEvaluator(MonitorRegistry monitorRegistry, boolean parallel, int parallelThreshold)
+    {
+        this(monitorRegistry, parallel, parallelThreshold, null);
+    }
+
+    @VisibleForTesting
+    BatchEvaluator(MonitorRegistry monitorRegistry, boolean parallel, int parallelThreshold, Duration evaluationBudget)
+    {
+        Preconditions.checkNotNull(monitorRegistry, "monitorRegistry is null");
+        Preconditions.checkArgument(parallelThreshold > 0, "parallelThreshold must be at least 1");
+
+        this.monitorRegistry = monitorRegistry;
+        this.pool = parallel ? new ForkJoinPool() : null;
+        this.parallelThreshold = parallelThreshold;
+        this.budgetNanos = evaluationBudget == null ? Double.POSITIVE_INFINITY : evaluationBudget.convertTo(TimeUnit.NANOSECONDS);
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    public void evaluate(Iterable<Event> events)
+    {
+        if (pool != null && events instanceof List) {
+            List<Event> list = (List<Event>) events;
+            if (list.size() > parallelThreshold) {
+                pool.invoke(new EvaluateTask(list)).flush();
+                return;
+            }
+        }
+
+        Tally tally = newTally();
+        for (Event event : events) {
+            tally.add(event);
+        }
+        tally.flush();
+    }
+
+    public Tally newTally()
+    {
+        return new Tally(pool != null);
+    }
+
+    /**
+     * Per-batch match counts.  A tally is not thread safe and must be
+     * confined to the thread processing the batch.
+     * <p/>
+     * In parallel mode, added events are collected into chunks and each full
+     * chunk is evaluated on the fork/join pool while the caller continues to
+     * add events.  The last partial chunk is evaluated by the flushing thread,
+     * so batches below the threshold never leave the caller's thread.
+     */
+    public class Tally
+    {
+        private final long[] counts = new long[monitorRegistry.getSlotCount()];
+        private final long[] evaluations = new long[monitorRegistry.getSlotCount()];
+        // only allocated for the monitors that window events by their timestamps
+        private final EventTimes[] eventTimes = new EventTimes[monitorRegistry.getSlotCount()];
+        private final FilterExpression.Memo memo = new FilterExpression.Memo(monitorRegistry.getSharedExpressionCount());
+        // a sampled monitor is timed without the shared values, so it is charged its own cost
+        private final FilterExpression.Memo timedMemo = new FilterExpression.Memo(monitorRegistry.getSharedExpressionCount());
+        private final boolean chunked;
+        private List<Event> chunk;
+        private List<ForkJoinTask<Tally>> tasks;
+        private String lastEventType;
+        private MonitorIndex lastIndex;
+        // start at a random phase, so batches smaller than the interval are sampled too
+        private int sampleCountdown = ThreadLocalRandom.current().nextInt(SAMPLE_INTERVAL) + 1;
+
+        private Tally(boolean chunked)
+        {
+            this.chunked = chunked;
+        }
+
+        public void add(Event event)
+        {
+            if (!chunked) {
+                count(event);
+                return;
+            }
+
+            if (chunk == null) {
+                chunk = newArrayList();
+            }
+            chunk.add(event);
+            if (chunk.size() >= parallelThreshold) {
+                if (tasks == null) {
+                    tasks = newArrayList();
+                }
+                tasks.add(pool.submit(new EvaluateTask(chunk)));
+                chunk = null;
+            }
+        }
+
+        /**
+         * Adds the counts of another tally to this one.
+         */
+        public void merge(Tally other)
+        {
+            for (int slot = 0; slot < counts.length; slot++) {
+                counts[slot] += other.counts[slot];
+                evaluations[slot] += other.evaluations[slot];
+                if (other.eventTimes[slot] != null) {
+                    getEventTimes(slot).addAll(other.eventTimes[slot]);
+                }
+            }
+        }
+
+        public void flush()
+        {
+            if (chunk != null) {
+                for (Event event : chunk) {
+                    count(event);
+                }
+                chunk = null;
+            }
+            if (tasks != null) {
+                for (ForkJoinTask<Tally> task : tasks) {
+                    merge(task.join());
+                }
+                tasks = null;
+            }
+
+            for (int slot = 0; slot < counts.length; slot++) {
+                if (counts[slot] != 0) {
+                    monitorRegistry.getMonitor(slot).recordEvents(counts[slot]);
+                    counts[slot] = 0;
+                }
+                if (evaluations[slot] != 0) {
+                    monitorRegistry.getMonitor(slot).recordEvaluations(evaluations[slot]);
+                    evaluations[slot] = 0;
+                }
+                if (eventTimes[slot] != null && eventTimes[slot].size() != 0) {
+                    monitorRegistry.getMonitor(slot).recordEventTimes(eventTimes[slot]);
+                    eventTimes[slot].clear();
+                }
+            }
+        }
+
+        private void count(Event event)
+        {
+            // batches are usually homogeneous, so avoid the registry lookup when possible
+            String eventType = event.getType();
+            MonitorIndex index;
+            if (lastIndex != null && eventType.equals(lastEventType)) {
+                index = lastIndex;
+            }
+            else {
+                index = monitorRegistry.getIndex(eventType);
+                lastEventType = eventType;
+                lastIndex = index;
+            }
+
+            // skip the monitors whose equality clause cannot match the event
+            int[] slots = index.getSlots(event.getData());
+
+            // the shared subexpressions are evaluated at most once for all the monitors
+            memo.clear();
+
+            if (--sampleCountdown == 0) {
+                sampleCountdown = SAMPLE_INTERVAL;
+                countTimed(event, slots);
+                return;
+            }
+
+            for (int slot : slots) {
+                Monitor monitor = monitorRegistry.getMonitor(slot);
+                if (monitor.isDegraded()) {
+                    continue;
+                }
+                evaluations[slot]++;
+                if (monitor.getEventPredicate().apply(event, monitorRegistry.getFilterExpression(slot), memo)) {
+                    counted(slot, monitor, event);
+                }
+            }
+        }
+
+        private void countTimed(Event event, int[] slots)
+        {
+            for (int slot : slots) {
+                Monitor monitor = monitorRegistry.getMonitor(slot);
+                if (monitor.isDegraded()) {
+                    continue;
+                }
+                evaluations[slot]++;
+                // otherwise the first monitor to reach a shared clause pays for all the monitors that share it
+                timedMemo.clear();
+                long start = System.nanoTime();
+                boolean matched = monitor.getEventPredicate().apply(event, monitorRegistry.getFilterExpression(slot), timedMemo);
+                monitor.recordEvaluationTime(System.nanoTime() - start);
+                if (matched) {
+                    counted(slot, monitor, event);
+                }
+
+                double recentNanos = monitor.getRecentEvaluationNanos();
+                if (recentNanos > budgetNanos) {
+                    monitor.quarantine(String.format("Filter takes %.0fns on average, more than the budget of %.0fns", recentNanos, budgetNanos));
+                }
+            }
+        }
+
+        private void counted(int slot, Monitor monitor, Event event)
+        {
+            counts[slot]++;
+            if (monitor.isEventTimeWindowed()) {
+                getEventTimes(slot).add(event);
+            }
+        }
+
+        private EventTimes getEventTimes(int slot)
+        {
+            if (eventTimes[slot] == null) {
+                eventTimes[slot] = new EventTimes();
+            }
+            return eventTimes[slot];
+        }
+    }
+
+    /**
+     * Evaluates a list of events, splitting it in half until each piece is
+     * no larger than the threshold.
+     */
+    private class EvaluateTask
+            extends RecursiveTask<Tally>
+    {
+        private final List<Event> events;
+
+        private EvaluateTask(List<Event> events)
+        {
+            this.events = events;
+        }
+
+        @Override
+        protected Tally compute()
+        {
+            if (events.size() > parallelThreshold) {
+                int middle = events.size() / 2;
+                EvaluateTask left = new EvaluateTask(events.subList(0, middle));
+                EvaluateTask right = new EvaluateTask(events.subList(middle, events.size()));
+                left.fork();
+                Tally tally = right.compute();
+                tally.merge(left.join());
+                return tally;
+            }
+
+            Tally tally = new Tally(false);
+            for (Event event : events) {
+                tally.count(event);
+            }
+            return tally;
+        }
+    }
+}
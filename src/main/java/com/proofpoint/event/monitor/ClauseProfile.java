@@ -0,0 +1,177 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Doubles;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runtime statistics for the clauses of a conjunction, used to evaluate the
+ * clauses in the order with the lowest expected cost.
+ * <p/>
+ * One evaluation in {@link #SAMPLE_INTERVAL} is sampled: every clause is
+ * evaluated and timed, and whether it passed is recorded.  After every
+ * {@link #REORDER_INTERVAL} samples the clauses are sorted by their cost
+ * divided by their rejection rate, which minimizes the expected cost of a
+ * short-circuiting conjunction of independent clauses, and the statistics
+ * are halved so the order follows changes in the data.
+ */
+@ThreadSafe
+final class ClauseProfile
+{
+    @VisibleForTesting
+    static final int SAMPLE_INTERVAL = 128;
+    @VisibleForTesting
+    static final int REORDER_INTERVAL = 256;
+
+    private final int size;
+    private final AtomicLongArray evaluations;
+    private final AtomicLongArray passes;
+    private final AtomicLongArray nanos;
+    private final AtomicLong samples = new AtomicLong();
+    private volatile int[] order;
+
+    ClauseProfile(int size)
+    {
+        Preconditions.checkArgument(size > 0, "size must be at least 1");
+        this.size = size;
+        evaluations = new AtomicLongArray(size);
+        passes = new AtomicLongArray(size);
+        nanos = new AtomicLongArray(size);
+        order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+    }
+
+    /**
+     * Returns the positions of the clauses in the order they should be
+     * evaluated.  The returned array is shared and must not be modified.
+     */
+    int[] getOrder()
+    {
+        return order;
+    }
+
+    @VisibleForTesting
+    void setOrder(int... order)
+    {
+        Preconditions.checkArgument(order.length == size, "order must contain %s clauses", size);
+        this.order = order.clone();
+    }
+
+    /**
+     * Should this evaluation be sampled?
+     */
+    boolean shouldSample()
+    {
+        return ThreadLocalRandom.current().nextInt(SAMPLE_INTERVAL) == 0;
+    }
+
+    void record(int clause, boolean passed, long elapsedNanos)
+    {
+        evaluations.incrementAndGet(clause);
+        if (passed) {
+            passes.incrementAndGet(clause);
+        }
+        nanos.addAndGet(clause, elapsedNanos);
+    }
+
+    /**
+     * Completes a sampled evaluation, reordering the clauses periodically.
+     */
+    void sampled()
+    {
+        if (samples.incrementAndGet() % REORDER_INTERVAL == 0) {
+            reorder();
+        }
+    }
+
+    long getEvaluations(int clause)
+    {
+        return evaluations.get(clause);
+    }
+
+    /**
+     * Returns the fraction of sampled evaluations in which the clause
+     * passed, or 1 if it has not been sampled.
+     */
+    double getPassRate(int clause)
+    {
+        long count = evaluations.get(clause);
+        if (count == 0) {
+            return 1.0;
+        }
+        return Math.min(1.0, (double) passes.get(clause) / count);
+    }
+
+    /**
+     * Returns the average cost of the clause in nanoseconds, or 0 if it has
+     * not been sampled.
+     */
+    double getAverageNanos(int clause)
+    {
+        long count = evaluations.get(clause);
+        if (count == 0) {
+            return 0;
+        }
+        return (double) nanos.get(clause) / count;
+    }
+
+    @VisibleForTesting
+    synchronized void reorder()
+    {
+        final double[] ranks = new double[size];
+        Integer[] newOrder = new Integer[size];
+        for (int clause = 0; clause < size; clause++) {
+            double rejectionRate = 1.0 - getPassRate(clause);
+            // a clause that always passes can only add cost, so it goes last
+            ranks[clause] = rejectionRate == 0 ? Double.POSITIVE_INFINITY : getAverageNanos(clause) / rejectionRate;
+            newOrder[clause] = clause;
+        }
+
+        // the sort is stable, so clauses with equal ranks keep the order they were written in
+        Arrays.sort(newOrder, new Comparator<Integer>()
+        {
+            @Override
+            public int compare(Integer left, Integer right)
+            {
+                return Doubles.compare(ranks[left], ranks[right]);
+            }
+        });
+
+        int[] order = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = newOrder[i];
+        }
+        this.order = order;
+
+        // decay, so recent data dominates; concurrent updates may be lost, which only blurs the statistics
+        for (int clause = 0; clause < size; clause++) {
+            evaluations.set(clause, evaluations.get(clause) / 2);
+            passes.set(clause, passes.get(clause) / 2);
+            nanos.set(clause, nanos.get(clause) / 2);
+        }
+    }
+}
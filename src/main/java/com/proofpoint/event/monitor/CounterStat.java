@@ -16,13 +16,10 @@
 package com.proofpoint.event.monitor;
 
 import com.google.common.annotations.Beta;
-import com.google.common.annotations.VisibleForTesting;
 import org.weakref.jmx.Managed;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -30,62 +27,66 @@ import java.util.concurrent.atomic.AtomicLong;
 @Beta
 public class CounterStat
 {
+    // updates only touch the striped counter; the ticker drains it into the totals and the rates
+    private final StripedCounter pending = new StripedCounter();
     private final AtomicLong count = new AtomicLong(0);
     private final EWMA oneMinute = EWMA.oneMinuteEWMA();
     private final EWMA fiveMinute = EWMA.fiveMinuteEWMA();
     private final EWMA fifteenMinute = EWMA.fifteenMinuteEWMA();
-    private final ScheduledExecutorService executor;
-    private volatile ScheduledFuture<?> future;
+    private final MonitorTicker ticker;
 
-    public CounterStat(ScheduledExecutorService executor)
+    public CounterStat(MonitorTicker ticker)
     {
-        this.executor = executor;
+        this.ticker = ticker;
     }
 
     @PostConstruct
-    public synchronized void start()
+    public void start()
     {
-        if (future == null) {
-            future = executor.scheduleAtFixedRate(new Runnable()
-            {
-                @Override
-                public void run()
-                {
-                    tick();
-                }
-            }, 5, 5, TimeUnit.SECONDS);
-        }
+        ticker.add(this);
     }
 
     @PreDestroy
-    public synchronized void stop()
+    public void stop()
     {
-        if (future != null) {
-            future.cancel(false);
-            future = null;
-        }
+        ticker.remove(this);
     }
 
-    @VisibleForTesting
     public void tick()
     {
+        drain();
         oneMinute.tick();
         fiveMinute.tick();
         fifteenMinute.tick();
     }
 
+    public void tick(long elapsedNanos)
+    {
+        drain();
+        oneMinute.tick(elapsedNanos);
+        fiveMinute.tick(elapsedNanos);
+        fifteenMinute.tick(elapsedNanos);
+    }
+
     public void update(long count)
     {
-        oneMinute.update(count);
-        fiveMinute.update(count);
-        fifteenMinute.update(count);
-        this.count.addAndGet(count);
+        pending.add(count);
     }
 
     @Managed
     public long getCount()
     {
-        return count.get();
+        return count.get() + pending.sum();
+    }
+
+    private void drain()
+    {
+        // a count read racing with the drain may briefly miss the drained events, which is fine for reporting
+        long drained = pending.sumThenReset();
+        count.addAndGet(drained);
+        oneMinute.update(drained);
+        fiveMinute.update(drained);
+        fifteenMinute.update(drained);
     }
 
     @Managed
@@ -56,7 +56,7 @@ class EWMA {
     private volatile double rate = 0.0;
 
     private final AtomicLong uncounted = new AtomicLong();
-    private final double alpha, interval;
+    private final double alpha, interval, timeConstant;
 
     /**
      * Creates a new EWMA which is equivalent to the UNIX one minute load average and which expects to be ticked every
@@ -98,6 +98,8 @@ class EWMA {
     public EWMA(double alpha, long interval, TimeUnit intervalUnit) {
         this.interval = intervalUnit.toNanos(interval);
         this.alpha = alpha;
+        // the alpha is the decay over one interval, so the time constant gives the decay over any elapsed time
+        this.timeConstant = -this.interval / Math.log(1 - alpha);
     }
 
     /**
@@ -110,13 +112,28 @@ class EWMA {
     }
 
     /**
-     * Mark the passage of time and decay the current rate accordingly.
+     * Mark the passage of the expected tick interval and decay the current rate accordingly.
      */
     @VisibleForTesting
     public void tick() {
+        tick((long) interval);
+    }
+
+    /**
+     * Mark the passage of time and decay the current rate accordingly. The count is spread over the time that
+     * actually elapsed, so a tick that runs late does not inflate the rate.
+     *
+     * @param elapsedNanos the time since the previous tick
+     */
+    public void tick(long elapsedNanos) {
+        if (elapsedNanos <= 0) {
+            // leave the count for the next tick rather than divide by zero
+            return;
+        }
         final long count = uncounted.getAndSet(0);
-        double instantRate = count / interval;
+        double instantRate = count / (double) elapsedNanos;
         if (initialized) {
+            double alpha = elapsedNanos == interval ? this.alpha : 1 - exp(-elapsedNanos / timeConstant);
             rate += (alpha * (instantRate - rate));
         } else {
             rate = instantRate;
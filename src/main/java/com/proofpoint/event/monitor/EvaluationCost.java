@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+
+/**
+ * The cost of a monitor's filter, from the evaluations sampled by the
+ * {@link BatchEvaluator}.  Besides the overall average, the average of each
+ * window of {@link #WINDOW} samples is kept with the largest
+ * {@link #TRIMMED} samples left out, so a garbage collection or context switch
+ * during one sampled evaluation does not make a cheap filter look expensive.
+ */
+@ThreadSafe
+final class EvaluationCost
+{
+    @VisibleForTesting
+    static final int WINDOW = 256;
+    @VisibleForTesting
+    static final int TRIMMED = 2;
+
+    @GuardedBy("this")
+    private final long[] window = new long[WINDOW];
+    @GuardedBy("this")
+    private int windowSize;
+    @GuardedBy("this")
+    private long samples;
+    @GuardedBy("this")
+    private long totalNanos;
+    private volatile double windowNanos = Double.NaN;
+
+    synchronized void add(long nanos)
+    {
+        samples++;
+        totalNanos += nanos;
+        window[windowSize++] = nanos;
+        if (windowSize == WINDOW) {
+            Arrays.sort(window);
+            long sum = 0;
+            for (int i = 0; i < WINDOW - TRIMMED; i++) {
+                sum += window[i];
+            }
+            windowNanos = (double) sum / (WINDOW - TRIMMED);
+            windowSize = 0;
+        }
+    }
+
+    synchronized long getSamples()
+    {
+        return samples;
+    }
+
+    /**
+     * Returns the average cost of all sampled evaluations.
+     */
+    synchronized double getAverageNanos()
+    {
+        if (samples == 0) {
+            return Double.NaN;
+        }
+        return (double) totalNanos / samples;
+    }
+
+    /**
+     * Returns the trimmed average cost of the last complete window, or NaN
+     * if there has not been one.
+     */
+    double getWindowNanos()
+    {
+        return windowNanos;
+    }
+
+    synchronized void reset()
+    {
+        windowSize = 0;
+        samples = 0;
+        totalNanos = 0;
+        windowNanos = Double.NaN;
+    }
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.proofpoint.units.Duration;
+import org.weakref.jmx.Managed;
+
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Drops events whose uuid has already been seen within the configured window.
+ * <p/>
+ * The seen uuids are kept in a ring of Bloom filters, each covering a slice
+ * of the window.  A uuid is looked up in every live filter and added to the
+ * newest once its batch is accepted; when a slice expires the oldest filter is cleared and reused, so
+ * memory is fixed regardless of traffic.  Repeats are caught for at least
+ * the configured window.  Like any Bloom filter, a small fraction of unique
+ * events may be mistaken for repeats; the expected fraction is exported.
+ */
+public class EventDeduplicator
+{
+    private static final int GENERATIONS = 4;
+
+    private final Generation[] generations;
+    private final Ticker ticker;
+    private final long generationNanos;
+    private volatile int current;
+    private volatile long nextRotation;
+
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    @Inject
+    public EventDeduplicator(MonitorConfig config)
+    {
+        this(config.isDeduplicationEnabled(), config.getDeduplicationWindow(), config.getDeduplicationExpectedEvents(), config.getDeduplicationFalsePositiveRate(), Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    EventDeduplicator(boolean enabled, Duration window, int expectedEvents, double falsePositiveRate, Ticker ticker)
+    {
+        Preconditions.checkNotNull(window, "window is null");
+        Preconditions.checkArgument(expectedEvents > 0, "expectedEvents must be at least 1");
+        Preconditions.checkArgument(falsePositiveRate > 0 && falsePositiveRate < 1, "falsePositiveRate must be between 0 and 1");
+        Preconditions.checkNotNull(ticker, "ticker is null");
+
+        this.ticker = ticker;
+        // the live generations always cover at least one full window
+        generationNanos = Math.max(1, (long) window.convertTo(TimeUnit.NANOSECONDS) / (GENERATIONS - 1));
+
+        if (enabled) {
+            // a lookup probes every generation, so split the error budget between them
+            int generationEvents = Math.max(1, expectedEvents / (GENERATIONS - 1));
+            double generationFalsePositiveRate = falsePositiveRate / GENERATIONS;
+            generations = new Generation[GENERATIONS];
+            for (int i = 0; i < GENERATIONS; i++) {
+                generations[i] = new Generation(generationEvents, generationFalsePositiveRate);
+            }
+        }
+        else {
+            generations = null;
+        }
+        nextRotation = ticker.read() + generationNanos;
+    }
+
+    @Managed(description = "Is event de-duplication enabled?")
+    public boolean isEnabled()
+    {
+        return generations != null;
+    }
+
+    /**
+     * Starts de-duplicating a batch.  The uuids of the batch are only recorded
+     * when the batch is committed, so a batch that is rejected part way can be
+     * resent without its events being dropped.
+     */
+    public Batch newBatch()
+    {
+        Preconditions.checkState(generations != null, "de-duplication is not enabled");
+        if (ticker.read() - nextRotation >= 0) {
+            rotate();
+        }
+        return new Batch();
+    }
+
+    private boolean mightContain(long hash)
+    {
+        for (Generation generation : generations) {
+            if (generation.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void put(long[] hashes, int count)
+    {
+        Generation generation = generations[current];
+        for (int i = 0; i < count; i++) {
+            generation.put(hashes[i]);
+        }
+    }
+
+    private synchronized void rotate()
+    {
+        long now = ticker.read();
+        for (int i = 0; i < GENERATIONS && now - nextRotation >= 0; i++) {
+            int next = (current + 1) % GENERATIONS;
+            generations[next].clear();
+            current = next;
+            nextRotation += generationNanos;
+        }
+        if (now - nextRotation >= 0) {
+            // idle for longer than the window, so every generation has been cleared
+            nextRotation = now + generationNanos;
+        }
+    }
+
+    @Managed(description = "Number of events checked for duplicates")
+    public long getCheckedCount()
+    {
+        return checked.get();
+    }
+
+    @Managed(description = "Number of events dropped as duplicates")
+    public long getDuplicateCount()
+    {
+        return duplicates.get();
+    }
+
+    @Managed(description = "Estimated probability that a unique event is mistaken for a duplicate")
+    public double getEstimatedFalsePositiveRate()
+    {
+        if (generations == null) {
+            return 0.0;
+        }
+        double miss = 1.0;
+        for (Generation generation : generations) {
+            miss *= 1.0 - generation.getFalsePositiveRate();
+        }
+        return 1.0 - miss;
+    }
+
+    @Managed(description = "Memory used by the filters, in bytes")
+    public long getMemoryUsage()
+    {
+        if (generations == null) {
+            return 0;
+        }
+        long bytes = 0;
+        for (Generation generation : generations) {
+            bytes += generation.getBitCount() / 8;
+        }
+        return bytes;
+    }
+
+    /**
+     * Per-batch state.  A batch is not thread safe and must be confined to
+     * the thread processing the request.
+     */
+    public class Batch
+    {
+        // the hashes accepted in this batch, in order, and an open addressed set of them
+        private long[] hashes = new long[64];
+        private long[] seen = new long[128];
+        private boolean seenZero;
+        private int count;
+        private long duplicateCount;
+        private long checkedCount;
+
+        private Batch()
+        {
+        }
+
+        /**
+         * Returns true if the uuid of the event was seen in an earlier batch
+         * within the window, or earlier in this batch.  Events without a uuid
+         * are never duplicates.
+         */
+        public boolean isDuplicate(Event event)
+        {
+            String uuid = event.getUuid();
+            if (uuid == null) {
+                return false;
+            }
+            checkedCount++;
+
+            long hash = hash(uuid);
+            if (mightContain(hash) || !addSeen(hash)) {
+                duplicateCount++;
+                return true;
+            }
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+            }
+            hashes[count++] = hash;
+            return false;
+        }
+
+        public void commit()
+        {
+            put(hashes, count);
+            checked.addAndGet(checkedCount);
+            duplicates.addAndGet(duplicateCount);
+
+            if (count != 0) {
+                Arrays.fill(seen, 0);
+                seenZero = false;
+            }
+            count = 0;
+            checkedCount = 0;
+            duplicateCount = 0;
+        }
+
+        /**
+         * Adds the hash to the set of hashes seen in this batch, and returns
+         * false if it was already there.  The hash is well mixed, so its low
+         * bits are used as the slot directly; zero marks an empty slot, so
+         * a zero hash is tracked separately.
+         */
+        private boolean addSeen(long hash)
+        {
+            if (hash == 0) {
+                if (seenZero) {
+                    return false;
+                }
+                seenZero = true;
+                return true;
+            }
+
+            // keep the table at most half full, rebuilt from the accepted hashes
+            if (count >= seen.length / 2) {
+                seen = new long[seen.length * 2];
+                for (int i = 0; i < count; i++) {
+                    if (hashes[i] != 0) {
+                        insert(seen, hashes[i]);
+                    }
+                }
+            }
+            return insert(seen, hash);
+        }
+    }
+
+    private static boolean insert(long[] table, long hash)
+    {
+        int mask = table.length - 1;
+        int slot = (int) hash & mask;
+        while (table[slot] != 0) {
+            if (table[slot] == hash) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = hash;
+        return true;
+    }
+
+    /**
+     * 64 bit FNV-1a over the uuid characters, finished with the MurmurHash3
+     * avalanche so that both halves are usable as independent hashes.
+     */
+    @VisibleForTesting
+    static long hash(String value)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * A Bloom filter over a power of two number of bits that can be updated
+     * concurrently without locking.
+     */
+    private static class Generation
+    {
+        private final AtomicLongArray words;
+        private final int mask;
+        private final int hashes;
+        private final AtomicLong bitsSet = new AtomicLong();
+
+        private Generation(int expectedEvents, double falsePositiveRate)
+        {
+            long optimalBits = (long) Math.ceil(-expectedEvents * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+            int bits = Integer.highestOneBit((int) Math.min(1 << 30, Math.max(64, optimalBits)) * 2 - 1);
+            words = new AtomicLongArray(bits / 64);
+            mask = bits - 1;
+            hashes = Math.max(1, (int) Math.round((double) bits / expectedEvents * Math.log(2)));
+        }
+
+        private boolean mightContain(long hash)
+        {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < hashes; i++) {
+                int bit = (h1 + i * h2) & mask;
+                if ((words.get(bit >>> 6) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void put(long hash)
+        {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32) | 1;
+            for (int i = 0; i < hashes; i++) {
+                int bit = (h1 + i * h2) & mask;
+                int index = bit >>> 6;
+                long bitMask = 1L << bit;
+                while (true) {
+                    long word = words.get(index);
+                    if ((word & bitMask) != 0) {
+                        break;
+                    }
+                    if (words.compareAndSet(index, word, word | bitMask)) {
+                        bitsSet.incrementAndGet();
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void clear()
+        {
+            for (int i = 0; i < words.length(); i++) {
+                words.set(i, 0);
+            }
+            bitsSet.set(0);
+        }
+
+        private long getBitCount()
+        {
+            return words.length() * 64L;
+        }
+
+        private double getFalsePositiveRate()
+        {
+            return Math.pow((double) bitsSet.get() / getBitCount(), hashes);
+        }
+    }
+}
@@ -15,20 +15,76 @@
  */
 package com.proofpoint.event.monitor;
 
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import org.mvel2.MVEL;
+import org.mvel2.ParserContext;
+import org.mvel2.PropertyAccessException;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.collect.Lists.newArrayList;
 
 public class EventPredicate implements Predicate<Event>
 {
+    private static final Set<String> KEYWORDS = ImmutableSet.of(
+            "true", "false", "null", "nil", "empty", "new", "instanceof", "is", "contains", "soundslike", "strsim",
+            "convertable_to", "isdef", "and", "or", "if", "else", "foreach", "for", "while", "do", "until", "def",
+            "function", "return", "var", "in", "with", "assert", "import");
+
+    // keywords that may skip evaluating part of a filter
+    private static final Set<String> BRANCH_KEYWORDS = ImmutableSet.of(
+            "or", "isdef", "if", "else", "foreach", "for", "while", "do", "until", "def", "function", "return", "var",
+            "in", "with", "assert", "import");
+
     private final String eventType;
     private final String eventFilter;
     private final Object expression;
+    private final FilterExpression compiledExpression;
+    private final Set<String> dataFields;
+    private final Set<String> requiredFields;
+    // failures are rare, so plain counters are enough and keep the predicate small
+    private final Map<FilterFailure, AtomicLong> failures = Maps.newEnumMap(FilterFailure.class);
+    private final FilterResultCache cache;
+    private volatile FilterExpression evaluatedExpression;
 
     public EventPredicate(String eventType, String eventFilter)
     {
+        this(eventType, eventFilter, null);
+    }
+
+    /**
+     * @param cacheSize the number of results to cache for combinations of the
+     * values of the fields the filter references, or null to evaluate the
+     * filter for every event
+     */
+    public EventPredicate(String eventType, String eventFilter, Integer cacheSize)
+    {
+        Preconditions.checkArgument(cacheSize == null || cacheSize > 0, "cacheSize must be at least 1");
         this.eventType = eventType;
         this.eventFilter = eventFilter;
-        expression = MVEL.compileExpression(eventFilter);
+        ParserContext context = new ParserContext();
+        expression = MVEL.compileExpression(eventFilter, context);
+        compiledExpression = FilterParser.parse(eventFilter);
+        evaluatedExpression = compiledExpression;
+        dataFields = findDataFields(eventFilter);
+        requiredFields = findRequiredFields(eventFilter, context.getInputs().keySet());
+        for (FilterFailure failure : FilterFailure.values()) {
+            failures.put(failure, new AtomicLong());
+        }
+        // a filter that may inspect the entire data map has no key
+        if (cacheSize != null && eventFilter != null && dataFields != null) {
+            cache = new FilterResultCache(FilterResultCache.findKeyFields(compiledExpression, dataFields), cacheSize);
+        }
+        else {
+            cache = null;
+        }
     }
 
     public String getEventType()
@@ -41,8 +97,129 @@ public class EventPredicate implements Predicate<Event>
         return eventFilter;
     }
 
+    /**
+     * Returns the top-level event data fields the filter may reference, or
+     * null if the filter may depend on the entire data map.
+     */
+    public Set<String> getDataFields()
+    {
+        return dataFields;
+    }
+
+    /**
+     * Returns the data fields every event must have for the filter to match.
+     * Events without one are rejected before the filter is evaluated.
+     */
+    public Set<String> getRequiredFields()
+    {
+        return requiredFields;
+    }
+
+    /**
+     * Returns the number of events whose filter failed with the specified
+     * failure.
+     */
+    public long getFailureCount(FilterFailure failure)
+    {
+        return failures.get(failure).get();
+    }
+
+    /**
+     * Returns the fraction of events whose result was cached, or null if the
+     * results are not cached.
+     */
+    public Double getCacheHitRate()
+    {
+        if (cache == null) {
+            return null;
+        }
+        return cache.getHitRate();
+    }
+
+    /**
+     * Are results cached?  The cache is turned off if the values of the
+     * fields the filter references are too diverse for it to be effective.
+     */
+    public boolean isCacheEnabled()
+    {
+        return cache != null && cache.isEnabled();
+    }
+
+    /**
+     * Is the filter evaluated by the compiled expression rather than MVEL?
+     */
+    public boolean isCompiled()
+    {
+        return compiledExpression != null;
+    }
+
+    /**
+     * Returns the clauses of the top-level conjunction of the filter in the
+     * order they are evaluated, or null if the filter is not a compiled
+     * conjunction.
+     */
+    public String getClauseOrder()
+    {
+        FilterExpression.Conjunction conjunction = getConjunction();
+        if (conjunction == null) {
+            return null;
+        }
+        return Joiner.on(" && ").join(conjunction.getOrderedClauses());
+    }
+
+    /**
+     * Returns the sampled pass rate and cost of the clauses of the top-level
+     * conjunction of the filter, in the order they are evaluated, or null if
+     * the filter is not a compiled conjunction.
+     */
+    public String getClauseStats()
+    {
+        FilterExpression.Conjunction conjunction = getConjunction();
+        if (conjunction == null) {
+            return null;
+        }
+        ClauseProfile profile = conjunction.getProfile();
+        List<String> stats = newArrayList();
+        for (int clause : profile.getOrder()) {
+            stats.add(String.format("%s: passed %.1f%%, %.0fns (%d samples)",
+                    conjunction.getOperands().get(clause),
+                    profile.getPassRate(clause) * 100,
+                    profile.getAverageNanos(clause),
+                    profile.getEvaluations(clause)));
+        }
+        return Joiner.on("; ").join(stats);
+    }
+
+    private FilterExpression.Conjunction getConjunction()
+    {
+        FilterExpression expression = evaluatedExpression;
+        if (expression instanceof FilterExpression.Shared) {
+            expression = ((FilterExpression.Shared) expression).getExpression();
+        }
+        if (expression instanceof FilterExpression.Conjunction) {
+            return (FilterExpression.Conjunction) expression;
+        }
+        return null;
+    }
+
+    FilterExpression getCompiledExpression()
+    {
+        return compiledExpression;
+    }
+
     @Override
     public boolean apply(Event event)
+    {
+        return apply(event, compiledExpression, null);
+    }
+
+    /**
+     * Evaluates the filter with a compiled expression equivalent to this
+     * filter's, whose subexpressions may be shared with other filters
+     * through the memo.  The expression is null if the filter is not
+     * compiled.
+     */
+    boolean apply(Event event, FilterExpression filterExpression, FilterExpression.Memo memo)
     {
         if (!event.getType().equals(eventType)) {
             return false;
@@ -52,14 +229,245 @@ public class EventPredicate implements Predicate<Event>
             return true;
         }
 
+        if (filterExpression != null && filterExpression != evaluatedExpression) {
+            // keep the expression the evaluator uses, whose clause statistics are current
+            evaluatedExpression = filterExpression;
+        }
+
+        Map<String, ?> data = event.getData();
+        Object result;
+        List<Object> key = null;
+        if (cache != null && cache.isEnabled()) {
+            key = cache.getKey(data);
+        }
+        if (key != null) {
+            result = cache.get(key);
+            if (result == null) {
+                result = evaluate(data, filterExpression, memo);
+                cache.put(key, result);
+            }
+        }
+        else {
+            result = evaluate(data, filterExpression, memo);
+        }
+
+        if (result instanceof FilterFailure) {
+            // count cached failures too, so the counts do not depend on the cache
+            failures.get(result).incrementAndGet();
+            return false;
+        }
+        return (Boolean) result;
+    }
+
+    /**
+     * Returns the result of the filter, or the reason it failed.
+     */
+    private Object evaluate(Map<String, ?> data, FilterExpression filterExpression, FilterExpression.Memo memo)
+    {
+        if (data == null) {
+            // MVEL fails to resolve any field without data
+            return FilterFailure.MISSING_FIELD;
+        }
+
+        if (filterExpression != null) {
+            Object result = filterExpression.evaluate(data, memo);
+            if (result instanceof Boolean) {
+                return result;
+            }
+            FilterFailure failure = FilterExpression.getFailure(result);
+            if (failure != null) {
+                // MVEL would have thrown an exception
+                return failure;
+            }
+            // fall through to MVEL for values the compiled expression does not interpret
+        }
+        else {
+            // MVEL throws on a missing field, so check the fields up front rather than pay for the exception
+            for (String field : requiredFields) {
+                if (!data.containsKey(field)) {
+                    return FilterFailure.MISSING_FIELD;
+                }
+            }
+        }
+
         try {
             // NOTE: null is considered false
-            return MVEL.executeExpression(expression, event.getData(), Boolean.class) == Boolean.TRUE;
+            return MVEL.executeExpression(expression, data, Boolean.class) == Boolean.TRUE;
         }
-        catch (Exception ignored) {
+        catch (Exception e) {
             // exceptions will be caused by bad data like missing fields
-            return false;
+            return classifyFailure(e);
+        }
+    }
+
+    static FilterFailure classifyFailure(Throwable exception)
+    {
+        for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NullPointerException) {
+                return FilterFailure.NULL_VALUE;
+            }
+            if (cause instanceof ClassCastException || cause instanceof IllegalArgumentException) {
+                return FilterFailure.TYPE_MISMATCH;
+            }
+            if (cause.getCause() == null && cause instanceof PropertyAccessException) {
+                // an unresolvable identifier or property
+                return FilterFailure.MISSING_FIELD;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return FilterFailure.ERROR;
+    }
+
+    /**
+     * Finds the MVEL inputs that are read whenever the filter matches.  A
+     * missing input makes MVEL throw, so the filter cannot match an event
+     * without one.  This only holds when no input can be skipped: filters
+     * with branches, negation, or a conjunction nested below the top level
+     * (which may be negated by a comparison) have no required fields.
+     */
+    static Set<String> findRequiredFields(String eventFilter, Set<String> inputs)
+    {
+        if (eventFilter == null) {
+            return ImmutableSet.of();
+        }
+
+        int length = eventFilter.length();
+        int depth = 0;
+        int position = 0;
+        while (position < length) {
+            char c = eventFilter.charAt(position);
+            char previous = position > 0 ? eventFilter.charAt(position - 1) : 0;
+            char next = position + 1 < length ? eventFilter.charAt(position + 1) : 0;
+            if (c == '\'' || c == '"') {
+                // skip string literal
+                position++;
+                while (position < length && eventFilter.charAt(position) != c) {
+                    if (eventFilter.charAt(position) == '\\') {
+                        position++;
+                    }
+                    position++;
+                }
+                position++;
+                continue;
+            }
+            if (Character.isJavaIdentifierStart(c)) {
+                int start = position;
+                while (position < length && Character.isJavaIdentifierPart(eventFilter.charAt(position))) {
+                    position++;
+                }
+                String identifier = eventFilter.substring(start, position);
+                if (BRANCH_KEYWORDS.contains(identifier) || (identifier.equals("and") && depth > 0)) {
+                    return ImmutableSet.of();
+                }
+                continue;
+            }
+
+            switch (c) {
+                case '(':
+                case '[':
+                    depth++;
+                    break;
+                case ')':
+                case ']':
+                    depth--;
+                    break;
+                case '&':
+                    if (next == '&' && depth > 0) {
+                        return ImmutableSet.of();
+                    }
+                    break;
+                case '!':
+                    if (next != '=') {
+                        return ImmutableSet.of();
+                    }
+                    break;
+                case '=':
+                    // an assignment
+                    if (next != '=' && previous != '=' && previous != '!' && previous != '<' && previous != '>') {
+                        return ImmutableSet.of();
+                    }
+                    break;
+                case '|':
+                case '?':
+                case ':':
+                case ';':
+                case '{':
+                    return ImmutableSet.of();
+            }
+            position++;
+        }
+
+        ImmutableSet.Builder<String> fields = ImmutableSet.builder();
+        for (String input : inputs) {
+            if (!input.equals("this")) {
+                fields.add(input);
+            }
+        }
+        return fields.build();
+    }
+
+    /**
+     * Conservatively finds the variables referenced by an MVEL expression.
+     * Every identifier that is not a literal, keyword or member access is
+     * treated as a reference to a data field; extra names are harmless, as
+     * they only cause unused fields to be decoded.
+     */
+    static Set<String> findDataFields(String eventFilter)
+    {
+        if (eventFilter == null) {
+            return ImmutableSet.of();
+        }
+
+        ImmutableSet.Builder<String> fields = ImmutableSet.builder();
+        int length = eventFilter.length();
+        int position = 0;
+        char previous = 0;
+        while (position < length) {
+            char c = eventFilter.charAt(position);
+            if (c == '\'' || c == '"') {
+                // skip string literal
+                position++;
+                while (position < length && eventFilter.charAt(position) != c) {
+                    if (eventFilter.charAt(position) == '\\') {
+                        position++;
+                    }
+                    position++;
+                }
+                position++;
+                previous = c;
+            }
+            else if (Character.isDigit(c)) {
+                // skip numeric literal including suffixes such as 10L or 1e5
+                while (position < length && (Character.isLetterOrDigit(eventFilter.charAt(position)) || eventFilter.charAt(position) == '.')) {
+                    position++;
+                }
+                previous = '0';
+            }
+            else if (Character.isJavaIdentifierStart(c)) {
+                int start = position;
+                while (position < length && Character.isJavaIdentifierPart(eventFilter.charAt(position))) {
+                    position++;
+                }
+                String identifier = eventFilter.substring(start, position);
+                if (identifier.equals("this")) {
+                    // the filter may inspect the entire data map
+                    return null;
+                }
+                if (previous != '.' && !KEYWORDS.contains(identifier)) {
+                    fields.add(identifier);
+                }
+                previous = 'a';
+            }
+            else {
+                if (!Character.isWhitespace(c)) {
+                    previous = c;
+                }
+                position++;
+            }
         }
+        return fields.build();
     }
 
     @Override
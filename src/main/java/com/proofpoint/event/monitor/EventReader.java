@@ -0,0 +1,291 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.fasterxml.jackson.core.JsonLocation;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newLinkedHashMap;
+
+/**
+ * Reads a JSON array of events one event at a time, so a batch never has to
+ * be materialized in memory as a whole.
+ * <p/>
+ * When a monitor registry is supplied, only the data fields referenced by
+ * the monitors for the event type are decoded; everything else is skipped
+ * without being materialized.  This requires the event type to precede the
+ * data in the event object, which is the case for all known producers;
+ * otherwise the data is decoded in full.  The nested fields the monitors
+ * read, such as {@code request.headers.host}, are looked up as the data is
+ * decoded (see {@link FieldPaths}).
+ */
+public class EventReader
+        implements Closeable
+{
+    private final JsonParser parser;
+    private final MonitorRegistry monitorRegistry;
+    private boolean started;
+    private boolean finished;
+
+    public EventReader(JsonParser parser)
+    {
+        this(parser, null);
+    }
+
+    public EventReader(JsonParser parser, @Nullable MonitorRegistry monitorRegistry)
+    {
+        Preconditions.checkNotNull(parser, "parser is null");
+
+        this.parser = parser;
+        this.monitorRegistry = monitorRegistry;
+    }
+
+    /**
+     * Returns the next event in the batch, or null if the batch is exhausted.
+     */
+    public Event next()
+            throws IOException
+    {
+        if (finished) {
+            return null;
+        }
+
+        if (!started) {
+            started = true;
+            JsonToken token = parser.nextToken();
+            if (token == null) {
+                // an empty body is treated as an empty batch
+                finished = true;
+                return null;
+            }
+            if (token != JsonToken.START_ARRAY) {
+                throw new JsonParseException("Expected an array of events", parser.getCurrentLocation());
+            }
+        }
+
+        JsonToken token = parser.nextToken();
+        if (token == JsonToken.END_ARRAY) {
+            finished = true;
+            return null;
+        }
+        if (token != JsonToken.START_OBJECT) {
+            throw new JsonParseException("Expected an event object", parser.getCurrentLocation());
+        }
+
+        return readEvent();
+    }
+
+    /**
+     * Returns the number of bytes of input consumed so far.  The difference
+     * between two calls measures the encoded size of the events in between.
+     */
+    public long getByteOffset()
+    {
+        JsonLocation location = parser.getCurrentLocation();
+        if (location.getByteOffset() >= 0) {
+            return location.getByteOffset();
+        }
+        // the JSON parser reports offsets into a byte stream as character offsets
+        return Math.max(0, location.getCharOffset());
+    }
+
+    @Override
+    public void close()
+            throws IOException
+    {
+        parser.close();
+    }
+
+    private Event readEvent()
+            throws IOException
+    {
+        String type = null;
+        String uuid = null;
+        String host = null;
+        DateTime timestamp = null;
+        Map<String, Object> data = null;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("type".equals(fieldName)) {
+                type = readString(token);
+            }
+            else if ("uuid".equals(fieldName)) {
+                uuid = readString(token);
+            }
+            else if ("host".equals(fieldName)) {
+                host = readString(token);
+            }
+            else if ("timestamp".equals(fieldName)) {
+                timestamp = readTimestamp(token);
+            }
+            else if ("data".equals(fieldName)) {
+                if (token == JsonToken.START_OBJECT) {
+                    if (type != null && monitorRegistry != null) {
+                        data = monitorRegistry.getFieldPaths(type).extract(readObject(monitorRegistry.getDataFields(type)));
+                    }
+                    else {
+                        data = readObject();
+                    }
+                }
+                else {
+                    throw new JsonParseException("Expected event data to be an object", parser.getCurrentLocation());
+                }
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+
+        if (type == null) {
+            throw new JsonParseException("Event type is missing", parser.getCurrentLocation());
+        }
+        // the filters read the data of every event, so an event without it is malformed
+        if (data == null) {
+            throw new JsonParseException("Event data is missing", parser.getCurrentLocation());
+        }
+
+        return new Event(type, uuid, host, timestamp, data);
+    }
+
+    private String readString(JsonToken token)
+            throws IOException
+    {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (token != JsonToken.VALUE_STRING) {
+            throw new JsonParseException("Expected a string", parser.getCurrentLocation());
+        }
+        return parser.getText();
+    }
+
+    private DateTime readTimestamp(JsonToken token)
+            throws IOException
+    {
+        // same representations as the Jackson Joda module
+        if (token == JsonToken.VALUE_STRING) {
+            try {
+                return new DateTime(parser.getText(), DateTimeZone.UTC);
+            }
+            catch (IllegalArgumentException e) {
+                throw new JsonParseException("Invalid timestamp", parser.getCurrentLocation(), e);
+            }
+        }
+        if (token == JsonToken.VALUE_NUMBER_INT) {
+            return new DateTime(parser.getLongValue(), DateTimeZone.UTC);
+        }
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        throw new JsonParseException("Expected a timestamp", parser.getCurrentLocation());
+    }
+
+    private Map<String, Object> readObject()
+            throws IOException
+    {
+        Map<String, Object> map = newLinkedHashMap();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            map.put(fieldName, readValue(parser.nextToken()));
+        }
+        return map;
+    }
+
+    private Map<String, Object> readObject(@Nullable Set<String> fields)
+            throws IOException
+    {
+        if (fields == null) {
+            return readObject();
+        }
+
+        if (fields.isEmpty()) {
+            parser.skipChildren();
+            return ImmutableMap.of();
+        }
+
+        Map<String, Object> map = newLinkedHashMap();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String fieldName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (fields.contains(fieldName)) {
+                map.put(fieldName, readValue(token));
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+        return map;
+    }
+
+    private List<Object> readArray()
+            throws IOException
+    {
+        List<Object> list = newArrayList();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            list.add(readValue(token));
+        }
+        return list;
+    }
+
+    private Object readValue(JsonToken token)
+            throws IOException
+    {
+        if (token == null) {
+            throw new JsonParseException("Unexpected end of input", parser.getCurrentLocation());
+        }
+
+        // produce the same types as an untyped Jackson data binding
+        switch (token) {
+            case START_OBJECT:
+                return readObject();
+            case START_ARRAY:
+                return readArray();
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDoubleValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            case VALUE_NULL:
+                return null;
+            case VALUE_EMBEDDED_OBJECT:
+                return parser.getEmbeddedObject();
+            default:
+                throw new JsonParseException("Unexpected token " + token, parser.getCurrentLocation());
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts events in fixed windows by the time the events happened rather than
+ * the time they arrived, so a collector that stalls and then flushes its
+ * backlog does not look like a drop followed by a spike.
+ * <p/>
+ * Windows are aligned to multiples of their length.  A window is complete
+ * once the watermark passes its end, and only complete windows are reported.
+ * The watermark trails the newest event time by the allowed lateness.  When
+ * events stop arriving it still advances with the clock, trailing it by at
+ * most the maximum watermark delay, so a source that stops altogether is
+ * noticed.  An event older than the watermark is late; it is still counted
+ * if its window is open, and dropped if its window is already complete.
+ */
+@ThreadSafe
+public class EventTimeWindows
+{
+    public static final int DEFAULT_MAX_WATERMARK_DELAY_SECONDS = 15 * 60;
+
+    // events without a timestamp cannot be placed in a window and are dropped
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private final long windowMillis;
+    private final long allowedLatenessMillis;
+    private final long maxWatermarkDelayMillis;
+    private final Ticker ticker;
+    private final long originNanos;
+    private final long originMillis;
+    // the window the counter started in is missing the events from before it started
+    private final long firstWindowStart;
+
+    @GuardedBy("this")
+    private final SortedMap<Long, Long> openWindows = new TreeMap<Long, Long>();
+    @GuardedBy("this")
+    private long newestEventMillis;
+    @GuardedBy("this")
+    private long watermarkMillis;
+    @GuardedBy("this")
+    private long lateEvents;
+    @GuardedBy("this")
+    private long droppedEvents;
+
+    public EventTimeWindows(int windowSeconds, int allowedLatenessSeconds, int maxWatermarkDelaySeconds, Ticker ticker)
+    {
+        this(windowSeconds, allowedLatenessSeconds, maxWatermarkDelaySeconds, ticker, System.currentTimeMillis());
+    }
+
+    @VisibleForTesting
+    EventTimeWindows(int windowSeconds, int allowedLatenessSeconds, int maxWatermarkDelaySeconds, Ticker ticker, long originMillis)
+    {
+        Preconditions.checkArgument(windowSeconds > 0, "windowSeconds must be positive");
+        Preconditions.checkArgument(allowedLatenessSeconds >= 0, "allowedLatenessSeconds is negative");
+        Preconditions.checkArgument(maxWatermarkDelaySeconds >= 0, "maxWatermarkDelaySeconds is negative");
+        Preconditions.checkNotNull(ticker, "ticker is null");
+
+        this.windowMillis = TimeUnit.SECONDS.toMillis(windowSeconds);
+        this.allowedLatenessMillis = TimeUnit.SECONDS.toMillis(allowedLatenessSeconds);
+        this.maxWatermarkDelayMillis = TimeUnit.SECONDS.toMillis(maxWatermarkDelaySeconds);
+        this.ticker = ticker;
+        this.originNanos = ticker.read();
+        this.originMillis = originMillis;
+        this.firstWindowStart = windowStart(originMillis) + windowMillis;
+        this.newestEventMillis = originMillis;
+        this.watermarkMillis = originMillis - maxWatermarkDelayMillis - allowedLatenessMillis;
+    }
+
+    public int getWindowSeconds()
+    {
+        return (int) TimeUnit.MILLISECONDS.toSeconds(windowMillis);
+    }
+
+    /**
+     * Adds events by their timestamps in milliseconds.
+     */
+    public synchronized void add(long[] eventMillis, int count)
+    {
+        long now = currentMillis();
+        for (int i = 0; i < count; i++) {
+            long millis = eventMillis[i];
+            // events from the far future are from a broken clock and would hold their window open
+            if (millis == NO_TIMESTAMP || millis > now + windowMillis) {
+                droppedEvents++;
+                continue;
+            }
+
+            long start = windowStart(millis);
+            if (start + windowMillis <= watermarkMillis) {
+                droppedEvents++;
+                continue;
+            }
+            if (millis < watermarkMillis) {
+                lateEvents++;
+            }
+
+            Long windowCount = openWindows.get(start);
+            openWindows.put(start, windowCount == null ? 1 : windowCount + 1);
+            newestEventMillis = Math.max(newestEventMillis, Math.min(millis, now));
+        }
+        advance(now);
+    }
+
+    /**
+     * Returns the count of the newest complete window, or null if no window
+     * has completed since the counter started.
+     */
+    public synchronized Long getLastCompleteCount()
+    {
+        Long start = getLastCompleteStart();
+        if (start == null) {
+            return null;
+        }
+        Long count = openWindows.get(start);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Returns the start in milliseconds of the newest complete window, or
+     * null if no window has completed since the counter started.
+     */
+    public synchronized Long getLastCompleteStart()
+    {
+        advance(currentMillis());
+        long start = windowStart(watermarkMillis) - windowMillis;
+        if (start < firstWindowStart) {
+            return null;
+        }
+        return start;
+    }
+
+    public synchronized long getWatermarkMillis()
+    {
+        advance(currentMillis());
+        return watermarkMillis;
+    }
+
+    /**
+     * Returns the number of events that arrived after the watermark passed
+     * them, but in time for their window.
+     */
+    public synchronized long getLateEvents()
+    {
+        return lateEvents;
+    }
+
+    /**
+     * Returns the number of events that were not counted, because their
+     * window was already complete or they had no usable timestamp.
+     */
+    public synchronized long getDroppedEvents()
+    {
+        return droppedEvents;
+    }
+
+    @GuardedBy("this")
+    private void advance(long now)
+    {
+        long watermark = Math.max(newestEventMillis, now - maxWatermarkDelayMillis) - allowedLatenessMillis;
+        if (watermark <= watermarkMillis) {
+            return;
+        }
+        watermarkMillis = watermark;
+
+        // keep the newest complete window, so it can be reported, and drop the ones before it
+        openWindows.headMap(windowStart(watermarkMillis) - windowMillis).clear();
+    }
+
+    private long currentMillis()
+    {
+        return originMillis + TimeUnit.NANOSECONDS.toMillis(ticker.read() - originNanos);
+    }
+
+    private long windowStart(long millis)
+    {
+        long offset = millis % windowMillis;
+        if (offset < 0) {
+            offset += windowMillis;
+        }
+        return millis - offset;
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import org.joda.time.DateTime;
+
+import java.util.Arrays;
+
+/**
+ * The timestamps in milliseconds of the events a monitor matched in a batch,
+ * collected in a primitive array so they can be added to the monitor's
+ * event time windows at once.  This class is not thread safe.
+ */
+class EventTimes
+{
+    private long[] millis = new long[16];
+    private int size;
+
+    public void add(Event event)
+    {
+        DateTime timestamp = event.getTimestamp();
+        add(timestamp == null ? EventTimeWindows.NO_TIMESTAMP : timestamp.getMillis());
+    }
+
+    public void add(long eventMillis)
+    {
+        if (size == millis.length) {
+            millis = Arrays.copyOf(millis, size * 2);
+        }
+        millis[size++] = eventMillis;
+    }
+
+    public void addAll(EventTimes other)
+    {
+        for (int i = 0; i < other.size; i++) {
+            add(other.millis[i]);
+        }
+    }
+
+    public long[] getMillis()
+    {
+        return millis;
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public void clear()
+    {
+        size = 0;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ForwardingMap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * The nested fields, such as {@code request.headers.host}, read by the
+ * compiled filters for one event type.  The {@link EventReader} looks up each
+ * path once when it decodes an event and stores the value in a slot, and the
+ * filters read the slot with a {@link FilterExpression.PathSlot} instead of
+ * walking the nested maps for every monitor.
+ */
+@Immutable
+final class FieldPaths
+{
+    private static final FieldPaths EMPTY = new FieldPaths(ImmutableList.<FilterExpression.Field>of());
+
+    private final List<FilterExpression.Field> fields;
+
+    private FieldPaths(List<FilterExpression.Field> fields)
+    {
+        this.fields = ImmutableList.copyOf(fields);
+    }
+
+    static FieldPaths empty()
+    {
+        return EMPTY;
+    }
+
+    /**
+     * @param filters the compiled filters; null elements are filters that
+     * are not compiled
+     */
+    static FieldPaths create(List<FilterExpression> filters)
+    {
+        Map<FilterExpression.Field, Boolean> fields = Maps.newLinkedHashMap();
+        for (FilterExpression filter : filters) {
+            if (filter != null) {
+                findNestedFields(filter, fields);
+            }
+        }
+        if (fields.isEmpty()) {
+            return EMPTY;
+        }
+        return new FieldPaths(ImmutableList.copyOf(fields.keySet()));
+    }
+
+    private static void findNestedFields(FilterExpression expression, Map<FilterExpression.Field, Boolean> fields)
+    {
+        if (expression instanceof FilterExpression.Field && ((FilterExpression.Field) expression).getPath().size() > 1) {
+            fields.put((FilterExpression.Field) expression, Boolean.TRUE);
+        }
+        for (FilterExpression operand : expression.getOperands()) {
+            findNestedFields(operand, fields);
+        }
+    }
+
+    boolean isEmpty()
+    {
+        return fields.isEmpty();
+    }
+
+    List<FilterExpression.Field> getFields()
+    {
+        return fields;
+    }
+
+    /**
+     * Returns the filters with the nested fields replaced by reads of their
+     * slots.
+     */
+    List<FilterExpression> rewrite(List<FilterExpression> filters)
+    {
+        if (fields.isEmpty()) {
+            return filters;
+        }
+        List<FilterExpression> result = newArrayList();
+        for (FilterExpression filter : filters) {
+            result.add(filter == null ? null : rewrite(filter));
+        }
+        return result;
+    }
+
+    private FilterExpression rewrite(FilterExpression expression)
+    {
+        if (expression instanceof FilterExpression.Field) {
+            int slot = fields.indexOf(expression);
+            if (slot >= 0) {
+                return new FilterExpression.PathSlot((FilterExpression.Field) expression, this, slot);
+            }
+            return expression;
+        }
+        List<FilterExpression> operands = expression.getOperands();
+        if (operands.isEmpty()) {
+            return expression;
+        }
+        ImmutableList.Builder<FilterExpression> rewritten = ImmutableList.builder();
+        for (FilterExpression operand : operands) {
+            rewritten.add(rewrite(operand));
+        }
+        return expression.withOperands(rewritten.build());
+    }
+
+    /**
+     * Looks up the paths in the event data.  The returned map has the same
+     * entries as the data, which must not be modified afterwards.
+     */
+    Map<String, Object> extract(Map<String, Object> data)
+    {
+        Preconditions.checkNotNull(data, "data is null");
+        if (fields.isEmpty()) {
+            return data;
+        }
+        Object[] values = new Object[fields.size()];
+        for (int slot = 0; slot < values.length; slot++) {
+            values[slot] = fields.get(slot).evaluate(data, null);
+        }
+        return new Data(data, this, values);
+    }
+
+    /**
+     * Event data with the values of the paths, or the reason a path has no
+     * value, looked up.
+     */
+    static final class Data
+            extends ForwardingMap<String, Object>
+    {
+        private final Map<String, Object> delegate;
+        private final FieldPaths paths;
+        private final Object[] values;
+
+        private Data(Map<String, Object> delegate, FieldPaths paths, Object[] values)
+        {
+            this.delegate = delegate;
+            this.paths = paths;
+            this.values = values;
+        }
+
+        @Override
+        protected Map<String, Object> delegate()
+        {
+            return delegate;
+        }
+
+        FieldPaths getPaths()
+        {
+            return paths;
+        }
+
+        Object getValue(int slot)
+        {
+            return values[slot];
+        }
+    }
+}
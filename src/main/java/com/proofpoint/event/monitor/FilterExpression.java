@@ -0,0 +1,1660 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * A node of a compiled event filter.
+ * <p/>
+ * Evaluation mirrors MVEL: a filter that MVEL would abort with an exception,
+ * such as one reading a missing field, evaluates to the sentinel for the
+ * {@link FilterFailure} instead, without building an exception.  Values
+ * whose MVEL semantics are not reproduced here, such as comparisons between
+ * strings and numbers where MVEL coerces, evaluate to {@link #FALLBACK} and
+ * the event is handed to MVEL instead.  Both results propagate to the root
+ * unless short-circuited, exactly as the exception would in MVEL.
+ */
+abstract class FilterExpression
+{
+    static final Object MISSING_FIELD = new Sentinel("MISSING_FIELD", FilterFailure.MISSING_FIELD);
+    static final Object NULL_VALUE = new Sentinel("NULL_VALUE", FilterFailure.NULL_VALUE);
+    static final Object TYPE_MISMATCH = new Sentinel("TYPE_MISMATCH", FilterFailure.TYPE_MISMATCH);
+    static final Object FALLBACK = new Sentinel("FALLBACK", null);
+
+    Object evaluate(Map<String, ?> data)
+    {
+        return evaluate(data, null);
+    }
+
+    /**
+     * Evaluates the expression, remembering the values of {@link Shared}
+     * subexpressions in the memo.  The memo may be null if the expression
+     * has no shared subexpressions.
+     */
+    abstract Object evaluate(Map<String, ?> data, Memo memo);
+
+    /**
+     * Returns the direct operands of this expression.
+     */
+    List<FilterExpression> getOperands()
+    {
+        return ImmutableList.of();
+    }
+
+    /**
+     * Returns an equivalent expression with the specified operands, which
+     * must correspond to those returned by {@link #getOperands()}.
+     */
+    FilterExpression withOperands(List<FilterExpression> operands)
+    {
+        return this;
+    }
+
+    static boolean isSentinel(Object value)
+    {
+        return value instanceof Sentinel;
+    }
+
+    /**
+     * Returns the failure a sentinel stands for, or null if the value is not
+     * a failure.
+     */
+    static FilterFailure getFailure(Object value)
+    {
+        if (value instanceof Sentinel) {
+            return ((Sentinel) value).failure;
+        }
+        return null;
+    }
+
+    private static class Sentinel
+    {
+        private final String name;
+        private final FilterFailure failure;
+
+        private Sentinel(String name, FilterFailure failure)
+        {
+            this.name = name;
+            this.failure = failure;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name;
+        }
+    }
+
+    private static Object failedOperand(Object value)
+    {
+        // MVEL throws a NullPointerException unboxing null and a ClassCastException for anything else
+        if (isSentinel(value)) {
+            return value;
+        }
+        return value == null ? NULL_VALUE : TYPE_MISMATCH;
+    }
+
+    static class Literal
+            extends FilterExpression
+    {
+        private final Object value;
+
+        Literal(Object value)
+        {
+            this.value = value;
+        }
+
+        Object getValue()
+        {
+            return value;
+        }
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            return Objects.equal(value, ((Literal) o).value);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(value);
+        }
+
+        @Override
+        public String toString()
+        {
+            if (value instanceof String) {
+                return "'" + value + "'";
+            }
+            return String.valueOf(value);
+        }
+    }
+
+    /**
+     * A data field, optionally followed by properties of nested maps.
+     */
+    static class Field
+            extends FilterExpression
+    {
+        private final List<String> path;
+        private final String name;
+
+        Field(List<String> path)
+        {
+            Preconditions.checkArgument(!path.isEmpty(), "path is empty");
+            this.path = ImmutableList.copyOf(path);
+            this.name = path.get(0);
+        }
+
+        List<String> getPath()
+        {
+            return path;
+        }
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            if (data == null) {
+                // MVEL fails to resolve any variable without data
+                return MISSING_FIELD;
+            }
+            Object value = data.get(name);
+            if (value == null && !data.containsKey(name)) {
+                return MISSING_FIELD;
+            }
+            for (int i = 1; i < path.size(); i++) {
+                if (value == null) {
+                    return NULL_VALUE;
+                }
+                if (!(value instanceof Map)) {
+                    // a bean property, which MVEL resolves by reflection
+                    return FALLBACK;
+                }
+                Map<?, ?> map = (Map<?, ?>) value;
+                String property = path.get(i);
+                value = map.get(property);
+                if (value == null && !map.containsKey(property)) {
+                    // depending on the map class, MVEL either fails or resolves a bean property
+                    return FALLBACK;
+                }
+            }
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            return path.equals(((Field) o).path);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return path.hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            StringBuilder sb = new StringBuilder();
+            for (String element : path) {
+                if (sb.length() != 0) {
+                    sb.append('.');
+                }
+                sb.append(element);
+            }
+            return sb.toString();
+        }
+    }
+
+    static class Not
+            extends FilterExpression
+    {
+        private final FilterExpression operand;
+
+        Not(FilterExpression operand)
+        {
+            this.operand = operand;
+        }
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            Object value = operand.evaluate(data, memo);
+            if (value instanceof Boolean) {
+                return !(Boolean) value;
+            }
+            return failedOperand(value);
+        }
+
+        @Override
+        List<FilterExpression> getOperands()
+        {
+            return ImmutableList.of(operand);
+        }
+
+        @Override
+        FilterExpression withOperands(List<FilterExpression> operands)
+        {
+            return new Not(operands.get(0));
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            return operand.equals(((Not) o).operand);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * operand.hashCode() + 1;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "!(" + operand + ")";
+        }
+    }
+
+    /**
+     * A conjunction of clauses evaluated in the order its {@link ClauseProfile}
+     * expects to be cheapest.
+     * <p/>
+     * Reordering cannot change the result.  A false or failed clause makes
+     * the filter false in MVEL whichever clause is evaluated first, because
+     * any exception also makes it false.  A value only MVEL can interpret
+     * makes the result depend on MVEL unless another clause is false, so the
+     * remaining clauses are still evaluated.  As in MVEL, the first clause
+     * must be a boolean, while the type of the others is not checked.
+     */
+    static class Conjunction
+            extends FilterExpression
+    {
+        private final List<FilterExpression> clauses;
+        private final FilterExpression[] clauseArray;
+        private final ClauseProfile profile;
+
+        Conjunction(List<FilterExpression> clauses)
+        {
+            this(clauses, new ClauseProfile(clauses.size()));
+        }
+
+        private Conjunction(List<FilterExpression> clauses, ClauseProfile profile)
+        {
+            Preconditions.checkArgument(clauses.size() >= 2, "a conjunction needs at least two clauses");
+            this.clauses = ImmutableList.copyOf(clauses);
+            this.clauseArray = clauses.toArray(new FilterExpression[clauses.size()]);
+            this.profile = profile;
+        }
+
+        ClauseProfile getProfile()
+        {
+            return profile;
+        }
+
+        /**
+         * Returns the clauses in the order they are currently evaluated.
+         */
+        List<FilterExpression> getOrderedClauses()
+        {
+            ImmutableList.Builder<FilterExpression> builder = ImmutableList.builder();
+            for (int clause : profile.getOrder()) {
+                builder.add(clauseArray[clause]);
+            }
+            return builder.build();
+        }
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            if (profile.shouldSample()) {
+                return evaluateSampled(data, memo);
+            }
+
+            Object result = Boolean.TRUE;
+            for (int clause : profile.getOrder()) {
+                Object value = clauseArray[clause].evaluate(data, memo);
+                if (value instanceof Boolean) {
+                    if (!(Boolean) value) {
+                        return Boolean.FALSE;
+                    }
+                }
+                else {
+                    Object failure = checkClause(clause, value);
+                    if (failure != FALLBACK) {
+                        return failure;
+                    }
+                    result = FALLBACK;
+                }
+            }
+            return result;
+        }
+
+        @VisibleForTesting
+        Object evaluateSampled(Map<String, ?> data, Memo memo)
+        {
+            // evaluate every clause, so the pass rates do not depend on the order
+            Object result = Boolean.TRUE;
+            for (int clause : profile.getOrder()) {
+                long start = System.nanoTime();
+                Object value = clauseArray[clause].evaluate(data, memo);
+                profile.record(clause, Boolean.TRUE.equals(value), System.nanoTime() - start);
+
+                if (result == Boolean.FALSE || getFailure(result) != null) {
+                    continue;
+                }
+                if (value instanceof Boolean) {
+                    if (!(Boolean) value) {
+                        result = Boolean.FALSE;
+                    }
+                }
+                else {
+                    result = checkClause(clause, value);
+                }
+            }
+            profile.sampled();
+            return result;
+        }
+
+        /**
+         * Returns the failure for a clause that is not a boolean, or
+         * {@link #FALLBACK} if MVEL must decide.
+         */
+        private static Object checkClause(int clause, Object value)
+        {
+            if (getFailure(value) != null) {
+                return value;
+            }
+            if (clause == 0) {
+                return failedOperand(value);
+            }
+            return FALLBACK;
+        }
+
+        @Override
+        List<FilterExpression> getOperands()
+        {
+            return clauses;
+        }
+
+        @Override
+        FilterExpression withOperands(List<FilterExpression> operands)
+        {
+            // the clauses are equivalent, so the statistics still apply
+            return new Conjunction(operands, profile);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            return clauses.equals(((Conjunction) o).clauses);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return clauses.hashCode();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "(" + Joiner.on(" && ").join(clauses) + ")";
+        }
+    }
+
+    static class Or
+            extends FilterExpression
+    {
+        private final FilterExpression left;
+        private final FilterExpression right;
+
+        Or(FilterExpression left, FilterExpression right)
+        {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            Object value = left.evaluate(data, memo);
+            if (!(value instanceof Boolean)) {
+                return failedOperand(value);
+            }
+            if ((Boolean) value) {
+                return Boolean.TRUE;
+            }
+            return checkRight(right.evaluate(data, memo));
+        }
+
+        @Override
+        List<FilterExpression> getOperands()
+        {
+            return ImmutableList.of(left, right);
+        }
+
+        @Override
+        FilterExpression withOperands(List<FilterExpression> operands)
+        {
+            return new Or(operands.get(0), operands.get(1));
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Or that = (Or) o;
+            return left.equals(that.left) && right.equals(that.right);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(getClass(), left, right);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "(" + left + " || " + right + ")";
+        }
+    }
+
+    private static Object checkRight(Object value)
+    {
+        // MVEL does not check the type of the right operand, so anything but a boolean is left to it
+        if (value instanceof Boolean || isSentinel(value)) {
+            return value;
+        }
+        return FALLBACK;
+    }
+
+    enum Operator
+    {
+        EQUAL("=="),
+        NOT_EQUAL("!="),
+        LESS_THAN("<"),
+        LESS_THAN_OR_EQUAL("<="),
+        GREATER_THAN(">"),
+        GREATER_THAN_OR_EQUAL(">=");
+
+        private final String symbol;
+
+        Operator(String symbol)
+        {
+            this.symbol = symbol;
+        }
+
+        String getSymbol()
+        {
+            return symbol;
+        }
+
+        boolean apply(int comparison)
+        {
+            switch (this) {
+                case EQUAL:
+                    return comparison == 0;
+                case NOT_EQUAL:
+                    return comparison != 0;
+                case LESS_THAN:
+                    return comparison < 0;
+                case LESS_THAN_OR_EQUAL:
+                    return comparison <= 0;
+                case GREATER_THAN:
+                    return comparison > 0;
+                case GREATER_THAN_OR_EQUAL:
+                    return comparison >= 0;
+            }
+            throw new AssertionError("unknown operator " + this);
+        }
+
+        boolean isEquality()
+        {
+            return this == EQUAL || this == NOT_EQUAL;
+        }
+    }
+
+    static class Comparison
+            extends FilterExpression
+    {
+        // integers beyond this magnitude are not exactly representable as doubles
+        private static final long MAX_EXACT_DOUBLE = 1L << 53;
+
+        private final Operator operator;
+        private final FilterExpression left;
+        private final FilterExpression right;
+
+        Comparison(Operator operator, FilterExpression left, FilterExpression right)
+        {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+
+        Operator getOperator()
+        {
+            return operator;
+        }
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            Object leftValue = left.evaluate(data, memo);
+            if (isSentinel(leftValue)) {
+                return leftValue;
+            }
+            Object rightValue = right.evaluate(data, memo);
+            if (isSentinel(rightValue)) {
+                return rightValue;
+            }
+            return compare(operator, leftValue, rightValue);
+        }
+
+        static Object compare(Operator operator, Object left, Object right)
+        {
+            if (left == null || right == null) {
+                if (operator.isEquality()) {
+                    return operator.apply(left == right ? 0 : 1);
+                }
+                return Boolean.FALSE;
+            }
+
+            if (isIntegral(left) && isIntegral(right)) {
+                long leftLong = ((Number) left).longValue();
+                long rightLong = ((Number) right).longValue();
+                return operator.apply(leftLong < rightLong ? -1 : (leftLong == rightLong ? 0 : 1));
+            }
+            if (isNumber(left) && isNumber(right)) {
+                if (!isExactDouble(left) || !isExactDouble(right)) {
+                    return FALLBACK;
+                }
+                double leftDouble = ((Number) left).doubleValue();
+                double rightDouble = ((Number) right).doubleValue();
+                return operator.apply(leftDouble < rightDouble ? -1 : (leftDouble == rightDouble ? 0 : 1));
+            }
+
+            if (operator.isEquality()) {
+                // MVEL coerces between strings, numbers and booleans, so only like types are compared here
+                if ((left instanceof String && right instanceof String) || (left instanceof Boolean && right instanceof Boolean)) {
+                    return operator.apply(left.equals(right) ? 0 : 1);
+                }
+            }
+            return FALLBACK;
+        }
+
+        private static boolean isIntegral(Object value)
+        {
+            return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+        }
+
+        private static boolean isNumber(Object value)
+        {
+            return isIntegral(value) || value instanceof Double || value instanceof Float;
+        }
+
+        private static boolean isExactDouble(Object value)
+        {
+            if (isIntegral(value)) {
+                long longValue = ((Number) value).longValue();
+                return -MAX_EXACT_DOUBLE <= longValue && longValue <= MAX_EXACT_DOUBLE;
+            }
+            return !Double.isNaN(((Number) value).doubleValue());
+        }
+
+        @Override
+        List<FilterExpression> getOperands()
+        {
+            return ImmutableList.of(left, right);
+        }
+
+        @Override
+        FilterExpression withOperands(List<FilterExpression> operands)
+        {
+            return new Comparison(operator, operands.get(0), operands.get(1));
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Comparison that = (Comparison) o;
+            return operator == that.operator && left.equals(that.left) && right.equals(that.right);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(operator, left, right);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "(" + left + " " + operator.getSymbol() + " " + right + ")";
+        }
+    }
+
+    /**
+     * A comparison of a value with a constant that watches the types of the
+     * value for the first {@link #WARMUP} evaluations.  If they were all
+     * integers, doubles, or (for equality) strings, and the constant is a
+     * like type, the comparison is then made on primitives, guarded by a
+     * check of the value's class.  Values that fail the guard are compared
+     * by {@link Comparison#compare}, so the result never differs.
+     */
+    static class SpecializedComparison
+            extends FilterExpression
+    {
+        @VisibleForTesting
+        static final int WARMUP = 256;
+
+        private static final int OBSERVING = 0;
+        private static final int GENERIC = 1;
+        private static final int LONG = 2;
+        private static final int DOUBLE = 3;
+        private static final int STRING = 4;
+
+        private final Operator operator;
+        private final FilterExpression target;
+        private final Object constant;
+        private final boolean constantOnLeft;
+        private final AtomicInteger observations = new AtomicInteger();
+        private final AtomicInteger integralObservations = new AtomicInteger();
+        private final AtomicInteger doubleObservations = new AtomicInteger();
+        private final AtomicInteger stringObservations = new AtomicInteger();
+        private volatile int mode = OBSERVING;
+
+        private SpecializedComparison(Operator operator, FilterExpression target, Object constant, boolean constantOnLeft)
+        {
+            this.operator = operator;
+            this.target = target;
+            this.constant = constant;
+            this.constantOnLeft = constantOnLeft;
+        }
+
+        /**
+         * Replaces the comparisons of values with constants in the expression.
+         */
+        static FilterExpression specialize(FilterExpression expression)
+        {
+            if (expression instanceof Comparison) {
+                Comparison comparison = (Comparison) expression;
+                FilterExpression left = comparison.getOperands().get(0);
+                FilterExpression right = comparison.getOperands().get(1);
+                if (isConstant(right) && !(left instanceof Literal)) {
+                    return new SpecializedComparison(comparison.getOperator(), specialize(left), ((Literal) right).getValue(), false);
+                }
+                if (isConstant(left) && !(right instanceof Literal)) {
+                    return new SpecializedComparison(comparison.getOperator(), specialize(right), ((Literal) left).getValue(), true);
+                }
+            }
+            List<FilterExpression> operands = expression.getOperands();
+            if (operands.isEmpty()) {
+                return expression;
+            }
+            ImmutableList.Builder<FilterExpression> specialized = ImmutableList.builder();
+            for (FilterExpression operand : operands) {
+                specialized.add(specialize(operand));
+            }
+            return expression.withOperands(specialized.build());
+        }
+
+        private static boolean isConstant(FilterExpression expression)
+        {
+            if (!(expression instanceof Literal)) {
+                return false;
+            }
+            Object value = ((Literal) expression).getValue();
+            return value instanceof Number || value instanceof String;
+        }
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            Object value = target.evaluate(data, memo);
+            switch (mode) {
+                case LONG:
+                    if (value instanceof Integer) {
+                        return compareLong((Integer) value);
+                    }
+                    if (value instanceof Long) {
+                        return compareLong((Long) value);
+                    }
+                    break;
+                case DOUBLE:
+                    if (value instanceof Double) {
+                        double doubleValue = (Double) value;
+                        if (doubleValue == doubleValue) {
+                            return compareDouble(doubleValue);
+                        }
+                    }
+                    break;
+                case STRING:
+                    if (value instanceof String) {
+                        return operator.apply(constant.equals(value) ? 0 : 1);
+                    }
+                    break;
+                case OBSERVING:
+                    observe(value);
+                    break;
+            }
+            return compareGeneric(value);
+        }
+
+        private Boolean compareLong(long value)
+        {
+            long constantLong = ((Number) constant).longValue();
+            int comparison = value < constantLong ? -1 : (value == constantLong ? 0 : 1);
+            return operator.apply(constantOnLeft ? -comparison : comparison);
+        }
+
+        private Boolean compareDouble(double value)
+        {
+            double constantDouble = ((Number) constant).doubleValue();
+            int comparison = value < constantDouble ? -1 : (value == constantDouble ? 0 : 1);
+            return operator.apply(constantOnLeft ? -comparison : comparison);
+        }
+
+        private Object compareGeneric(Object value)
+        {
+            if (isSentinel(value)) {
+                return value;
+            }
+            return constantOnLeft ? Comparison.compare(operator, constant, value) : Comparison.compare(operator, value, constant);
+        }
+
+        private void observe(Object value)
+        {
+            if (value instanceof Integer || value instanceof Long) {
+                integralObservations.incrementAndGet();
+            }
+            else if (value instanceof Double) {
+                doubleObservations.incrementAndGet();
+            }
+            else if (value instanceof String) {
+                stringObservations.incrementAndGet();
+            }
+            if (observations.incrementAndGet() == WARMUP) {
+                mode = chooseMode();
+            }
+        }
+
+        private int chooseMode()
+        {
+            boolean integralConstant = constant instanceof Integer || constant instanceof Long;
+            if (integralObservations.get() == WARMUP && integralConstant) {
+                return LONG;
+            }
+            // the generic comparison hands integers that a double cannot represent exactly, and NaN, to MVEL
+            if (doubleObservations.get() == WARMUP && constant instanceof Number && Comparison.isExactDouble(constant)) {
+                return DOUBLE;
+            }
+            if (stringObservations.get() == WARMUP && constant instanceof String && operator.isEquality()) {
+                return STRING;
+            }
+            return GENERIC;
+        }
+
+        /**
+         * Returns the type the comparison is specialized for, or null if it is
+         * not (yet) specialized.
+         */
+        @VisibleForTesting
+        String getSpecialization()
+        {
+            switch (mode) {
+                case LONG:
+                    return "long";
+                case DOUBLE:
+                    return "double";
+                case STRING:
+                    return "string";
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        List<FilterExpression> getOperands()
+        {
+            return ImmutableList.of(target);
+        }
+
+        @Override
+        FilterExpression withOperands(List<FilterExpression> operands)
+        {
+            return new SpecializedComparison(operator, operands.get(0), constant, constantOnLeft);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            SpecializedComparison that = (SpecializedComparison) o;
+            return operator == that.operator && target.equals(that.target) && constant.equals(that.constant) && constantOnLeft == that.constantOnLeft;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(operator, target, constant, constantOnLeft);
+        }
+
+        @Override
+        public String toString()
+        {
+            Literal literal = new Literal(constant);
+            if (constantOnLeft) {
+                return "(" + literal + " " + operator.getSymbol() + " " + target + ")";
+            }
+            return "(" + target + " " + operator.getSymbol() + " " + literal + ")";
+        }
+    }
+
+    enum Method
+    {
+        STARTS_WITH("startsWith", 1),
+        ENDS_WITH("endsWith", 1),
+        CONTAINS("contains", 1),
+        EQUALS("equals", 1),
+        EQUALS_IGNORE_CASE("equalsIgnoreCase", 1),
+        LENGTH("length", 0),
+        IS_EMPTY("isEmpty", 0);
+
+        private final String name;
+        private final int arguments;
+
+        Method(String name, int arguments)
+        {
+            this.name = name;
+            this.arguments = arguments;
+        }
+
+        String getName()
+        {
+            return name;
+        }
+
+        int getArguments()
+        {
+            return arguments;
+        }
+
+        static Method find(String name, int arguments)
+        {
+            for (Method method : values()) {
+                if (method.name.equals(name) && method.arguments == arguments) {
+                    return method;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A call to one of the common {@link String} methods.
+     */
+    static class MethodCall
+            extends FilterExpression
+    {
+        private final Method method;
+        private final FilterExpression target;
+        private final FilterExpression argument;
+
+        MethodCall(Method method, FilterExpression target, FilterExpression argument)
+        {
+            Preconditions.checkArgument((argument != null) == (method.getArguments() == 1), "wrong number of arguments for %s", method.getName());
+            this.method = method;
+            this.target = target;
+            this.argument = argument;
+        }
+
+        Method getMethod()
+        {
+            return method;
+        }
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            Object targetValue = target.evaluate(data, memo);
+            if (isSentinel(targetValue)) {
+                return targetValue;
+            }
+            if (targetValue == null) {
+                return NULL_VALUE;
+            }
+            if (!(targetValue instanceof String)) {
+                return FALLBACK;
+            }
+            String string = (String) targetValue;
+
+            switch (method) {
+                case LENGTH:
+                    return string.length();
+                case IS_EMPTY:
+                    return string.isEmpty();
+            }
+
+            Object argumentValue = argument.evaluate(data, memo);
+            if (isSentinel(argumentValue)) {
+                return argumentValue;
+            }
+            if (argumentValue == null) {
+                return NULL_VALUE;
+            }
+            if (!(argumentValue instanceof String)) {
+                return FALLBACK;
+            }
+            String other = (String) argumentValue;
+
+            switch (method) {
+                case STARTS_WITH:
+                    return string.startsWith(other);
+                case ENDS_WITH:
+                    return string.endsWith(other);
+                case CONTAINS:
+                    return string.contains(other);
+                case EQUALS:
+                    return string.equals(other);
+                case EQUALS_IGNORE_CASE:
+                    return string.equalsIgnoreCase(other);
+            }
+            throw new AssertionError("unknown method " + method);
+        }
+
+        @Override
+        List<FilterExpression> getOperands()
+        {
+            if (argument == null) {
+                return ImmutableList.of(target);
+            }
+            return ImmutableList.of(target, argument);
+        }
+
+        @Override
+        FilterExpression withOperands(List<FilterExpression> operands)
+        {
+            return new MethodCall(method, operands.get(0), operands.size() > 1 ? operands.get(1) : null);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            MethodCall that = (MethodCall) o;
+            return method == that.method && target.equals(that.target) && Objects.equal(argument, that.argument);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(method, target, argument);
+        }
+
+        @Override
+        public String toString()
+        {
+            return target + "." + method.getName() + "(" + (argument == null ? "" : argument) + ")";
+        }
+    }
+
+    /**
+     * A nested field whose value was looked up when the event was decoded.
+     * Data decoded for other paths, or not by the {@link EventReader}, is
+     * read through the field.
+     */
+    static class PathSlot
+            extends FilterExpression
+    {
+        private final Field field;
+        private final FieldPaths paths;
+        private final int slot;
+
+        PathSlot(Field field, FieldPaths paths, int slot)
+        {
+            this.field = field;
+            this.paths = paths;
+            this.slot = slot;
+        }
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            if (data instanceof FieldPaths.Data) {
+                FieldPaths.Data extracted = (FieldPaths.Data) data;
+                if (extracted.getPaths() == paths) {
+                    return extracted.getValue(slot);
+                }
+            }
+            return field.evaluate(data, memo);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            PathSlot that = (PathSlot) o;
+            return field.equals(that.field) && paths == that.paths && slot == that.slot;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(field, slot);
+        }
+
+        @Override
+        public String toString()
+        {
+            return field.toString();
+        }
+    }
+
+    /**
+     * The MVEL {@code contains} operator applied to a string.
+     */
+    static class Contains
+            extends FilterExpression
+    {
+        private final FilterExpression target;
+        private final FilterExpression argument;
+
+        Contains(FilterExpression target, FilterExpression argument)
+        {
+            this.target = target;
+            this.argument = argument;
+        }
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            Object targetValue = target.evaluate(data, memo);
+            if (isSentinel(targetValue)) {
+                return targetValue;
+            }
+            Object argumentValue = argument.evaluate(data, memo);
+            if (isSentinel(argumentValue)) {
+                return argumentValue;
+            }
+            return contains(targetValue, argumentValue);
+        }
+
+        static Object contains(Object target, Object argument)
+        {
+            if (target == null) {
+                return Boolean.FALSE;
+            }
+            if (target instanceof String && argument instanceof String) {
+                return ((String) target).contains((String) argument);
+            }
+            // collections, maps and arrays are searched for the element by MVEL
+            return FALLBACK;
+        }
+
+        @Override
+        List<FilterExpression> getOperands()
+        {
+            return ImmutableList.of(target, argument);
+        }
+
+        @Override
+        FilterExpression withOperands(List<FilterExpression> operands)
+        {
+            return new Contains(operands.get(0), operands.get(1));
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Contains that = (Contains) o;
+            return target.equals(that.target) && argument.equals(that.argument);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(getClass(), target, argument);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "(" + target + " contains " + argument + ")";
+        }
+    }
+
+    /**
+     * The MVEL {@code ~=} operator, which matches the string form of the
+     * value against the entire regular expression.
+     */
+    static class Matches
+            extends FilterExpression
+    {
+        private final FilterExpression target;
+        private final Pattern pattern;
+
+        Matches(FilterExpression target, Pattern pattern)
+        {
+            this.target = target;
+            this.pattern = pattern;
+        }
+
+        Pattern getPattern()
+        {
+            return pattern;
+        }
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            Object value = target.evaluate(data, memo);
+            if (isSentinel(value)) {
+                return value;
+            }
+            if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean) {
+                return pattern.matcher(String.valueOf(value)).matches();
+            }
+            return FALLBACK;
+        }
+
+        /**
+         * Returns a string every match of the regular expression contains, or
+         * null if there is none that can be found simply.  The longest run of
+         * literal characters outside of groups is used; a top-level
+         * alternation or an embedded flag, which may make matching case
+         * insensitive, rule out any literal.
+         */
+        static String findRequiredLiteral(String regex)
+        {
+            String best = "";
+            StringBuilder run = new StringBuilder();
+            int depth = 0;
+            int position = 0;
+            while (position < regex.length()) {
+                char c = regex.charAt(position);
+                char next = position + 1 < regex.length() ? regex.charAt(position + 1) : 0;
+                boolean optional = next == '*' || next == '?' || next == '{';
+                if (c == '\\') {
+                    // escapes longer than two characters, such as \x41 or \p{Lu}, are not parsed
+                    if (next == 'Q' || next == 0 || "xu0ckpPN".indexOf(next) >= 0) {
+                        return null;
+                    }
+                    position += 2;
+                    char following = position < regex.length() ? regex.charAt(position) : 0;
+                    optional = following == '*' || following == '?' || following == '{';
+                    if (depth == 0 && !Character.isLetterOrDigit(next) && !optional) {
+                        run.append(next);
+                    }
+                    else {
+                        best = longer(best, run);
+                    }
+                    continue;
+                }
+
+                switch (c) {
+                    case '(':
+                        if (next == '?') {
+                            return null;
+                        }
+                        depth++;
+                        break;
+                    case ')':
+                        depth--;
+                        break;
+                    case '|':
+                        if (depth == 0) {
+                            return null;
+                        }
+                        break;
+                    case '[':
+                        // skip the character class
+                        position++;
+                        if (position < regex.length() && regex.charAt(position) == '^') {
+                            position++;
+                        }
+                        if (position < regex.length() && regex.charAt(position) == ']') {
+                            position++;
+                        }
+                        while (position < regex.length() && regex.charAt(position) != ']') {
+                            if (regex.charAt(position) == '\\') {
+                                position++;
+                            }
+                            else if (regex.charAt(position) == '[') {
+                                // a nested class, such as [a-z&&[^aeiou]], is not parsed
+                                return null;
+                            }
+                            position++;
+                        }
+                        break;
+                    case '{':
+                        // skip the repetition count
+                        while (position < regex.length() && regex.charAt(position) != '}') {
+                            position++;
+                        }
+                        break;
+                    default:
+                        if (depth == 0 && ".*+?^$".indexOf(c) < 0 && !optional) {
+                            run.append(c);
+                            position++;
+                            continue;
+                        }
+                }
+                best = longer(best, run);
+                position++;
+            }
+            best = longer(best, run);
+            return best.isEmpty() ? null : best;
+        }
+
+        private static String longer(String best, StringBuilder run)
+        {
+            String result = run.length() > best.length() ? run.toString() : best;
+            run.setLength(0);
+            return result;
+        }
+
+        @Override
+        List<FilterExpression> getOperands()
+        {
+            return ImmutableList.of(target);
+        }
+
+        @Override
+        FilterExpression withOperands(List<FilterExpression> operands)
+        {
+            return new Matches(operands.get(0), pattern);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Matches that = (Matches) o;
+            return target.equals(that.target) && pattern.pattern().equals(that.pattern.pattern());
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hashCode(getClass(), target, pattern.pattern());
+        }
+
+        @Override
+        public String toString()
+        {
+            return "(" + target + " ~= '" + pattern.pattern() + "')";
+        }
+    }
+
+    /**
+     * Searches a string field for all the literals of the {@code contains}
+     * and {@code ~=} clauses on it in a single pass.  The value is a
+     * {@link ScanResult} if the field is a string, and the value of the field
+     * otherwise.
+     */
+    static class Scan
+            extends FilterExpression
+    {
+        private final FilterExpression target;
+        private final MultiPatternMatcher matcher;
+
+        Scan(FilterExpression target, MultiPatternMatcher matcher)
+        {
+            this.target = target;
+            this.matcher = matcher;
+        }
+
+        MultiPatternMatcher getMatcher()
+        {
+            return matcher;
+        }
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            Object value = target.evaluate(data, memo);
+            if (value instanceof String) {
+                String text = (String) value;
+                return new ScanResult(text, matcher.match(text));
+            }
+            return value;
+        }
+
+        @Override
+        List<FilterExpression> getOperands()
+        {
+            return ImmutableList.of(target);
+        }
+
+        @Override
+        FilterExpression withOperands(List<FilterExpression> operands)
+        {
+            return new Scan(operands.get(0), matcher);
+        }
+
+        @Override
+        public String toString()
+        {
+            return "scan(" + target + ", " + matcher + ")";
+        }
+    }
+
+    static final class ScanResult
+    {
+        private final String text;
+        private final BitSet matches;
+
+        private ScanResult(String text, BitSet matches)
+        {
+            this.text = text;
+            this.matches = matches;
+        }
+    }
+
+    /**
+     * A {@code contains} clause answered by a {@link Scan}.
+     */
+    static class ScannedContains
+            extends FilterExpression
+    {
+        private final FilterExpression scan;
+        private final int literal;
+        private final FilterExpression original;
+
+        /**
+         * @param original the clause, which is evaluated when the field is
+         * not a string
+         */
+        ScannedContains(FilterExpression scan, int literal, FilterExpression original)
+        {
+            this.scan = scan;
+            this.literal = literal;
+            this.original = original;
+        }
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            Object value = scan.evaluate(data, memo);
+            if (value instanceof ScanResult) {
+                return ((ScanResult) value).matches.get(literal);
+            }
+            return original.evaluate(data, memo);
+        }
+
+        @Override
+        List<FilterExpression> getOperands()
+        {
+            return ImmutableList.of(scan);
+        }
+
+        @Override
+        FilterExpression withOperands(List<FilterExpression> operands)
+        {
+            return new ScannedContains(operands.get(0), literal, original);
+        }
+
+        @Override
+        public String toString()
+        {
+            return original.toString();
+        }
+    }
+
+    /**
+     * A {@code ~=} clause whose regular expression is only run if a
+     * {@link Scan} found the literal every match contains.
+     */
+    static class ScannedMatches
+            extends FilterExpression
+    {
+        private final FilterExpression scan;
+        private final int literal;
+        private final Matches original;
+
+        ScannedMatches(FilterExpression scan, int literal, Matches original)
+        {
+            this.scan = scan;
+            this.literal = literal;
+            this.original = original;
+        }
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            Object value = scan.evaluate(data, memo);
+            if (value instanceof ScanResult) {
+                ScanResult result = (ScanResult) value;
+                if (!result.matches.get(literal)) {
+                    return Boolean.FALSE;
+                }
+                return original.getPattern().matcher(result.text).matches();
+            }
+            return original.evaluate(data, memo);
+        }
+
+        @Override
+        List<FilterExpression> getOperands()
+        {
+            return ImmutableList.of(scan);
+        }
+
+        @Override
+        FilterExpression withOperands(List<FilterExpression> operands)
+        {
+            return new ScannedMatches(operands.get(0), literal, original);
+        }
+
+        @Override
+        public String toString()
+        {
+            return original.toString();
+        }
+    }
+
+    /**
+     * A subexpression used by more than one filter, or more than once in a
+     * filter.  Its value is computed once per event and kept in a slot of
+     * the {@link Memo}.
+     */
+    static class Shared
+            extends FilterExpression
+    {
+        private final FilterExpression expression;
+        private final int slot;
+
+        Shared(FilterExpression expression, int slot)
+        {
+            Preconditions.checkArgument(slot >= 0, "slot is negative");
+            this.expression = expression;
+            this.slot = slot;
+        }
+
+        FilterExpression getExpression()
+        {
+            return expression;
+        }
+
+        int getSlot()
+        {
+            return slot;
+        }
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            if (memo == null) {
+                return expression.evaluate(data, null);
+            }
+            if (memo.isSet(slot)) {
+                return memo.get(slot);
+            }
+            Object value = expression.evaluate(data, memo);
+            memo.set(slot, value);
+            return value;
+        }
+
+        @Override
+        List<FilterExpression> getOperands()
+        {
+            return expression.getOperands();
+        }
+
+        @Override
+        FilterExpression withOperands(List<FilterExpression> operands)
+        {
+            return new Shared(expression.withOperands(operands), slot);
+        }
+
+        @Override
+        public String toString()
+        {
+            return expression.toString();
+        }
+    }
+
+    /**
+     * The values of the shared subexpressions for the current event.  A
+     * memo is cleared in constant time by starting a new generation, and
+     * must be confined to one thread.
+     */
+    static final class Memo
+    {
+        private final Object[] values;
+        private final int[] generations;
+        private int generation = 1;
+
+        Memo(int size)
+        {
+            values = new Object[size];
+            generations = new int[size];
+        }
+
+        /**
+         * Forgets all values; called before evaluating the next event.
+         */
+        void clear()
+        {
+            generation++;
+            if (generation == 0) {
+                // wrapped around, so old generations could look current
+                Arrays.fill(generations, 0);
+                Arrays.fill(values, null);
+                generation = 1;
+            }
+        }
+
+        boolean isSet(int slot)
+        {
+            return generations[slot] == generation;
+        }
+
+        Object get(int slot)
+        {
+            return values[slot];
+        }
+
+        void set(int slot, Object value)
+        {
+            values[slot] = value;
+            generations[slot] = generation;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+/**
+ * The reasons an event filter can fail to evaluate.  An event whose filter
+ * fails never matches the monitor.
+ */
+public enum FilterFailure
+{
+    /**
+     * The filter references a data field the event does not have.
+     */
+    MISSING_FIELD,
+
+    /**
+     * A null value was dereferenced or used as a boolean.
+     */
+    NULL_VALUE,
+
+    /**
+     * A value had the wrong type for the operation applied to it.
+     */
+    TYPE_MISMATCH,
+
+    /**
+     * Any other exception thrown by MVEL.
+     */
+    ERROR
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * Merges the compiled filters of the monitors for one event type into a
+ * graph in which identical subexpressions are a single node.  Nodes that are
+ * reached more than once are wrapped in {@link FilterExpression.Shared}, so
+ * when the filters are evaluated against the same event with the same
+ * {@link FilterExpression.Memo}, each distinct clause is evaluated once and
+ * its value reused by every filter containing it.  A string searched for
+ * several literals by {@code contains} and {@code ~=} clauses is scanned for
+ * all of them at once.
+ */
+final class FilterGraph
+{
+    private final List<FilterExpression> expressions;
+    private final int nodeCount;
+    private final int sharedCount;
+
+    /**
+     * @param expressions the compiled filters; null elements are filters that
+     * are not compiled and are returned as null
+     * @param firstSlot the first memo slot to assign to shared nodes
+     */
+    FilterGraph(List<FilterExpression> expressions, int firstSlot)
+    {
+        Map<FilterExpression, FilterExpression> canonical = newHashMap();
+        List<FilterExpression> interned = newArrayList();
+        for (FilterExpression expression : expressions) {
+            interned.add(expression == null ? null : intern(expression, canonical));
+        }
+        nodeCount = canonical.size();
+        interned = scanLiterals(interned);
+
+        // count the parents of each node in the graph; a node with several is evaluated several times
+        Map<FilterExpression, Integer> uses = Maps.newIdentityHashMap();
+        for (FilterExpression expression : interned) {
+            if (expression != null) {
+                countUses(expression, uses);
+            }
+        }
+
+        Map<FilterExpression, FilterExpression> shared = Maps.newIdentityHashMap();
+        int[] nextSlot = {firstSlot};
+        List<FilterExpression> result = newArrayList();
+        for (FilterExpression expression : interned) {
+            result.add(expression == null ? null : share(expression, uses, shared, nextSlot));
+        }
+        this.expressions = Collections.unmodifiableList(result);
+        sharedCount = nextSlot[0] - firstSlot;
+    }
+
+    /**
+     * Returns the filters in the same order as they were provided, with
+     * their shared subexpressions merged.
+     */
+    List<FilterExpression> getExpressions()
+    {
+        return expressions;
+    }
+
+    /**
+     * Returns the number of distinct nodes in the graph.
+     */
+    int getNodeCount()
+    {
+        return nodeCount;
+    }
+
+    /**
+     * Returns the number of memo slots used by the shared nodes.
+     */
+    int getSharedCount()
+    {
+        return sharedCount;
+    }
+
+    private static FilterExpression intern(FilterExpression expression, Map<FilterExpression, FilterExpression> canonical)
+    {
+        List<FilterExpression> operands = expression.getOperands();
+        if (!operands.isEmpty()) {
+            ImmutableList.Builder<FilterExpression> internedOperands = ImmutableList.builder();
+            for (FilterExpression operand : operands) {
+                internedOperands.add(intern(operand, canonical));
+            }
+            expression = expression.withOperands(internedOperands.build());
+        }
+
+        FilterExpression existing = canonical.get(expression);
+        if (existing != null) {
+            return existing;
+        }
+        canonical.put(expression, expression);
+        return expression;
+    }
+
+    /**
+     * Replaces the {@code contains} and {@code ~=} clauses on a string that
+     * is searched for two or more literals with clauses that read the result
+     * of a single {@link FilterExpression.Scan} of the string.
+     */
+    private static List<FilterExpression> scanLiterals(List<FilterExpression> expressions)
+    {
+        Map<FilterExpression, Set<String>> literals = Maps.newLinkedHashMap();
+        Set<FilterExpression> visited = Sets.newIdentityHashSet();
+        for (FilterExpression expression : expressions) {
+            if (expression != null) {
+                collectLiterals(expression, literals, visited);
+            }
+        }
+
+        Map<FilterExpression, FilterExpression> scans = Maps.newIdentityHashMap();
+        for (Map.Entry<FilterExpression, Set<String>> entry : literals.entrySet()) {
+            if (entry.getValue().size() > 1) {
+                MultiPatternMatcher matcher = new MultiPatternMatcher(ImmutableList.copyOf(entry.getValue()));
+                scans.put(entry.getKey(), new FilterExpression.Scan(entry.getKey(), matcher));
+            }
+        }
+        if (scans.isEmpty()) {
+            return expressions;
+        }
+
+        Map<FilterExpression, FilterExpression> rewritten = Maps.newIdentityHashMap();
+        List<FilterExpression> result = newArrayList();
+        for (FilterExpression expression : expressions) {
+            result.add(expression == null ? null : rewrite(expression, scans, rewritten));
+        }
+        return result;
+    }
+
+    private static void collectLiterals(FilterExpression expression, Map<FilterExpression, Set<String>> literals, Set<FilterExpression> visited)
+    {
+        if (!visited.add(expression)) {
+            return;
+        }
+        String literal = getScannedLiteral(expression);
+        if (literal != null) {
+            FilterExpression target = expression.getOperands().get(0);
+            Set<String> targetLiterals = literals.get(target);
+            if (targetLiterals == null) {
+                targetLiterals = Sets.newLinkedHashSet();
+                literals.put(target, targetLiterals);
+            }
+            targetLiterals.add(literal);
+        }
+        for (FilterExpression operand : expression.getOperands()) {
+            collectLiterals(operand, literals, visited);
+        }
+    }
+
+    private static FilterExpression rewrite(FilterExpression expression, Map<FilterExpression, FilterExpression> scans, Map<FilterExpression, FilterExpression> rewritten)
+    {
+        FilterExpression existing = rewritten.get(expression);
+        if (existing != null) {
+            return existing;
+        }
+
+        FilterExpression result = expression;
+        String literal = getScannedLiteral(expression);
+        FilterExpression scan = literal == null ? null : scans.get(expression.getOperands().get(0));
+        if (scan != null) {
+            int index = ((FilterExpression.Scan) scan).getMatcher().getPatterns().indexOf(literal);
+            if (expression instanceof FilterExpression.Matches) {
+                result = new FilterExpression.ScannedMatches(scan, index, (FilterExpression.Matches) expression);
+            }
+            else {
+                result = new FilterExpression.ScannedContains(scan, index, expression);
+            }
+        }
+        else if (!expression.getOperands().isEmpty()) {
+            ImmutableList.Builder<FilterExpression> operands = ImmutableList.builder();
+            for (FilterExpression operand : expression.getOperands()) {
+                operands.add(rewrite(operand, scans, rewritten));
+            }
+            result = expression.withOperands(operands.build());
+        }
+        rewritten.put(expression, result);
+        return result;
+    }
+
+    /**
+     * Returns the literal a string must contain for the expression to be
+     * true, if the expression can be answered by a scan for it.
+     */
+    private static String getScannedLiteral(FilterExpression expression)
+    {
+        if (expression instanceof FilterExpression.Matches) {
+            return FilterExpression.Matches.findRequiredLiteral(((FilterExpression.Matches) expression).getPattern().pattern());
+        }
+        boolean contains = expression instanceof FilterExpression.Contains ||
+                (expression instanceof FilterExpression.MethodCall && ((FilterExpression.MethodCall) expression).getMethod() == FilterExpression.Method.CONTAINS);
+        if (!contains) {
+            return null;
+        }
+        FilterExpression argument = expression.getOperands().get(1);
+        if (argument instanceof FilterExpression.Literal && ((FilterExpression.Literal) argument).getValue() instanceof String) {
+            return (String) ((FilterExpression.Literal) argument).getValue();
+        }
+        return null;
+    }
+
+    private static void countUses(FilterExpression expression, Map<FilterExpression, Integer> uses)
+    {
+        Integer count = uses.get(expression);
+        uses.put(expression, count == null ? 1 : count + 1);
+        if (count == null) {
+            for (FilterExpression operand : expression.getOperands()) {
+                countUses(operand, uses);
+            }
+        }
+    }
+
+    private static FilterExpression share(FilterExpression expression,
+            Map<FilterExpression, Integer> uses,
+            Map<FilterExpression, FilterExpression> shared,
+            int[] nextSlot)
+    {
+        FilterExpression existing = shared.get(expression);
+        if (existing != null) {
+            return existing;
+        }
+
+        FilterExpression result = expression;
+        List<FilterExpression> operands = expression.getOperands();
+        if (!operands.isEmpty()) {
+            ImmutableList.Builder<FilterExpression> sharedOperands = ImmutableList.builder();
+            for (FilterExpression operand : operands) {
+                sharedOperands.add(share(operand, uses, shared, nextSlot));
+            }
+            result = expression.withOperands(sharedOperands.build());
+
+            // fields and literals are as cheap to evaluate as to look up in the memo
+            if (uses.get(expression) > 1) {
+                result = new FilterExpression.Shared(result, nextSlot[0]++);
+            }
+        }
+        shared.put(expression, result);
+        return result;
+    }
+}
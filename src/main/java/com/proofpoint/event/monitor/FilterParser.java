@@ -0,0 +1,469 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.collect.ImmutableSet;
+import com.proofpoint.event.monitor.FilterExpression.Comparison;
+import com.proofpoint.event.monitor.FilterExpression.Contains;
+import com.proofpoint.event.monitor.FilterExpression.Field;
+import com.proofpoint.event.monitor.FilterExpression.Literal;
+import com.proofpoint.event.monitor.FilterExpression.Matches;
+import com.proofpoint.event.monitor.FilterExpression.Method;
+import com.proofpoint.event.monitor.FilterExpression.MethodCall;
+import com.proofpoint.event.monitor.FilterExpression.Operator;
+
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Parses the common subset of MVEL used by monitor filters: data fields and
+ * nested map properties, string, number, boolean and null literals, the
+ * comparison operators, {@code &&}, {@code ||}, {@code !}, parentheses and a
+ * few {@link String} methods.  Filters using anything else are left to MVEL.
+ */
+final class FilterParser
+{
+    // names MVEL resolves to something other than a data field
+    private static final Set<String> RESERVED = ImmutableSet.of(
+            "true", "false", "null", "nil", "empty", "this", "new", "instanceof", "is", "contains", "soundslike",
+            "strsim", "convertable_to", "isdef", "and", "or", "if", "else", "foreach", "for", "while", "do", "until",
+            "def", "function", "return", "var", "in", "with", "assert", "import");
+
+    private final String filter;
+    private int position;
+
+    private FilterParser(String filter)
+    {
+        this.filter = filter;
+    }
+
+    /**
+     * Returns the compiled filter, or null if the filter uses anything outside
+     * the supported subset.
+     */
+    static FilterExpression parse(String filter)
+    {
+        if (filter == null) {
+            return null;
+        }
+        try {
+            FilterParser parser = new FilterParser(filter);
+            FilterExpression expression = parser.parseOr();
+            parser.skipWhitespace();
+            if (parser.position != filter.length()) {
+                return null;
+            }
+            return expression;
+        }
+        catch (UnsupportedFilterException e) {
+            return null;
+        }
+    }
+
+    private FilterExpression parseOr()
+    {
+        FilterExpression expression = parseAnd();
+        while (consume("||")) {
+            expression = new FilterExpression.Or(expression, parseAnd());
+        }
+        return expression;
+    }
+
+    private FilterExpression parseAnd()
+    {
+        FilterExpression expression = parseComparison();
+        List<FilterExpression> clauses = null;
+        while (consume("&&")) {
+            if (clauses == null) {
+                clauses = newArrayList();
+                addClause(clauses, expression);
+            }
+            addClause(clauses, parseComparison());
+        }
+        if (clauses == null) {
+            return expression;
+        }
+        return new FilterExpression.Conjunction(clauses);
+    }
+
+    private static void addClause(List<FilterExpression> clauses, FilterExpression clause)
+    {
+        // a parenthesized conjunction has the same value as its clauses inlined
+        if (clause instanceof FilterExpression.Conjunction) {
+            clauses.addAll(clause.getOperands());
+        }
+        else {
+            clauses.add(clause);
+        }
+    }
+
+    private FilterExpression parseComparison()
+    {
+        FilterExpression left = parseUnary();
+        boolean contains = consumeKeyword("contains");
+        boolean matches = !contains && consume("~=");
+        Operator operator = contains || matches ? null : parseOperator();
+        if (operator == null && !contains && !matches) {
+            return left;
+        }
+        if (left instanceof FilterExpression.Not) {
+            // MVEL and Java disagree on how tightly ! binds here
+            throw new UnsupportedFilterException();
+        }
+        FilterExpression right = parseUnary();
+        if (right instanceof FilterExpression.Not || parseOperator() != null || consumeKeyword("contains") || consume("~=")) {
+            throw new UnsupportedFilterException();
+        }
+        if (contains) {
+            return new Contains(left, right);
+        }
+        if (matches) {
+            return new Matches(left, compilePattern(right));
+        }
+        return new Comparison(operator, left, right);
+    }
+
+    private static Pattern compilePattern(FilterExpression expression)
+    {
+        // MVEL compiles patterns that are not constants for each evaluation
+        if (!(expression instanceof Literal) || !(((Literal) expression).getValue() instanceof String)) {
+            throw new UnsupportedFilterException();
+        }
+        try {
+            return Pattern.compile((String) ((Literal) expression).getValue());
+        }
+        catch (PatternSyntaxException e) {
+            throw new UnsupportedFilterException();
+        }
+    }
+
+    private Operator parseOperator()
+    {
+        skipWhitespace();
+        // longer operators first
+        for (String symbol : new String[] {"==", "!=", "<=", ">=", "<", ">"}) {
+            if (filter.startsWith(symbol, position)) {
+                if (symbol.length() == 1 && position + 1 < filter.length() && "=<>".indexOf(filter.charAt(position + 1)) >= 0) {
+                    // operators such as << or <>
+                    throw new UnsupportedFilterException();
+                }
+                if (symbol.length() == 2 && position + 2 < filter.length() && filter.charAt(position + 2) == '=') {
+                    // operators such as ===
+                    throw new UnsupportedFilterException();
+                }
+                position += symbol.length();
+                for (Operator operator : Operator.values()) {
+                    if (operator.getSymbol().equals(symbol)) {
+                        return operator;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private FilterExpression parseUnary()
+    {
+        skipWhitespace();
+        if (peek() == '!' && peek(1) != '=') {
+            position++;
+            return new FilterExpression.Not(parseUnary());
+        }
+        if (peek() == '-' && Character.isDigit(peek(1))) {
+            position++;
+            return parseNumber(true);
+        }
+        return parsePostfix(parsePrimary());
+    }
+
+    private FilterExpression parsePrimary()
+    {
+        skipWhitespace();
+        char c = peek();
+        if (c == '(') {
+            position++;
+            FilterExpression expression = parseOr();
+            expect(')');
+            return expression;
+        }
+        if (c == '\'' || c == '"') {
+            return new Literal(parseString());
+        }
+        if (Character.isDigit(c)) {
+            return parseNumber(false);
+        }
+        if (Character.isJavaIdentifierStart(c)) {
+            String identifier = parseIdentifier();
+            if (identifier.equals("true")) {
+                return new Literal(Boolean.TRUE);
+            }
+            if (identifier.equals("false")) {
+                return new Literal(Boolean.FALSE);
+            }
+            if (identifier.equals("null") || identifier.equals("nil")) {
+                return new Literal(null);
+            }
+            if (RESERVED.contains(identifier) || isClassName(identifier) || peek() == '(') {
+                throw new UnsupportedFilterException();
+            }
+
+            List<String> path = newArrayList(identifier);
+            while (peek() == '.' && Character.isJavaIdentifierStart(peek(1)) && !isMethodCall()) {
+                position++;
+                path.add(parseIdentifier());
+            }
+            return new Field(path);
+        }
+        throw new UnsupportedFilterException();
+    }
+
+    private FilterExpression parsePostfix(FilterExpression target)
+    {
+        if (peek() != '.') {
+            return target;
+        }
+        position++;
+        String name = parseIdentifier();
+        skipWhitespace();
+        expect('(');
+        skipWhitespace();
+        FilterExpression argument = null;
+        if (peek() != ')') {
+            argument = parseOr();
+        }
+        expect(')');
+
+        Method method = Method.find(name, argument == null ? 0 : 1);
+        if (method == null || peek() == '.') {
+            throw new UnsupportedFilterException();
+        }
+        return new MethodCall(method, target, argument);
+    }
+
+    private boolean isMethodCall()
+    {
+        // a property followed by an argument list
+        int end = position + 1;
+        while (end < filter.length() && Character.isJavaIdentifierPart(filter.charAt(end))) {
+            end++;
+        }
+        while (end < filter.length() && Character.isWhitespace(filter.charAt(end))) {
+            end++;
+        }
+        return end < filter.length() && filter.charAt(end) == '(';
+    }
+
+    private String parseIdentifier()
+    {
+        if (!Character.isJavaIdentifierStart(peek())) {
+            throw new UnsupportedFilterException();
+        }
+        int start = position;
+        while (position < filter.length() && Character.isJavaIdentifierPart(filter.charAt(position))) {
+            position++;
+        }
+        return filter.substring(start, position);
+    }
+
+    private String parseString()
+    {
+        char quote = filter.charAt(position++);
+        StringBuilder value = new StringBuilder();
+        while (true) {
+            if (position >= filter.length()) {
+                throw new UnsupportedFilterException();
+            }
+            char c = filter.charAt(position++);
+            if (c == quote) {
+                return value.toString();
+            }
+            if (c == '\\') {
+                if (position >= filter.length()) {
+                    throw new UnsupportedFilterException();
+                }
+                char escaped = filter.charAt(position++);
+                switch (escaped) {
+                    case '\\':
+                    case '\'':
+                    case '"':
+                        value.append(escaped);
+                        break;
+                    case 'n':
+                        value.append('\n');
+                        break;
+                    case 't':
+                        value.append('\t');
+                        break;
+                    case 'r':
+                        value.append('\r');
+                        break;
+                    default:
+                        throw new UnsupportedFilterException();
+                }
+            }
+            else {
+                value.append(c);
+            }
+        }
+    }
+
+    private Literal parseNumber(boolean negative)
+    {
+        int start = position;
+        while (Character.isDigit(peek())) {
+            position++;
+        }
+        boolean decimal = false;
+        if (peek() == '.' && Character.isDigit(peek(1))) {
+            decimal = true;
+            position++;
+            while (Character.isDigit(peek())) {
+                position++;
+            }
+        }
+        if (peek() == 'e' || peek() == 'E') {
+            decimal = true;
+            position++;
+            if (peek() == '+' || peek() == '-') {
+                position++;
+            }
+            if (!Character.isDigit(peek())) {
+                throw new UnsupportedFilterException();
+            }
+            while (Character.isDigit(peek())) {
+                position++;
+            }
+        }
+        String text = (negative ? "-" : "") + filter.substring(start, position);
+
+        char suffix = peek();
+        if (isIdentifierPart(suffix) || suffix == '.') {
+            if ((suffix == 'L' || suffix == 'l') && !decimal && !isIdentifierPart(peek(1))) {
+                position++;
+                return new Literal(parseLong(text));
+            }
+            // other suffixes and radix prefixes
+            throw new UnsupportedFilterException();
+        }
+
+        try {
+            if (decimal) {
+                return new Literal(Double.valueOf(text));
+            }
+            long value = parseLong(text);
+            if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                return new Literal((int) value);
+            }
+            return new Literal(value);
+        }
+        catch (NumberFormatException e) {
+            throw new UnsupportedFilterException();
+        }
+    }
+
+    private static long parseLong(String text)
+    {
+        try {
+            return Long.parseLong(text);
+        }
+        catch (NumberFormatException e) {
+            throw new UnsupportedFilterException();
+        }
+    }
+
+    private static boolean isIdentifierPart(char c)
+    {
+        // peek() returns NUL past the end, which Java considers part of an identifier
+        return c != 0 && Character.isJavaIdentifierPart(c);
+    }
+
+    private static boolean isClassName(String identifier)
+    {
+        // MVEL imports java.lang, so names such as Integer or Math resolve to classes
+        if (!Character.isUpperCase(identifier.charAt(0))) {
+            return false;
+        }
+        try {
+            Class.forName("java.lang." + identifier);
+            return true;
+        }
+        catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    private boolean consume(String symbol)
+    {
+        skipWhitespace();
+        if (filter.startsWith(symbol, position)) {
+            position += symbol.length();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean consumeKeyword(String keyword)
+    {
+        skipWhitespace();
+        if (filter.startsWith(keyword, position) && !isIdentifierPart(peek(keyword.length()))) {
+            position += keyword.length();
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c)
+    {
+        skipWhitespace();
+        if (peek() != c) {
+            throw new UnsupportedFilterException();
+        }
+        position++;
+    }
+
+    private void skipWhitespace()
+    {
+        while (position < filter.length() && Character.isWhitespace(filter.charAt(position))) {
+            position++;
+        }
+    }
+
+    private char peek()
+    {
+        return peek(0);
+    }
+
+    private char peek(int offset)
+    {
+        if (position + offset >= filter.length()) {
+            return 0;
+        }
+        return filter.charAt(position + offset);
+    }
+
+    private static class UnsupportedFilterException
+            extends RuntimeException
+    {
+        private UnsupportedFilterException()
+        {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.google.common.collect.Sets.newLinkedHashSet;
+
+/**
+ * The results of a filter for recently seen combinations of the values of
+ * the fields it references, evicted least recently used first.
+ * <p/>
+ * The key holds the values the filter reads, such as the host of
+ * {@code request.headers.host}, rather than the top-level {@code request}
+ * map, so building a key does not hash nested data and the cache does not
+ * keep it alive.  Events whose key would still hold a map or a list are
+ * evaluated without the cache.
+ * <p/>
+ * The cache turns itself off when, after {@link #MIN_LOOKUPS} lookups, fewer
+ * than {@link #MIN_HIT_RATE} of them were hits: the values of the fields are
+ * then too diverse for the cache to save more than it costs to build the keys.
+ */
+@ThreadSafe
+final class FilterResultCache
+{
+    @VisibleForTesting
+    static final long MIN_LOOKUPS = 10000;
+    @VisibleForTesting
+    static final double MIN_HIT_RATE = 0.5;
+    // one miss in CHECK_INTERVAL checks the hit rate
+    private static final int CHECK_INTERVAL = 64;
+
+    private final List<FilterExpression.Field> fields;
+    private final Cache<List<Object>, Object> cache;
+    private volatile boolean enabled = true;
+
+    /**
+     * @param fields the fields the filter may reference; the filter must not
+     * depend on anything else
+     */
+    FilterResultCache(Collection<FilterExpression.Field> fields, int maximumSize)
+    {
+        Preconditions.checkNotNull(fields, "fields is null");
+        Preconditions.checkArgument(maximumSize > 0, "maximumSize must be at least 1");
+        this.fields = ImmutableList.copyOf(fields);
+        cache = CacheBuilder.newBuilder()
+                .maximumSize(maximumSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Is the cache still in use, or was it turned off for a low hit rate?
+     */
+    boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Returns the fraction of lookups that were hits.
+     */
+    double getHitRate()
+    {
+        return cache.stats().hitRate();
+    }
+
+    long getSize()
+    {
+        return cache.size();
+    }
+
+    /**
+     * Returns the fields a filter reads: the fields of its compiled
+     * expression, or else the top-level data fields it references.
+     */
+    static List<FilterExpression.Field> findKeyFields(@Nullable FilterExpression compiledExpression, Set<String> dataFields)
+    {
+        Set<FilterExpression.Field> fields = newLinkedHashSet();
+        if (compiledExpression != null) {
+            findFields(compiledExpression, fields);
+        }
+        else {
+            for (String field : dataFields) {
+                fields.add(new FilterExpression.Field(ImmutableList.of(field)));
+            }
+        }
+        return ImmutableList.copyOf(fields);
+    }
+
+    private static void findFields(FilterExpression expression, Set<FilterExpression.Field> fields)
+    {
+        if (expression instanceof FilterExpression.Field) {
+            fields.add((FilterExpression.Field) expression);
+        }
+        for (FilterExpression operand : expression.getOperands()) {
+            findFields(operand, fields);
+        }
+    }
+
+    /**
+     * Returns the key of the event data, which is only valid while the
+     * values of the data are not modified, or null if the result for the
+     * data must not be cached.
+     */
+    List<Object> getKey(@Nullable Map<String, ?> data)
+    {
+        if (data == null) {
+            return null;
+        }
+        Object[] values = new Object[fields.size()];
+        for (int i = 0; i < values.length; i++) {
+            // a missing field and a null value are distinct sentinels
+            Object value = fields.get(i).evaluate(data, null);
+            if (value == FilterExpression.FALLBACK || value instanceof Map || value instanceof Collection) {
+                // the filter may read a bean, or nested data the key would have to hold
+                return null;
+            }
+            values[i] = value;
+        }
+        return Arrays.asList(values);
+    }
+
+    /**
+     * Returns the cached result for the key, or null if there is none.
+     */
+    Object get(List<Object> key)
+    {
+        Object result = cache.getIfPresent(key);
+        if (result == null && ThreadLocalRandom.current().nextInt(CHECK_INTERVAL) == 0) {
+            checkHitRate();
+        }
+        return result;
+    }
+
+    void put(List<Object> key, Object result)
+    {
+        Preconditions.checkNotNull(result, "result is null");
+        if (enabled) {
+            cache.put(key, result);
+        }
+    }
+
+    @VisibleForTesting
+    void checkHitRate()
+    {
+        CacheStats stats = cache.stats();
+        if (stats.requestCount() >= MIN_LOOKUPS && stats.hitRate() < MIN_HIT_RATE) {
+            enabled = false;
+            cache.invalidateAll();
+        }
+    }
+}
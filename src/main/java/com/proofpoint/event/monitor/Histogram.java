@@ -0,0 +1,186 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.weakref.jmx.Managed;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values.  Values are counted in
+ * log-linear buckets: each power of two is split into eight sub-buckets, so
+ * reported quantiles are within 12.5% of the true value.
+ */
+public class Histogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final double scale;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Creates a histogram of durations, recorded in nanoseconds and reported
+     * in milliseconds.
+     */
+    public static Histogram durationHistogram()
+    {
+        return new Histogram(TimeUnit.MILLISECONDS.toNanos(1));
+    }
+
+    public static Histogram valueHistogram()
+    {
+        return new Histogram(1);
+    }
+
+    private Histogram(double scale)
+    {
+        this.scale = scale;
+    }
+
+    public void add(long value)
+    {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long currentMax = max.get();
+        while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+            currentMax = max.get();
+        }
+    }
+
+    @Managed
+    public void reset()
+    {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    @Managed
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    @Managed
+    public double getMean()
+    {
+        long count = this.count.get();
+        if (count == 0) {
+            return Double.NaN;
+        }
+        return sum.get() / scale / count;
+    }
+
+    @Managed
+    public double getMax()
+    {
+        if (count.get() == 0) {
+            return Double.NaN;
+        }
+        return max.get() / scale;
+    }
+
+    @Managed
+    public double getP50()
+    {
+        return getQuantile(0.5);
+    }
+
+    @Managed
+    public double getP90()
+    {
+        return getQuantile(0.9);
+    }
+
+    @Managed
+    public double getP99()
+    {
+        return getQuantile(0.99);
+    }
+
+    @Managed
+    public double getP999()
+    {
+        return getQuantile(0.999);
+    }
+
+    public double getQuantile(double quantile)
+    {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) {
+            return Double.NaN;
+        }
+
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && snapshot[i] != 0) {
+                // report the middle of the bucket, but never more than the largest value seen
+                long lower = bucketLowerBound(i);
+                long middle = lower + (bucketLowerBound(i + 1) - lower) / 2;
+                return Math.min(middle, max.get()) / scale;
+            }
+        }
+        return max.get() / scale;
+    }
+
+    @VisibleForTesting
+    static int bucketIndex(long value)
+    {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    @VisibleForTesting
+    static long bucketLowerBound(int index)
+    {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        if (magnitude >= 63) {
+            return Long.MAX_VALUE;
+        }
+        return (long) (SUB_BUCKETS + subBucket) << (magnitude - SUB_BUCKET_BITS);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.proofpoint.log.Logger;
+import com.proofpoint.units.Duration;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decouples event evaluation from the request threads.  Batches are placed
+ * on a bounded queue drained by a dedicated worker pool; when the queue is
+ * full new batches are rejected so the caller can apply backpressure.
+ */
+public class IngestQueue
+{
+    private static final Logger log = Logger.get(IngestQueue.class);
+
+    private final BatchEvaluator batchEvaluator;
+    private final IngestStats ingestStats;
+    private final ThreadPoolExecutor executor;
+    private final int queueSize;
+    private final Duration retryAfter;
+
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong dequeued = new AtomicLong();
+    private final AtomicLong totalQueueNanos = new AtomicLong();
+
+    @Inject
+    public IngestQueue(MonitorConfig config, BatchEvaluator batchEvaluator, IngestStats ingestStats)
+    {
+        this(config.isAsyncIngestEnabled(), config.getIngestQueueSize(), config.getIngestThreads(), config.getIngestRetryAfter(), batchEvaluator, ingestStats);
+    }
+
+    @VisibleForTesting
+    IngestQueue(boolean enabled, int queueSize, int threads, Duration retryAfter, BatchEvaluator batchEvaluator, IngestStats ingestStats)
+    {
+        Preconditions.checkArgument(queueSize > 0, "queueSize must be at least 1");
+        Preconditions.checkArgument(threads > 0, "threads must be at least 1");
+        Preconditions.checkNotNull(retryAfter, "retryAfter is null");
+        Preconditions.checkNotNull(batchEvaluator, "batchEvaluator is null");
+        Preconditions.checkNotNull(ingestStats, "ingestStats is null");
+
+        this.batchEvaluator = batchEvaluator;
+        this.ingestStats = ingestStats;
+        this.queueSize = queueSize;
+        this.retryAfter = retryAfter;
+
+        if (enabled) {
+            executor = new ThreadPoolExecutor(threads, threads,
+                    0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize),
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("monitor-ingest-%s").build(),
+                    new ThreadPoolExecutor.AbortPolicy());
+        }
+        else {
+            executor = null;
+        }
+    }
+
+    @PreDestroy
+    public void stop()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    @Managed(description = "Is asynchronous ingest enabled?")
+    public boolean isEnabled()
+    {
+        return executor != null;
+    }
+
+    /**
+     * How long a client should wait before resending a rejected batch.
+     */
+    public Duration getRetryAfter()
+    {
+        return retryAfter;
+    }
+
+    /**
+     * Queues a batch for evaluation.
+     *
+     * @return false if the queue is full and the batch was rejected
+     */
+    public boolean offer(final List<Event> events)
+    {
+        Preconditions.checkState(executor != null, "asynchronous ingest is not enabled");
+
+        final long enqueueTime = System.nanoTime();
+        try {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    long start = System.nanoTime();
+                    totalQueueNanos.addAndGet(start - enqueueTime);
+                    dequeued.incrementAndGet();
+                    try {
+                        batchEvaluator.evaluate(events);
+                        ingestStats.getEvaluationTime().add(System.nanoTime() - start);
+                        processed.incrementAndGet();
+                    }
+                    catch (Exception e) {
+                        failed.incrementAndGet();
+                        log.error(e, "Failed to evaluate batch of %s events", events.size());
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        enqueued.incrementAndGet();
+        return true;
+    }
+
+    @Managed(description = "Number of batches waiting to be evaluated")
+    public int getQueueDepth()
+    {
+        if (executor == null) {
+            return 0;
+        }
+        return executor.getQueue().size();
+    }
+
+    @Managed(description = "Maximum number of batches waiting to be evaluated")
+    public int getQueueSize()
+    {
+        return queueSize;
+    }
+
+    @Managed(description = "Number of workers currently evaluating batches")
+    public int getActiveWorkers()
+    {
+        if (executor == null) {
+            return 0;
+        }
+        return executor.getActiveCount();
+    }
+
+    @Managed(description = "Number of batches accepted")
+    public long getEnqueuedCount()
+    {
+        return enqueued.get();
+    }
+
+    @Managed(description = "Number of batches rejected because the queue was full")
+    public long getRejectedCount()
+    {
+        return rejected.get();
+    }
+
+    @Managed(description = "Number of batches evaluated")
+    public long getProcessedCount()
+    {
+        return processed.get();
+    }
+
+    @Managed(description = "Number of batches that failed evaluation")
+    public long getFailedCount()
+    {
+        return failed.get();
+    }
+
+    @Managed(description = "Average time a batch waits in the queue before evaluation starts, in milliseconds")
+    public double getAverageEnqueueLatency()
+    {
+        long count = dequeued.get();
+        if (count == 0) {
+            return 0.0;
+        }
+        return totalQueueNanos.get() / 1.0e6 / count;
+    }
+}
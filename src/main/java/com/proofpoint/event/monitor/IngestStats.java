@@ -0,0 +1,286 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.MapMaker;
+import org.weakref.jmx.Managed;
+import org.weakref.jmx.Nested;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.collect.Maps.newHashMap;
+
+/**
+ * Accounts for the events received by the tap, broken down by event type.
+ */
+public class IngestStats
+{
+    private final ScheduledExecutorService executor;
+    private final Ticker ticker;
+    private final AtomicLong lastTickNanos = new AtomicLong();
+    private volatile ConcurrentMap<String, EventTypeStats> stats = new MapMaker().makeMap();
+    private final Histogram decodeTime = Histogram.durationHistogram();
+    private final Histogram evaluationTime = Histogram.durationHistogram();
+    private final Histogram batchSize = Histogram.valueHistogram();
+    private ScheduledFuture<?> future;
+
+    @Inject
+    public IngestStats(@MonitorExecutorService ScheduledExecutorService executor)
+    {
+        this(executor, Ticker.systemTicker());
+    }
+
+    public IngestStats(ScheduledExecutorService executor, Ticker ticker)
+    {
+        Preconditions.checkNotNull(executor, "executor is null");
+        Preconditions.checkNotNull(ticker, "ticker is null");
+
+        this.executor = executor;
+        this.ticker = ticker;
+        lastTickNanos.set(ticker.read());
+    }
+
+    @PostConstruct
+    public synchronized void start()
+    {
+        if (future == null) {
+            lastTickNanos.set(ticker.read());
+            future = executor.scheduleAtFixedRate(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    tick();
+                }
+            }, 5, 5, TimeUnit.SECONDS);
+        }
+    }
+
+    @PreDestroy
+    public synchronized void stop()
+    {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    @VisibleForTesting
+    void tick()
+    {
+        long now = ticker.read();
+        long elapsedNanos = now - lastTickNanos.getAndSet(now);
+        for (EventTypeStats typeStats : stats.values()) {
+            typeStats.tick(elapsedNanos);
+        }
+    }
+
+    @Managed(description = "Time spent decoding each batch")
+    @Nested
+    public Histogram getDecodeTime()
+    {
+        return decodeTime;
+    }
+
+    @Managed(description = "Time spent evaluating each batch against the monitors")
+    @Nested
+    public Histogram getEvaluationTime()
+    {
+        return evaluationTime;
+    }
+
+    @Managed(description = "Number of events in each batch")
+    @Nested
+    public Histogram getBatchSize()
+    {
+        return batchSize;
+    }
+
+    public Map<String, EventTypeStats> getStats()
+    {
+        return ImmutableMap.copyOf(stats);
+    }
+
+    public void reset()
+    {
+        stats = new MapMaker().makeMap();
+    }
+
+    /**
+     * Starts accounting for a batch.  The counts are published when the batch
+     * is committed, so a batch that is rejected part way is not counted.
+     */
+    public Batch newBatch()
+    {
+        return new Batch();
+    }
+
+    private EventTypeStats getEventTypeStats(String eventType)
+    {
+        ConcurrentMap<String, EventTypeStats> statsRef = this.stats;
+        EventTypeStats typeStats = statsRef.get(eventType);
+        if (typeStats == null) {
+            typeStats = new EventTypeStats();
+            EventTypeStats existing = statsRef.putIfAbsent(eventType, typeStats);
+            if (existing != null) {
+                typeStats = existing;
+            }
+        }
+        return typeStats;
+    }
+
+    /**
+     * Per-batch counts.  A batch is not thread safe and must be confined to
+     * the thread processing the request.
+     */
+    public class Batch
+    {
+        private final Map<String, long[]> counts = newHashMap();
+        private String lastEventType;
+        private long[] lastCounts;
+        private long eventCount;
+        private long decodeNanos;
+        private long evaluationNanos;
+
+        private Batch()
+        {
+        }
+
+        public void add(String eventType, long bytes)
+        {
+            long[] typeCounts;
+            if (lastCounts != null && eventType.equals(lastEventType)) {
+                typeCounts = lastCounts;
+            }
+            else {
+                typeCounts = counts.get(eventType);
+                if (typeCounts == null) {
+                    typeCounts = new long[2];
+                    counts.put(eventType, typeCounts);
+                }
+                lastEventType = eventType;
+                lastCounts = typeCounts;
+            }
+            typeCounts[0]++;
+            typeCounts[1] += bytes;
+            eventCount++;
+        }
+
+        public void addDecodeTime(long nanos)
+        {
+            decodeNanos += nanos;
+        }
+
+        public void addEvaluationTime(long nanos)
+        {
+            evaluationNanos += nanos;
+        }
+
+        public void commit()
+        {
+            for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+                EventTypeStats typeStats = getEventTypeStats(entry.getKey());
+                typeStats.events.add(entry.getValue()[0]);
+                typeStats.bytes.add(entry.getValue()[1]);
+                typeStats.batches.increment();
+            }
+            batchSize.add(eventCount);
+            decodeTime.add(decodeNanos);
+            if (evaluationNanos != 0) {
+                evaluationTime.add(evaluationNanos);
+            }
+
+            counts.clear();
+            lastEventType = null;
+            lastCounts = null;
+            eventCount = 0;
+            decodeNanos = 0;
+            evaluationNanos = 0;
+        }
+    }
+
+    public static class EventTypeStats
+    {
+        private final StripedCounter events = new StripedCounter();
+        private final StripedCounter bytes = new StripedCounter();
+        private final StripedCounter batches = new StripedCounter();
+        private final EWMA oneMinute = EWMA.oneMinuteEWMA();
+        private final EWMA fiveMinute = EWMA.fiveMinuteEWMA();
+        private final EWMA fifteenMinute = EWMA.fifteenMinuteEWMA();
+        private long lastEventCount;
+
+        private EventTypeStats()
+        {
+        }
+
+        private void tick(long elapsedNanos)
+        {
+            // the rates are fed from the counter so the request path only touches the striped cells
+            long eventCount = events.sum();
+            long delta = eventCount - lastEventCount;
+            lastEventCount = eventCount;
+
+            oneMinute.update(delta);
+            fiveMinute.update(delta);
+            fifteenMinute.update(delta);
+            oneMinute.tick(elapsedNanos);
+            fiveMinute.tick(elapsedNanos);
+            fifteenMinute.tick(elapsedNanos);
+        }
+
+        public long getEventCount()
+        {
+            return events.sum();
+        }
+
+        public long getByteCount()
+        {
+            return bytes.sum();
+        }
+
+        public long getBatchCount()
+        {
+            return batches.sum();
+        }
+
+        public double getOneMinuteRate()
+        {
+            return oneMinute.rate(TimeUnit.SECONDS);
+        }
+
+        public double getFiveMinuteRate()
+        {
+            return fiveMinute.rate(TimeUnit.SECONDS);
+        }
+
+        public double getFifteenMinuteRate()
+        {
+            return fifteenMinute.rate(TimeUnit.SECONDS);
+        }
+    }
+}
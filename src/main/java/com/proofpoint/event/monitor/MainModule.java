@@ -30,6 +30,7 @@ import java.util.concurrent.ScheduledExecutorService;
 
 import static com.proofpoint.configuration.ConfigurationModule.bindConfig;
 import static com.proofpoint.json.JsonCodecBinder.jsonCodecBinder;
+import static org.weakref.jmx.guice.MBeanModule.newExporter;
 
 public class MainModule
         implements Module
@@ -42,6 +43,16 @@ public class MainModule
         binder.bind(MonitorEventTapResource.class).in(Scopes.SINGLETON);
         binder.bind(MonitorsResource.class).in(Scopes.SINGLETON);
         binder.bind(MonitorLoader.class).in(Scopes.SINGLETON);
+        binder.bind(MonitorTicker.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(MonitorTicker.class).withGeneratedName();
+        binder.bind(MonitorRegistry.class).in(Scopes.SINGLETON);
+        binder.bind(BatchEvaluator.class).in(Scopes.SINGLETON);
+        binder.bind(IngestQueue.class).in(Scopes.SINGLETON);
+        binder.bind(IngestStats.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(IngestStats.class).withGeneratedName();
+        binder.bind(EventDeduplicator.class).in(Scopes.SINGLETON);
+        newExporter(binder).export(EventDeduplicator.class).withGeneratedName();
+        newExporter(binder).export(IngestQueue.class).withGeneratedName();
         binder.bind(new TypeLiteral<Set<Monitor>>() {}).toProvider(MonitorsProvider.class).in(Scopes.SINGLETON);
 
         bindConfig(binder).to(MonitorConfig.class);
@@ -15,74 +15,106 @@
  */
 package com.proofpoint.event.monitor;
 
+import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterables;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.weakref.jmx.Managed;
 import org.weakref.jmx.Nested;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.collect.Lists.newArrayList;
 
 public class Monitor
 {
     private final String name;
     private final String eventType;
-    private final ScheduledExecutorService executor;
+    private final MonitorTicker ticker;
     private final EventPredicate eventPredicate;
     private final Alerter alerter;
     private final CounterStat counterStat;
+    private final Histogram evaluationTime = Histogram.durationHistogram();
+    private final EvaluationCost evaluationCost = new EvaluationCost();
+    private final AtomicLong evaluations = new AtomicLong();
+    private volatile String quarantineReason;
     private final Double minimumOneMinuteRate;
     private final Double maximumOneMinuteRate;
+    private final SlidingWindowCounter window;
+    private final EventTimeWindows eventTimeWindows;
+    private final Long minimumWindowCount;
+    private final Long maximumWindowCount;
     private final AtomicBoolean failed = new AtomicBoolean();
-    private ScheduledFuture<?> scheduledFuture;
 
-    public Monitor(String name, String eventType, ScheduledExecutorService executor, EventPredicate eventPredicate, Double minimumOneMinuteRate, Double maximumOneMinuteRate, Alerter alerter)
+    public Monitor(String name, String eventType, MonitorTicker ticker, EventPredicate eventPredicate, Double minimumOneMinuteRate, Double maximumOneMinuteRate, Alerter alerter)
+    {
+        this(name, eventType, ticker, eventPredicate, minimumOneMinuteRate, maximumOneMinuteRate, null, null, null, null, null, alerter);
+    }
+
+    public Monitor(String name,
+            String eventType,
+            MonitorTicker ticker,
+            EventPredicate eventPredicate,
+            Double minimumOneMinuteRate,
+            Double maximumOneMinuteRate,
+            Integer windowSeconds,
+            Integer allowedLatenessSeconds,
+            Integer maxWatermarkDelaySeconds,
+            Long minimumWindowCount,
+            Long maximumWindowCount,
+            Alerter alerter)
     {
         Preconditions.checkNotNull(name, "name is null");
         Preconditions.checkNotNull(eventType, "eventType is null");
-        Preconditions.checkNotNull(executor, "executor is null");
+        Preconditions.checkNotNull(ticker, "ticker is null");
         Preconditions.checkNotNull(eventPredicate, "eventPredicate is null");
-        Preconditions.checkArgument(minimumOneMinuteRate != null || maximumOneMinuteRate != null, "A minimum value or maximum value must be provided");
+        Preconditions.checkArgument(minimumOneMinuteRate != null || maximumOneMinuteRate != null || minimumWindowCount != null || maximumWindowCount != null,
+                "A minimum value or maximum value must be provided");
+        Preconditions.checkArgument((windowSeconds != null) == (minimumWindowCount != null || maximumWindowCount != null),
+                "A window must be provided with a minimum or maximum window count");
+        Preconditions.checkArgument(allowedLatenessSeconds == null || windowSeconds != null, "An allowed lateness must be provided with a window");
+        Preconditions.checkArgument(maxWatermarkDelaySeconds == null || allowedLatenessSeconds != null, "A maximum watermark delay must be provided with an allowed lateness");
         Preconditions.checkNotNull(alerter, "alerter is null");
 
         this.name = name;
         this.eventType = eventType;
-        this.executor = executor;
+        this.ticker = ticker;
         this.eventPredicate = eventPredicate;
         this.alerter = alerter;
-        counterStat = new CounterStat(executor);
+        counterStat = new CounterStat(ticker);
         this.minimumOneMinuteRate = minimumOneMinuteRate;
         this.maximumOneMinuteRate = maximumOneMinuteRate;
+        // an allowed lateness makes the window count events by their timestamps instead of their arrival
+        if (allowedLatenessSeconds != null) {
+            window = null;
+            eventTimeWindows = new EventTimeWindows(windowSeconds,
+                    allowedLatenessSeconds,
+                    maxWatermarkDelaySeconds == null ? EventTimeWindows.DEFAULT_MAX_WATERMARK_DELAY_SECONDS : maxWatermarkDelaySeconds,
+                    ticker.getTicker());
+        }
+        else {
+            window = windowSeconds == null ? null : new SlidingWindowCounter(windowSeconds, ticker.getTicker());
+            eventTimeWindows = null;
+        }
+        this.minimumWindowCount = minimumWindowCount;
+        this.maximumWindowCount = maximumWindowCount;
     }
 
     @PostConstruct
-    public synchronized void start()
-    {
-        if (scheduledFuture == null) {
-            scheduledFuture = executor.scheduleAtFixedRate(new Runnable()
-            {
-                @Override
-                public void run()
-                {
-                    checkState();
-                }
-            }, 5 * 60, 30, TimeUnit.SECONDS);
-            counterStat.start();
-        }
+    public void start()
+    {
+        counterStat.start();
+        ticker.add(this);
     }
 
     @PreDestroy
-    public synchronized void stop()
+    public void stop()
     {
-        if (scheduledFuture != null) {
-            scheduledFuture.cancel(true);
-            scheduledFuture = null;
-        }
-
+        ticker.remove(this);
         counterStat.stop();
     }
 
@@ -104,6 +136,58 @@ public class Monitor
         return maximumOneMinuteRate;
     }
 
+    @Managed(description = "Length in seconds of the window for the window count, or null if there is no window")
+    public Integer getWindowSeconds()
+    {
+        if (eventTimeWindows != null) {
+            return eventTimeWindows.getWindowSeconds();
+        }
+        return window == null ? null : window.getWindowSeconds();
+    }
+
+    /**
+     * Returns the number of events in the sliding window, or in the newest
+     * complete window when events are windowed by their timestamps.
+     */
+    @Managed(description = "Number of events in the window, or null if there is no window or no window is complete")
+    public Long getWindowCount()
+    {
+        if (eventTimeWindows != null) {
+            return eventTimeWindows.getLastCompleteCount();
+        }
+        return window == null ? null : window.getCount();
+    }
+
+    @Managed(description = "Are events windowed by their timestamps rather than their arrival?")
+    public boolean isEventTimeWindowed()
+    {
+        return eventTimeWindows != null;
+    }
+
+    @Managed(description = "Number of events that arrived after the watermark, but in time for their window")
+    public long getLateEvents()
+    {
+        return eventTimeWindows == null ? 0 : eventTimeWindows.getLateEvents();
+    }
+
+    @Managed(description = "Number of events not counted because their window was already complete")
+    public long getDroppedLateEvents()
+    {
+        return eventTimeWindows == null ? 0 : eventTimeWindows.getDroppedEvents();
+    }
+
+    @Managed(description = "Minimum number of events in the window")
+    public Long getMinimumWindowCount()
+    {
+        return minimumWindowCount;
+    }
+
+    @Managed(description = "Maximum number of events in the window")
+    public Long getMaximumWindowCount()
+    {
+        return maximumWindowCount;
+    }
+
     @Managed(description = "Is this monitor in the failed state?")
     public boolean isFailed()
     {
@@ -122,6 +206,65 @@ public class Monitor
         return eventPredicate.getEventFilter();
     }
 
+    @Managed(description = "Is the filter compiled rather than interpreted by MVEL?")
+    public boolean isFilterCompiled()
+    {
+        return eventPredicate.isCompiled();
+    }
+
+    @Managed(description = "Clauses of the filter in the order they are evaluated")
+    public String getFilterClauseOrder()
+    {
+        return eventPredicate.getClauseOrder();
+    }
+
+    @Managed(description = "Sampled pass rate and cost of each clause of the filter")
+    public String getFilterClauseStats()
+    {
+        return eventPredicate.getClauseStats();
+    }
+
+    @Managed(description = "Fraction of events whose filter result was cached")
+    public Double getFilterCacheHitRate()
+    {
+        return eventPredicate.getCacheHitRate();
+    }
+
+    @Managed(description = "Are filter results cached")
+    public boolean isFilterCacheEnabled()
+    {
+        return eventPredicate.isCacheEnabled();
+    }
+
+    @Managed(description = "Number of events whose filter referenced a missing field")
+    public long getMissingFieldFailures()
+    {
+        return eventPredicate.getFailureCount(FilterFailure.MISSING_FIELD);
+    }
+
+    @Managed(description = "Number of events whose filter dereferenced a null value")
+    public long getNullValueFailures()
+    {
+        return eventPredicate.getFailureCount(FilterFailure.NULL_VALUE);
+    }
+
+    @Managed(description = "Number of events whose filter applied an operation to a value of the wrong type")
+    public long getTypeMismatchFailures()
+    {
+        return eventPredicate.getFailureCount(FilterFailure.TYPE_MISMATCH);
+    }
+
+    @Managed(description = "Number of events whose filter failed for any other reason")
+    public long getErrorFailures()
+    {
+        return eventPredicate.getFailureCount(FilterFailure.ERROR);
+    }
+
+    public EventPredicate getEventPredicate()
+    {
+        return eventPredicate;
+    }
+
     @Managed
     @Nested
     public CounterStat getEvents()
@@ -129,30 +272,128 @@ public class Monitor
         return counterStat;
     }
 
+    @Managed
+    @Nested
+    public Histogram getEvaluationTime()
+    {
+        return evaluationTime;
+    }
+
+    @Managed(description = "Number of events the filter was evaluated for")
+    public long getEvaluations()
+    {
+        return evaluations.get();
+    }
+
+    @Managed(description = "Average time in nanoseconds to evaluate the filter, from sampled events")
+    public double getAverageEvaluationNanos()
+    {
+        return evaluationCost.getAverageNanos();
+    }
+
+    @Managed(description = "Average time in nanoseconds to evaluate the filter for the most recent sampled events")
+    public double getRecentEvaluationNanos()
+    {
+        return evaluationCost.getWindowNanos();
+    }
+
+    void recordEvaluations(long count)
+    {
+        evaluations.addAndGet(count);
+    }
+
+    void recordEvaluationTime(long nanos)
+    {
+        evaluationTime.add(nanos);
+        evaluationCost.add(nanos);
+    }
+
+    /**
+     * Is the filter no longer evaluated because it exceeded the evaluation
+     * budget?
+     */
+    @Managed(description = "Is the filter quarantined for exceeding the evaluation budget?")
+    public boolean isDegraded()
+    {
+        return quarantineReason != null;
+    }
+
+    /**
+     * Stops evaluating the filter, so it cannot slow down the other monitors.
+     * The monitor is reported as failed at its next check.
+     */
+    void quarantine(String reason)
+    {
+        Preconditions.checkNotNull(reason, "reason is null");
+        quarantineReason = reason;
+    }
+
+    @Managed(description = "Evaluate the filter again after a quarantine")
+    public void releaseQuarantine()
+    {
+        // start over, so the cost from before the quarantine does not quarantine it again
+        evaluationCost.reset();
+        quarantineReason = null;
+    }
+
     @Managed
     public void checkState()
     {
-        double oneMinuteRate = counterStat.getOneMinuteRate();
-        if (minimumOneMinuteRate != null && maximumOneMinuteRate != null) {
-            if (minimumOneMinuteRate <= oneMinuteRate && oneMinuteRate <= maximumOneMinuteRate) {
-                recovered(String.format("The oneMinuteRate is now between %s and %s", minimumOneMinuteRate, maximumOneMinuteRate));
+        String quarantineReason = this.quarantineReason;
+        if (quarantineReason != null) {
+            // the rate of a quarantined monitor is meaningless
+            failed(quarantineReason);
+            return;
+        }
+
+        List<String> failures = newArrayList();
+        List<String> recoveries = newArrayList();
+        if (minimumOneMinuteRate != null || maximumOneMinuteRate != null) {
+            checkRange("oneMinuteRate", counterStat.getOneMinuteRate(), minimumOneMinuteRate, maximumOneMinuteRate, failures, recoveries);
+        }
+        // a window that has not been running for its whole length is missing events, so it can neither fail nor recover
+        if (window != null && window.isFull()) {
+            checkRange(String.format("count of events in the last %s seconds", window.getWindowSeconds()), window.getCount(), minimumWindowCount, maximumWindowCount, failures, recoveries);
+        }
+        if (eventTimeWindows != null) {
+            Long start = eventTimeWindows.getLastCompleteStart();
+            if (start != null) {
+                Long count = eventTimeWindows.getLastCompleteCount();
+                checkRange(String.format("count of events in the %s second window starting at %s", eventTimeWindows.getWindowSeconds(), new DateTime(start, DateTimeZone.UTC)),
+                        count, minimumWindowCount, maximumWindowCount, failures, recoveries);
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            failed(Joiner.on("; ").join(failures));
+        }
+        else if (!recoveries.isEmpty()) {
+            recovered(Joiner.on("; ").join(recoveries));
+        }
+    }
+
+    private static <T extends Comparable<T>> void checkRange(String name, T value, T minimum, T maximum, List<String> failures, List<String> recoveries)
+    {
+        if (minimum != null && maximum != null) {
+            if (minimum.compareTo(value) <= 0 && value.compareTo(maximum) <= 0) {
+                recoveries.add(String.format("The %s is now between %s and %s", name, minimum, maximum));
             }
             else {
-                failed(String.format("Expected oneMinuteRate to be between %s and %s, but is %s", minimumOneMinuteRate, maximumOneMinuteRate, oneMinuteRate));
+                failures.add(String.format("Expected %s to be between %s and %s, but is %s", name, minimum, maximum, value));
             }
-        } else if (minimumOneMinuteRate != null) {
-            if (minimumOneMinuteRate <= oneMinuteRate) {
-                recovered(String.format("The oneMinuteRate is now greater than %s", minimumOneMinuteRate));
+        } else if (minimum != null) {
+            if (minimum.compareTo(value) <= 0) {
+                recoveries.add(String.format("The %s is now greater than %s", name, minimum));
             }
             else {
-                failed(String.format("Expected oneMinuteRate to be greater than %s, but is %s", minimumOneMinuteRate, oneMinuteRate));
+                failures.add(String.format("Expected %s to be greater than %s, but is %s", name, minimum, value));
             }
-        } else if (maximumOneMinuteRate != null) {
-            if (oneMinuteRate <= maximumOneMinuteRate) {
-                recovered(String.format("The oneMinuteRate is now less than %s", maximumOneMinuteRate));
+        } else if (maximum != null) {
+            if (value.compareTo(maximum) <= 0) {
+                recoveries.add(String.format("The %s is now less than %s", name, maximum));
             }
             else {
-                failed(String.format("Expected oneMinuteRate to be less than %s, but is %s", maximumOneMinuteRate, oneMinuteRate));
+                failures.add(String.format("Expected %s to be less than %s, but is %s", name, maximum, value));
             }
         }
     }
@@ -175,7 +416,41 @@ public class Monitor
 
     public void processEvents(Iterable<Event> events)
     {
-        int count = Iterables.size(Iterables.filter(events, eventPredicate));
+        long count = 0;
+        EventTimes eventTimes = eventTimeWindows == null ? null : new EventTimes();
+        for (Event event : events) {
+            if (eventPredicate.apply(event)) {
+                count++;
+                if (eventTimes != null) {
+                    eventTimes.add(event);
+                }
+            }
+        }
+        recordEvents(count);
+        if (eventTimes != null) {
+            recordEventTimes(eventTimes);
+        }
+    }
+
+    /**
+     * Counts events that passed the filter.
+     */
+    void recordEvents(long count)
+    {
         counterStat.update(count);
+        if (window != null) {
+            window.add(count);
+        }
+    }
+
+    /**
+     * Counts the timestamps of events that passed the filter into the event
+     * time windows.
+     */
+    void recordEventTimes(EventTimes eventTimes)
+    {
+        if (eventTimeWindows != null && eventTimes.size() != 0) {
+            eventTimeWindows.add(eventTimes.getMillis(), eventTimes.size());
+        }
     }
 }
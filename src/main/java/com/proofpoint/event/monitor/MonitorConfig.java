@@ -16,12 +16,29 @@
 package com.proofpoint.event.monitor;
 
 import com.proofpoint.configuration.Config;
+import com.proofpoint.units.Duration;
 
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import java.util.concurrent.TimeUnit;
 
 public class MonitorConfig
 {
     private String monitorRulesFile = "etc/monitor.json";
+    private boolean asyncIngestEnabled = false;
+    private int ingestQueueSize = 1000;
+    private int ingestThreads = 4;
+    private Duration ingestRetryAfter = new Duration(1, TimeUnit.SECONDS);
+    private boolean parallelEvaluationEnabled = false;
+    private int parallelEvaluationThreshold = 10000;
+    private boolean deduplicationEnabled = false;
+    private Duration deduplicationWindow = new Duration(5, TimeUnit.MINUTES);
+    private int deduplicationExpectedEvents = 1000000;
+    private double deduplicationFalsePositiveRate = 0.001;
+    private Duration evaluationBudget;
+    private boolean specializationEnabled = false;
 
     @NotNull
     public String getMonitorRulesFile()
@@ -35,4 +52,164 @@ public class MonitorConfig
         this.monitorRulesFile = monitorRulesFile;
         return this;
     }
+
+    public boolean isAsyncIngestEnabled()
+    {
+        return asyncIngestEnabled;
+    }
+
+    @Config("monitor.ingest.async")
+    public MonitorConfig setAsyncIngestEnabled(boolean asyncIngestEnabled)
+    {
+        this.asyncIngestEnabled = asyncIngestEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public int getIngestQueueSize()
+    {
+        return ingestQueueSize;
+    }
+
+    @Config("monitor.ingest.queue-size")
+    public MonitorConfig setIngestQueueSize(int ingestQueueSize)
+    {
+        this.ingestQueueSize = ingestQueueSize;
+        return this;
+    }
+
+    @Min(1)
+    public int getIngestThreads()
+    {
+        return ingestThreads;
+    }
+
+    @Config("monitor.ingest.threads")
+    public MonitorConfig setIngestThreads(int ingestThreads)
+    {
+        this.ingestThreads = ingestThreads;
+        return this;
+    }
+
+    @NotNull
+    public Duration getIngestRetryAfter()
+    {
+        return ingestRetryAfter;
+    }
+
+    @Config("monitor.ingest.retry-after")
+    public MonitorConfig setIngestRetryAfter(Duration ingestRetryAfter)
+    {
+        this.ingestRetryAfter = ingestRetryAfter;
+        return this;
+    }
+
+    public boolean isParallelEvaluationEnabled()
+    {
+        return parallelEvaluationEnabled;
+    }
+
+    @Config("monitor.parallel.enabled")
+    public MonitorConfig setParallelEvaluationEnabled(boolean parallelEvaluationEnabled)
+    {
+        this.parallelEvaluationEnabled = parallelEvaluationEnabled;
+        return this;
+    }
+
+    @Min(1)
+    public int getParallelEvaluationThreshold()
+    {
+        return parallelEvaluationThreshold;
+    }
+
+    @Config("monitor.parallel.threshold")
+    public MonitorConfig setParallelEvaluationThreshold(int parallelEvaluationThreshold)
+    {
+        this.parallelEvaluationThreshold = parallelEvaluationThreshold;
+        return this;
+    }
+
+    public boolean isDeduplicationEnabled()
+    {
+        return deduplicationEnabled;
+    }
+
+    @Config("monitor.dedup.enabled")
+    public MonitorConfig setDeduplicationEnabled(boolean deduplicationEnabled)
+    {
+        this.deduplicationEnabled = deduplicationEnabled;
+        return this;
+    }
+
+    @NotNull
+    public Duration getDeduplicationWindow()
+    {
+        return deduplicationWindow;
+    }
+
+    @Config("monitor.dedup.window")
+    public MonitorConfig setDeduplicationWindow(Duration deduplicationWindow)
+    {
+        this.deduplicationWindow = deduplicationWindow;
+        return this;
+    }
+
+    @Min(1)
+    public int getDeduplicationExpectedEvents()
+    {
+        return deduplicationExpectedEvents;
+    }
+
+    @Config("monitor.dedup.expected-events")
+    public MonitorConfig setDeduplicationExpectedEvents(int deduplicationExpectedEvents)
+    {
+        this.deduplicationExpectedEvents = deduplicationExpectedEvents;
+        return this;
+    }
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    public double getDeduplicationFalsePositiveRate()
+    {
+        return deduplicationFalsePositiveRate;
+    }
+
+    @Config("monitor.dedup.false-positive-rate")
+    public MonitorConfig setDeduplicationFalsePositiveRate(double deduplicationFalsePositiveRate)
+    {
+        this.deduplicationFalsePositiveRate = deduplicationFalsePositiveRate;
+        return this;
+    }
+
+    /**
+     * Returns the average time a filter may take to evaluate before its
+     * monitor is quarantined, or null if filters are never quarantined.
+     */
+    public Duration getEvaluationBudget()
+    {
+        return evaluationBudget;
+    }
+
+    @Config("monitor.evaluation-budget")
+    public MonitorConfig setEvaluationBudget(Duration evaluationBudget)
+    {
+        this.evaluationBudget = evaluationBudget;
+        return this;
+    }
+
+    public boolean isSpecializationEnabled()
+    {
+        return specializationEnabled;
+    }
+
+    /**
+     * Compare values with the constants in filters as primitives once the
+     * types of the values have been observed.
+     */
+    @Config("monitor.specialization.enabled")
+    public MonitorConfig setSpecializationEnabled(boolean specializationEnabled)
+    {
+        this.specializationEnabled = specializationEnabled;
+        return this;
+    }
 }
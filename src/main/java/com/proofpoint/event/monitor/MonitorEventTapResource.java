@@ -15,8 +15,13 @@
  */
 package com.proofpoint.event.monitor;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
-import com.google.common.collect.MapMaker;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
 
 import javax.annotation.Nullable;
@@ -27,56 +32,177 @@ import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.concurrent.ConcurrentMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Lists.newArrayList;
 
 @Path("/v1/event")
 public class MonitorEventTapResource
 {
-    private final Set<Monitor> monitors;
-    private volatile ConcurrentMap<String, AtomicInteger> history = new MapMaker().makeMap();
+    public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+    private static final SmileFactory SMILE_FACTORY = new SmileFactory();
+    // reading the clock around every event would cost as much as evaluating it
+    private static final int TIMING_SAMPLE_INTERVAL = 64;
+
+    private final MonitorRegistry monitorRegistry;
+    private final BatchEvaluator batchEvaluator;
+    private final IngestQueue ingestQueue;
+    private final IngestStats ingestStats;
+    private final EventDeduplicator deduplicator;
 
     @Inject
-    public MonitorEventTapResource(Set<Monitor> monitors)
+    public MonitorEventTapResource(MonitorRegistry monitorRegistry, BatchEvaluator batchEvaluator, IngestQueue ingestQueue, IngestStats ingestStats, EventDeduplicator deduplicator)
     {
-        this.monitors = monitors;
+        Preconditions.checkNotNull(monitorRegistry, "monitorRegistry is null");
+        Preconditions.checkNotNull(batchEvaluator, "batchEvaluator is null");
+        Preconditions.checkNotNull(ingestQueue, "ingestQueue is null");
+        Preconditions.checkNotNull(ingestStats, "ingestStats is null");
+        Preconditions.checkNotNull(deduplicator, "deduplicator is null");
+
+        this.monitorRegistry = monitorRegistry;
+        this.batchEvaluator = batchEvaluator;
+        this.ingestQueue = ingestQueue;
+        this.ingestStats = ingestStats;
+        this.deduplicator = deduplicator;
     }
 
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
-    public void post(List<Event> events)
+    public Response post(InputStream in)
+            throws IOException
+    {
+        return processEvents(new EventReader(JSON_FACTORY.createJsonParser(in), monitorRegistry));
+    }
+
+    @POST
+    @Consumes(APPLICATION_SMILE)
+    public Response postSmile(InputStream in)
+            throws IOException
+    {
+        return processEvents(new EventReader(SMILE_FACTORY.createJsonParser(in), monitorRegistry));
+    }
+
+    private Response processEvents(EventReader reader)
+            throws IOException
     {
-        if (events.isEmpty()) {
-            return;
+        IngestStats.Batch batchStats = ingestStats.newBatch();
+        EventDeduplicator.Batch dedupBatch = deduplicator.isEnabled() ? deduplicator.newBatch() : null;
+        try {
+            if (ingestQueue.isEnabled()) {
+                // the batch must be decoded before the request completes, so it is buffered for the workers
+                List<Event> events = newArrayList();
+                long offset = reader.getByteOffset();
+                long start = System.nanoTime();
+                for (Event event = reader.next(); event != null; event = reader.next()) {
+                    long nextOffset = reader.getByteOffset();
+                    batchStats.add(event.getType(), nextOffset - offset);
+                    offset = nextOffset;
+                    if (dedupBatch == null || !dedupBatch.isDuplicate(event)) {
+                        events.add(event);
+                    }
+                }
+                batchStats.addDecodeTime(System.nanoTime() - start);
+                if (!events.isEmpty() && !ingestQueue.offer(events)) {
+                    return Response.status(Status.SERVICE_UNAVAILABLE)
+                            .header("Retry-After", (long) Math.max(1, Math.ceil(ingestQueue.getRetryAfter().convertTo(TimeUnit.SECONDS))))
+                            .build();
+                }
+            }
+            else {
+                // events are decoded and evaluated one at a time, so the batch is never held in memory
+                BatchEvaluator.Tally tally = batchEvaluator.newTally();
+                long offset = reader.getByteOffset();
+                // the phases are only timed on sampled events, starting with the first, and the batch is split in proportion
+                long sampledDecodeNanos = 0;
+                long sampledEvaluationNanos = 0;
+                int sampleCountdown = 1;
+                long start = System.nanoTime();
+                while (true) {
+                    boolean sampled = --sampleCountdown == 0;
+                    long mark = 0;
+                    if (sampled) {
+                        sampleCountdown = TIMING_SAMPLE_INTERVAL;
+                        mark = System.nanoTime();
+                    }
+                    Event event = reader.next();
+                    if (event == null) {
+                        break;
+                    }
+                    long decoded = 0;
+                    if (sampled) {
+                        decoded = System.nanoTime();
+                        sampledDecodeNanos += decoded - mark;
+                    }
+
+                    long nextOffset = reader.getByteOffset();
+                    batchStats.add(event.getType(), nextOffset - offset);
+                    offset = nextOffset;
+                    if (dedupBatch == null || !dedupBatch.isDuplicate(event)) {
+                        tally.add(event);
+                    }
+                    if (sampled) {
+                        sampledEvaluationNanos += System.nanoTime() - decoded;
+                    }
+                }
+                long loopEnd = System.nanoTime();
+                tally.flush();
+                long decodeNanos = splitDecodeTime(loopEnd - start, sampledDecodeNanos, sampledEvaluationNanos);
+                batchStats.addDecodeTime(decodeNanos);
+                batchStats.addEvaluationTime(System.nanoTime() - start - decodeNanos);
+            }
+        }
+        catch (JsonProcessingException e) {
+            // a malformed batch is rejected as a whole
+            throw new WebApplicationException(e, Status.BAD_REQUEST);
+        }
+        finally {
+            reader.close();
         }
 
-        for (Monitor monitor : monitors) {
-            monitor.processEvents(events);
+        if (dedupBatch != null) {
+            dedupBatch.commit();
         }
+        batchStats.commit();
 
-        // Assumes batches are homogeneous
-        String key = events.get(0).getType();
+        return Response.noContent().build();
+    }
 
-        ConcurrentMap<String, AtomicInteger> historyRef = this.history;
-        historyRef.putIfAbsent(key, new AtomicInteger(0));
-        historyRef.get(key).addAndGet(events.size());
+    /**
+     * Returns the part of the time spent in the event loop that went to
+     * decoding, in the proportion measured on the sampled events.
+     */
+    @VisibleForTesting
+    static long splitDecodeTime(long loopNanos, long sampledDecodeNanos, long sampledEvaluationNanos)
+    {
+        long sampledNanos = sampledDecodeNanos + sampledEvaluationNanos;
+        if (sampledNanos <= 0) {
+            // an empty batch is all decoding
+            return loopNanos;
+        }
+        return (long) (loopNanos * ((double) sampledDecodeNanos / sampledNanos));
     }
 
     @GET
     @Path("/stats")
     @Produces(MediaType.APPLICATION_JSON)
-    public Map<String, Integer> getStats()
+    public Map<String, EventTypeStatsRepresentation> getStats()
     {
-        return Maps.transformValues(history, new Function<AtomicInteger, Integer>()
+        return Maps.transformValues(ingestStats.getStats(), new Function<IngestStats.EventTypeStats, EventTypeStatsRepresentation>()
         {
             @Override
-            public Integer apply(@Nullable AtomicInteger atomicInteger)
+            public EventTypeStatsRepresentation apply(@Nullable IngestStats.EventTypeStats stats)
             {
-                return atomicInteger.get();
+                return EventTypeStatsRepresentation.of(stats);
             }
         });
     }
@@ -85,6 +211,69 @@ public class MonitorEventTapResource
     @Path("/stats")
     public void resetStats()
     {
-        history = new MapMaker().makeMap();
+        ingestStats.reset();
+    }
+
+    @VisibleForTesting
+    static class EventTypeStatsRepresentation
+    {
+        private final long events;
+        private final long bytes;
+        private final long batches;
+        private final double oneMinuteRate;
+        private final double fiveMinuteRate;
+        private final double fifteenMinuteRate;
+
+        static EventTypeStatsRepresentation of(IngestStats.EventTypeStats stats)
+        {
+            Preconditions.checkNotNull(stats, "stats is null");
+            return new EventTypeStatsRepresentation(stats.getEventCount(), stats.getByteCount(), stats.getBatchCount(), stats.getOneMinuteRate(), stats.getFiveMinuteRate(), stats.getFifteenMinuteRate());
+        }
+
+        private EventTypeStatsRepresentation(long events, long bytes, long batches, double oneMinuteRate, double fiveMinuteRate, double fifteenMinuteRate)
+        {
+            this.events = events;
+            this.bytes = bytes;
+            this.batches = batches;
+            this.oneMinuteRate = oneMinuteRate;
+            this.fiveMinuteRate = fiveMinuteRate;
+            this.fifteenMinuteRate = fifteenMinuteRate;
+        }
+
+        @JsonProperty
+        public long getEvents()
+        {
+            return events;
+        }
+
+        @JsonProperty
+        public long getBytes()
+        {
+            return bytes;
+        }
+
+        @JsonProperty
+        public long getBatches()
+        {
+            return batches;
+        }
+
+        @JsonProperty
+        public double getOneMinuteRate()
+        {
+            return oneMinuteRate;
+        }
+
+        @JsonProperty
+        public double getFiveMinuteRate()
+        {
+            return fiveMinuteRate;
+        }
+
+        @JsonProperty
+        public double getFifteenMinuteRate()
+        {
+            return fifteenMinuteRate;
+        }
     }
 }
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.base.CharMatcher;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.SetMultimap;
+import com.google.common.primitives.Ints;
+import com.proofpoint.event.monitor.FilterExpression.Comparison;
+import com.proofpoint.event.monitor.FilterExpression.Field;
+import com.proofpoint.event.monitor.FilterExpression.Literal;
+import com.proofpoint.event.monitor.FilterExpression.Operator;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+import static com.google.common.collect.Sets.newTreeSet;
+
+/**
+ * Selects the monitors for an event type that an event can match.  Filters
+ * that require a data field to equal a constant, such as
+ * {@code customer == 'acme' && responseCode >= 500}, are indexed by the
+ * constant, so an event only reaches the monitors whose constant equals its
+ * field value, plus the monitors that are not indexed.
+ * <p/>
+ * A filter whose equality clause is false can only evaluate to false, so
+ * skipping it does not change any match.  MVEL compares strings and numbers
+ * by coercing one to the other, so a string value also selects the monitors
+ * with numeric constants, and a number those with constants containing a
+ * digit; values of any other type select every monitor.  Only one field is
+ * indexed per event type: the one with the most distinct constants.
+ */
+@Immutable
+final class MonitorIndex
+{
+    private static final int[] NO_SLOTS = new int[0];
+    private static final MonitorIndex EMPTY = new MonitorIndex(NO_SLOTS, null, NO_SLOTS, NO_SLOTS, NO_SLOTS,
+            ImmutableMap.<Object, int[]>of(), ImmutableMap.<Object, int[]>of());
+
+    // integers beyond this magnitude are not exactly representable as doubles
+    private static final long MAX_EXACT_DOUBLE = 1L << 53;
+
+    private final int[] allSlots;
+    private final String field;
+    private final int[] unindexedSlots;
+    private final int[] otherStringSlots;
+    private final int[] otherNumberSlots;
+    private final Map<Object, int[]> slotsByString;
+    private final Map<Object, int[]> slotsByNumber;
+
+    private MonitorIndex(int[] allSlots,
+            String field,
+            int[] unindexedSlots,
+            int[] otherStringSlots,
+            int[] otherNumberSlots,
+            Map<Object, int[]> slotsByString,
+            Map<Object, int[]> slotsByNumber)
+    {
+        this.allSlots = allSlots;
+        this.field = field;
+        this.unindexedSlots = unindexedSlots;
+        this.otherStringSlots = otherStringSlots;
+        this.otherNumberSlots = otherNumberSlots;
+        this.slotsByString = slotsByString;
+        this.slotsByNumber = slotsByNumber;
+    }
+
+    static MonitorIndex empty()
+    {
+        return EMPTY;
+    }
+
+    /**
+     * Creates an index over the monitors in the specified slots.
+     *
+     * @param filters the compiled filters of the monitors, in slot order;
+     * null elements are filters that are not compiled
+     */
+    static MonitorIndex create(int[] slots, List<FilterExpression> filters)
+    {
+        // find the equality clauses of each filter, and pick the field most filters can be indexed by
+        List<Map<String, Object>> constantsBySlot = newArrayList();
+        Multiset<String> fields = HashMultiset.create();
+        for (FilterExpression filter : filters) {
+            Map<String, Object> constants = newHashMap();
+            if (filter != null) {
+                findConstants(filter, constants);
+            }
+            constantsBySlot.add(constants);
+            fields.addAll(constants.keySet());
+        }
+
+        // the more distinct constants, the fewer monitors each event reaches
+        SetMultimap<String, Object> distinctConstants = HashMultimap.create();
+        for (Map<String, Object> constants : constantsBySlot) {
+            for (Map.Entry<String, Object> entry : constants.entrySet()) {
+                distinctConstants.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        String field = null;
+        for (String candidate : fields.elementSet()) {
+            if (field == null || compareFields(candidate, field, distinctConstants, fields) < 0) {
+                field = candidate;
+            }
+        }
+        if (field == null || fields.count(field) < 2) {
+            return new MonitorIndex(slots, null, slots, slots, slots, ImmutableMap.<Object, int[]>of(), ImmutableMap.<Object, int[]>of());
+        }
+
+        List<Integer> unindexed = newArrayList();
+        List<Integer> numericStrings = newArrayList();
+        ListMultimap<Object, Integer> byString = ArrayListMultimap.create();
+        ListMultimap<Object, Integer> byNumber = ArrayListMultimap.create();
+        for (int i = 0; i < slots.length; i++) {
+            Object constant = constantsBySlot.get(i).get(field);
+            if (constant == null) {
+                unindexed.add(slots[i]);
+            }
+            else if (constant instanceof String) {
+                byString.put(constant, slots[i]);
+                if (CharMatcher.DIGIT.matchesAnyOf((String) constant)) {
+                    numericStrings.add(slots[i]);
+                }
+            }
+            else {
+                byNumber.put(constant, slots[i]);
+            }
+        }
+
+        // a string value may also match the numeric constants by coercion, and a number the numeric strings
+        return new MonitorIndex(slots,
+                field,
+                sortedSlots(unindexed),
+                sortedSlots(unindexed, byNumber.values()),
+                sortedSlots(unindexed, numericStrings),
+                toSlots(byString, unindexed, byNumber.values()),
+                toSlots(byNumber, unindexed, numericStrings));
+    }
+
+    private static int compareFields(String left, String right, SetMultimap<String, Object> distinctConstants, Multiset<String> fields)
+    {
+        return ComparisonChain.start()
+                .compare(distinctConstants.get(right).size(), distinctConstants.get(left).size())
+                .compare(fields.count(right), fields.count(left))
+                .compare(left, right)
+                .result();
+    }
+
+    /**
+     * Returns the indexed field, or null if the monitors are not indexed.
+     */
+    String getField()
+    {
+        return field;
+    }
+
+    /**
+     * Returns the slots of all monitors for the event type.  The returned
+     * array is shared and must not be modified.
+     */
+    int[] getAllSlots()
+    {
+        return allSlots;
+    }
+
+    /**
+     * Returns the slots of the monitors the event data can match.  The
+     * returned array is shared and must not be modified.
+     */
+    int[] getSlots(@Nullable Map<String, ?> data)
+    {
+        if (field == null) {
+            return allSlots;
+        }
+        if (data == null) {
+            // no field can be equal to a constant
+            return unindexedSlots;
+        }
+
+        Object value = data.get(field);
+        if (value == null) {
+            // a missing field fails the equality and null is not equal to any constant
+            return unindexedSlots;
+        }
+        if (value instanceof String) {
+            int[] slots = slotsByString.get(value);
+            return slots != null ? slots : otherStringSlots;
+        }
+        Object key = numberKey(value);
+        if (key != null) {
+            int[] slots = slotsByNumber.get(key);
+            return slots != null ? slots : otherNumberSlots;
+        }
+        return allSlots;
+    }
+
+    /**
+     * Collects the constants the top-level conjunction of the filter
+     * requires fields to be equal to.
+     */
+    private static void findConstants(FilterExpression filter, Map<String, Object> constants)
+    {
+        if (filter instanceof FilterExpression.Conjunction) {
+            for (FilterExpression operand : filter.getOperands()) {
+                findConstants(operand, constants);
+            }
+            return;
+        }
+        if (!(filter instanceof Comparison) || ((Comparison) filter).getOperator() != Operator.EQUAL) {
+            return;
+        }
+
+        FilterExpression left = filter.getOperands().get(0);
+        FilterExpression right = filter.getOperands().get(1);
+        if (left instanceof Literal && right instanceof Field) {
+            FilterExpression swap = left;
+            left = right;
+            right = swap;
+        }
+        if (!(left instanceof Field) || !(right instanceof Literal) || ((Field) left).getPath().size() != 1) {
+            return;
+        }
+
+        String name = ((Field) left).getPath().get(0);
+        Object value = ((Literal) right).getValue();
+        Object key = value instanceof String ? value : numberKey(value);
+        if (key != null && !constants.containsKey(name)) {
+            constants.put(name, key);
+        }
+    }
+
+    /**
+     * Returns a key under which all numbers equal to the value are indexed,
+     * or null if the value is not a number that can be indexed exactly.
+     */
+    static Object numberKey(Object value)
+    {
+        if (value instanceof Integer || value instanceof Long) {
+            long longValue = ((Number) value).longValue();
+            if (-MAX_EXACT_DOUBLE <= longValue && longValue <= MAX_EXACT_DOUBLE) {
+                return longValue;
+            }
+            return null;
+        }
+        if (value instanceof Double) {
+            double doubleValue = (Double) value;
+            if (Double.isNaN(doubleValue) || Double.isInfinite(doubleValue)) {
+                return null;
+            }
+            if (doubleValue == Math.rint(doubleValue) && Math.abs(doubleValue) <= MAX_EXACT_DOUBLE) {
+                // integral values are keyed like the equal integers; this also folds -0.0 into 0
+                return (long) doubleValue;
+            }
+            return doubleValue;
+        }
+        return null;
+    }
+
+    private static Map<Object, int[]> toSlots(ListMultimap<Object, Integer> slotsByKey, Collection<Integer> unindexed, Collection<Integer> coercible)
+    {
+        ImmutableMap.Builder<Object, int[]> builder = ImmutableMap.builder();
+        for (Map.Entry<Object, Collection<Integer>> entry : slotsByKey.asMap().entrySet()) {
+            builder.put(entry.getKey(), sortedSlots(entry.getValue(), unindexed, coercible));
+        }
+        return builder.build();
+    }
+
+    @SafeVarargs
+    private static int[] sortedSlots(Collection<Integer>... slots)
+    {
+        Set<Integer> sorted = newTreeSet();
+        for (Collection<Integer> collection : slots) {
+            sorted.addAll(collection);
+        }
+        return sorted.isEmpty() ? NO_SLOTS : Ints.toArray(sorted);
+    }
+}
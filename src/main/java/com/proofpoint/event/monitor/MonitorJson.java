@@ -24,18 +24,36 @@ public class MonitorJson
     private final String eventFilter;
     private final Double minOneMinuteRate;
     private final Double maxOneMinuteRate;
+    private final Integer windowSeconds;
+    private final Integer allowedLatenessSeconds;
+    private final Integer maxWatermarkDelaySeconds;
+    private final Long minWindowCount;
+    private final Long maxWindowCount;
+    private final Integer filterCacheSize;
 
     @JsonCreator
     public MonitorJson(
             @JsonProperty("eventType") String eventType,
             @JsonProperty("eventFilter") String eventFilter,
             @JsonProperty("minOneMinuteRate") Double minOneMinuteRate,
-            @JsonProperty("maxOneMinuteRate") Double maxOneMinuteRate)
+            @JsonProperty("maxOneMinuteRate") Double maxOneMinuteRate,
+            @JsonProperty("windowSeconds") Integer windowSeconds,
+            @JsonProperty("allowedLatenessSeconds") Integer allowedLatenessSeconds,
+            @JsonProperty("maxWatermarkDelaySeconds") Integer maxWatermarkDelaySeconds,
+            @JsonProperty("minWindowCount") Long minWindowCount,
+            @JsonProperty("maxWindowCount") Long maxWindowCount,
+            @JsonProperty("filterCacheSize") Integer filterCacheSize)
     {
         this.eventType = eventType;
         this.eventFilter = eventFilter;
         this.minOneMinuteRate = minOneMinuteRate;
         this.maxOneMinuteRate = maxOneMinuteRate;
+        this.windowSeconds = windowSeconds;
+        this.allowedLatenessSeconds = allowedLatenessSeconds;
+        this.maxWatermarkDelaySeconds = maxWatermarkDelaySeconds;
+        this.minWindowCount = minWindowCount;
+        this.maxWindowCount = maxWindowCount;
+        this.filterCacheSize = filterCacheSize;
     }
 
     @JsonProperty
@@ -52,7 +70,7 @@ public class MonitorJson
 
     public EventPredicate getEventPredicate()
     {
-        return new EventPredicate(eventType, eventFilter);
+        return new EventPredicate(eventType, eventFilter, filterCacheSize);
     }
 
     @JsonProperty
@@ -67,6 +85,62 @@ public class MonitorJson
         return maxOneMinuteRate;
     }
 
+    /**
+     * Returns the length in seconds, up to an hour, of the window whose exact
+     * event count is checked against the min and max window counts, or null
+     * if the monitor only checks rates.
+     */
+    @JsonProperty
+    public Integer getWindowSeconds()
+    {
+        return windowSeconds;
+    }
+
+    /**
+     * Returns how many seconds an event may arrive behind the newest event
+     * and still be counted, or null if the window counts events by arrival.
+     * When set, events are counted in windows aligned to their timestamps,
+     * and the count of each window is checked once it is complete.
+     */
+    @JsonProperty
+    public Integer getAllowedLatenessSeconds()
+    {
+        return allowedLatenessSeconds;
+    }
+
+    /**
+     * Returns how many seconds the watermark may trail the clock when events
+     * stop arriving, or null for the default of 15 minutes.
+     */
+    @JsonProperty
+    public Integer getMaxWatermarkDelaySeconds()
+    {
+        return maxWatermarkDelaySeconds;
+    }
+
+    @JsonProperty
+    public Long getMinWindowCount()
+    {
+        return minWindowCount;
+    }
+
+    @JsonProperty
+    public Long getMaxWindowCount()
+    {
+        return maxWindowCount;
+    }
+
+    /**
+     * Returns the number of filter results to cache, or null if results are
+     * not cached.  Caching pays off for filters on a few fields whose values
+     * repeat, such as a status and a component.
+     */
+    @JsonProperty
+    public Integer getFilterCacheSize()
+    {
+        return filterCacheSize;
+    }
+
     @Override
     public String toString()
     {
@@ -76,6 +150,12 @@ public class MonitorJson
         sb.append(", filter=").append(eventFilter);
         sb.append(", minOneMinuteRate=").append(minOneMinuteRate);
         sb.append(", maxOneMinuteRate=").append(maxOneMinuteRate);
+        sb.append(", windowSeconds=").append(windowSeconds);
+        sb.append(", allowedLatenessSeconds=").append(allowedLatenessSeconds);
+        sb.append(", maxWatermarkDelaySeconds=").append(maxWatermarkDelaySeconds);
+        sb.append(", minWindowCount=").append(minWindowCount);
+        sb.append(", maxWindowCount=").append(maxWindowCount);
+        sb.append(", filterCacheSize=").append(filterCacheSize);
         sb.append('}');
         return sb.toString();
     }
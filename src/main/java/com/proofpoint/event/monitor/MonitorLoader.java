@@ -22,18 +22,17 @@ import javax.inject.Inject;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.ScheduledExecutorService;
 
 public class MonitorLoader
 {
-    private final ScheduledExecutorService executor;
+    private final MonitorTicker ticker;
     private final Alerter alerter;
     private final JsonCodec<Map<String, MonitorJson>> codec;
 
     @Inject
-    public MonitorLoader(@MonitorExecutorService ScheduledExecutorService executor, Alerter alerter, JsonCodec<Map<String, MonitorJson>> codec)
+    public MonitorLoader(MonitorTicker ticker, Alerter alerter, JsonCodec<Map<String, MonitorJson>> codec)
     {
-        this.executor = executor;
+        this.ticker = ticker;
         this.alerter = alerter;
         this.codec = codec;
     }
@@ -46,10 +45,15 @@ public class MonitorLoader
             String name = entry.getKey();
             MonitorJson monitorJson = entry.getValue();
             Monitor monitor = new Monitor(name, monitorJson.getEventType(),
-                    executor,
+                    ticker,
                     monitorJson.getEventPredicate(),
                     monitorJson.getMinOneMinuteRate(),
                     monitorJson.getMaxOneMinuteRate(),
+                    monitorJson.getWindowSeconds(),
+                    monitorJson.getAllowedLatenessSeconds(),
+                    monitorJson.getMaxWatermarkDelaySeconds(),
+                    monitorJson.getMinWindowCount(),
+                    monitorJson.getMaxWindowCount(),
                     alerter);
             monitors.add(monitor);
         }
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Ints;
+
+import javax.annotation.concurrent.Immutable;
+import javax.inject.Inject;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+@Immutable
+public class MonitorRegistry
+{
+    private static final int[] NO_SLOTS = new int[0];
+
+    private final Set<Monitor> monitors;
+    private final ImmutableListMultimap<String, Monitor> monitorsByEventType;
+    private final List<Monitor> slots;
+    private final Map<String, int[]> slotsByEventType;
+    private final Map<String, MonitorIndex> indexesByEventType;
+    private final Map<String, FieldPaths> fieldPathsByEventType;
+    private final FilterExpression[] filterExpressions;
+    private final int sharedExpressionCount;
+    private final Map<String, Set<String>> dataFieldsByEventType;
+    private final Set<String> eventTypesUsingAllData;
+
+    public MonitorRegistry(Set<Monitor> monitors)
+    {
+        this(monitors, false);
+    }
+
+    @Inject
+    public MonitorRegistry(Set<Monitor> monitors, MonitorConfig config)
+    {
+        this(monitors, config.isSpecializationEnabled());
+    }
+
+    /**
+     * @param specializeComparisons compare the values of fields with constants
+     * as primitives once their types have been observed
+     */
+    public MonitorRegistry(Set<Monitor> monitors, boolean specializeComparisons)
+    {
+        Preconditions.checkNotNull(monitors, "monitors is null");
+
+        this.monitors = ImmutableSet.copyOf(monitors);
+
+        ImmutableListMultimap.Builder<String, Monitor> builder = ImmutableListMultimap.builder();
+        for (Monitor monitor : this.monitors) {
+            builder.put(monitor.getEventType(), monitor);
+        }
+        monitorsByEventType = builder.build();
+
+        // number the monitors so per-batch state can be kept in primitive arrays
+        slots = ImmutableList.copyOf(this.monitors);
+        ImmutableListMultimap.Builder<String, Integer> slotsMultimapBuilder = ImmutableListMultimap.builder();
+        for (int slot = 0; slot < slots.size(); slot++) {
+            slotsMultimapBuilder.put(slots.get(slot).getEventType(), slot);
+        }
+        ImmutableListMultimap<String, Integer> slotsMultimap = slotsMultimapBuilder.build();
+
+        ImmutableMap.Builder<String, int[]> slotsBuilder = ImmutableMap.builder();
+        ImmutableMap.Builder<String, MonitorIndex> indexesBuilder = ImmutableMap.builder();
+        ImmutableMap.Builder<String, FieldPaths> fieldPathsBuilder = ImmutableMap.builder();
+        filterExpressions = new FilterExpression[slots.size()];
+        int sharedSlots = 0;
+        for (String eventType : slotsMultimap.keySet()) {
+            int[] eventTypeSlots = Ints.toArray(slotsMultimap.get(eventType));
+            slotsBuilder.put(eventType, eventTypeSlots);
+
+            List<FilterExpression> expressions = newArrayList();
+            for (int slot : eventTypeSlots) {
+                expressions.add(slots.get(slot).getEventPredicate().getCompiledExpression());
+            }
+            indexesBuilder.put(eventType, MonitorIndex.create(eventTypeSlots, expressions));
+
+            // nested fields are looked up once when the event is decoded
+            FieldPaths fieldPaths = FieldPaths.create(expressions);
+            fieldPathsBuilder.put(eventType, fieldPaths);
+            expressions = fieldPaths.rewrite(expressions);
+
+            if (specializeComparisons) {
+                List<FilterExpression> specialized = newArrayList();
+                for (FilterExpression expression : expressions) {
+                    specialized.add(expression == null ? null : FilterExpression.SpecializedComparison.specialize(expression));
+                }
+                expressions = specialized;
+            }
+
+            // merge the clauses the filters have in common, so they are evaluated once per event
+            FilterGraph graph = new FilterGraph(expressions, sharedSlots);
+            for (int i = 0; i < eventTypeSlots.length; i++) {
+                filterExpressions[eventTypeSlots[i]] = graph.getExpressions().get(i);
+            }
+            sharedSlots += graph.getSharedCount();
+        }
+        slotsByEventType = slotsBuilder.build();
+        indexesByEventType = indexesBuilder.build();
+        fieldPathsByEventType = fieldPathsBuilder.build();
+        sharedExpressionCount = sharedSlots;
+
+        ImmutableMap.Builder<String, Set<String>> dataFieldsBuilder = ImmutableMap.builder();
+        ImmutableSet.Builder<String> eventTypesUsingAllDataBuilder = ImmutableSet.builder();
+        for (String eventType : monitorsByEventType.keySet()) {
+            ImmutableSet.Builder<String> dataFields = ImmutableSet.builder();
+            boolean allData = false;
+            for (Monitor monitor : monitorsByEventType.get(eventType)) {
+                Set<String> monitorDataFields = monitor.getEventPredicate().getDataFields();
+                if (monitorDataFields == null) {
+                    allData = true;
+                }
+                else {
+                    dataFields.addAll(monitorDataFields);
+                }
+            }
+            if (allData) {
+                eventTypesUsingAllDataBuilder.add(eventType);
+            }
+            else {
+                dataFieldsBuilder.put(eventType, dataFields.build());
+            }
+        }
+        dataFieldsByEventType = dataFieldsBuilder.build();
+        eventTypesUsingAllData = eventTypesUsingAllDataBuilder.build();
+    }
+
+    public Set<Monitor> getMonitors()
+    {
+        return monitors;
+    }
+
+    public Set<String> getEventTypes()
+    {
+        return monitorsByEventType.keySet();
+    }
+
+    public List<Monitor> getMonitors(String eventType)
+    {
+        return monitorsByEventType.get(eventType);
+    }
+
+    /**
+     * Returns the top-level data fields referenced by the monitors for the
+     * specified event type, or null if the monitors may use the entire data
+     * map.  Event types without monitors do not need any data.
+     */
+    public Set<String> getDataFields(String eventType)
+    {
+        if (eventTypesUsingAllData.contains(eventType)) {
+            return null;
+        }
+        Set<String> dataFields = dataFieldsByEventType.get(eventType);
+        if (dataFields == null) {
+            return ImmutableSet.of();
+        }
+        return dataFields;
+    }
+
+    int getSlotCount()
+    {
+        return slots.size();
+    }
+
+    Monitor getMonitor(int slot)
+    {
+        return slots.get(slot);
+    }
+
+    /**
+     * Returns the compiled filter of the monitor in the specified slot, with
+     * the subexpressions it has in common with the other monitors for the
+     * event type shared, or null if the filter is not compiled.
+     */
+    FilterExpression getFilterExpression(int slot)
+    {
+        return filterExpressions[slot];
+    }
+
+    /**
+     * Returns the number of shared subexpressions, which is the size of the
+     * memo needed to evaluate the filters.
+     */
+    int getSharedExpressionCount()
+    {
+        return sharedExpressionCount;
+    }
+
+    /**
+     * Returns the index selecting the monitors for the specified event type
+     * an event can match.
+     */
+    MonitorIndex getIndex(String eventType)
+    {
+        MonitorIndex index = indexesByEventType.get(eventType);
+        if (index == null) {
+            return MonitorIndex.empty();
+        }
+        return index;
+    }
+
+    /**
+     * Returns the nested fields the filters of the monitors for the specified
+     * event type read through slots.
+     */
+    FieldPaths getFieldPaths(String eventType)
+    {
+        FieldPaths fieldPaths = fieldPathsByEventType.get(eventType);
+        if (fieldPaths == null) {
+            return FieldPaths.empty();
+        }
+        return fieldPaths;
+    }
+
+    /**
+     * Returns the slots of the monitors for the specified event type.  The
+     * returned array is shared and must not be modified.
+     */
+    int[] getSlots(String eventType)
+    {
+        int[] eventTypeSlots = slotsByEventType.get(eventType);
+        if (eventTypeSlots == null) {
+            return NO_SLOTS;
+        }
+        return eventTypeSlots;
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import com.proofpoint.log.Logger;
+import org.weakref.jmx.Managed;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Advances the rates of every counter and checks every monitor from a single
+ * scheduled task, so that thousands of monitors do not each need their own
+ * periodic tasks and all of them are ticked at the same instant.  The
+ * counters are told how much time actually elapsed, so a tick delayed by a
+ * busy pool or a pause does not inflate the rates.
+ * <p/>
+ * The counters and monitors are held in arrays that are copied when one is
+ * added or removed, which is rare, so a tick is a plain sweep over an array.
+ * The monitors that are due are checked in a separate task, since a check
+ * may send an alert and must not delay the next sweep.
+ */
+@ThreadSafe
+public class MonitorTicker
+{
+    private static final Logger log = Logger.get(MonitorTicker.class);
+
+    static final long TICK_SECONDS = 5;
+    // a monitor is first checked after five minutes, then every 30 seconds
+    static final long FIRST_CHECK_TICKS = 60;
+    static final long CHECK_TICKS = 6;
+
+    private final ScheduledExecutorService executor;
+    private final Ticker ticker;
+
+    @GuardedBy("this")
+    private ScheduledFuture<?> future;
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong lastTickNanos = new AtomicLong();
+
+    private volatile CounterStat[] counters = new CounterStat[0];
+    private volatile Check[] checks = new Check[0];
+
+    @Inject
+    public MonitorTicker(@MonitorExecutorService ScheduledExecutorService executor)
+    {
+        this(executor, Ticker.systemTicker());
+    }
+
+    public MonitorTicker(ScheduledExecutorService executor, Ticker ticker)
+    {
+        Preconditions.checkNotNull(executor, "executor is null");
+        Preconditions.checkNotNull(ticker, "ticker is null");
+
+        this.executor = executor;
+        this.ticker = ticker;
+        lastTickNanos.set(ticker.read());
+    }
+
+    @PreDestroy
+    public synchronized void stop()
+    {
+        if (future != null) {
+            future.cancel(false);
+            future = null;
+        }
+    }
+
+    public synchronized void add(CounterStat counter)
+    {
+        Preconditions.checkNotNull(counter, "counter is null");
+
+        for (CounterStat existing : counters) {
+            if (existing == counter) {
+                return;
+            }
+        }
+        CounterStat[] counters = Arrays.copyOf(this.counters, this.counters.length + 1);
+        counters[counters.length - 1] = counter;
+        this.counters = counters;
+        schedule();
+    }
+
+    public synchronized void remove(CounterStat counter)
+    {
+        Preconditions.checkNotNull(counter, "counter is null");
+
+        CounterStat[] counters = this.counters;
+        for (int i = 0; i < counters.length; i++) {
+            if (counters[i] == counter) {
+                CounterStat[] remaining = new CounterStat[counters.length - 1];
+                System.arraycopy(counters, 0, remaining, 0, i);
+                System.arraycopy(counters, i + 1, remaining, i, remaining.length - i);
+                this.counters = remaining;
+                return;
+            }
+        }
+    }
+
+    public synchronized void add(Monitor monitor)
+    {
+        Preconditions.checkNotNull(monitor, "monitor is null");
+
+        for (Check existing : checks) {
+            if (existing.monitor == monitor) {
+                return;
+            }
+        }
+        Check[] checks = Arrays.copyOf(this.checks, this.checks.length + 1);
+        checks[checks.length - 1] = new Check(monitor, ticks.get() + FIRST_CHECK_TICKS);
+        this.checks = checks;
+        schedule();
+    }
+
+    public synchronized void remove(Monitor monitor)
+    {
+        Preconditions.checkNotNull(monitor, "monitor is null");
+
+        Check[] checks = this.checks;
+        for (int i = 0; i < checks.length; i++) {
+            if (checks[i].monitor == monitor) {
+                Check[] remaining = new Check[checks.length - 1];
+                System.arraycopy(checks, 0, remaining, 0, i);
+                System.arraycopy(checks, i + 1, remaining, i, remaining.length - i);
+                this.checks = remaining;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Returns the clock of the ticker, which the monitors use to time their
+     * windows.
+     */
+    Ticker getTicker()
+    {
+        return ticker;
+    }
+
+    @Managed(description = "Number of counters advanced on each tick")
+    public int getCounterCount()
+    {
+        return counters.length;
+    }
+
+    @Managed(description = "Number of monitors checked by the ticker")
+    public int getMonitorCount()
+    {
+        return checks.length;
+    }
+
+    @VisibleForTesting
+    void tick()
+    {
+        try {
+            long tick = ticks.incrementAndGet();
+            long now = ticker.read();
+            long elapsedNanos = now - lastTickNanos.getAndSet(now);
+
+            for (CounterStat counter : counters) {
+                counter.tick(elapsedNanos);
+            }
+
+            final List<Monitor> due = newArrayList();
+            for (Check check : checks) {
+                if (tick >= check.firstTick && (tick - check.firstTick) % CHECK_TICKS == 0) {
+                    due.add(check.monitor);
+                }
+            }
+            if (!due.isEmpty()) {
+                // checks may send alerts synchronously, so they run apart from the sweep to not hold up the next tick
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        check(due);
+                    }
+                });
+            }
+        }
+        catch (Exception e) {
+            // this is the only task ticking the counters, so it must not die
+            log.error(e, "Failed to tick the monitors");
+        }
+    }
+
+    private static void check(List<Monitor> monitors)
+    {
+        for (Monitor monitor : monitors) {
+            try {
+                monitor.checkState();
+            }
+            catch (Exception e) {
+                // one broken monitor must not stop the checks for all the others
+                log.error(e, "Failed to check monitor %s", monitor.getName());
+            }
+        }
+    }
+
+    @GuardedBy("this")
+    private void schedule()
+    {
+        // started by the first counter or monitor, so a ticker nothing uses costs nothing
+        if (future == null) {
+            lastTickNanos.set(ticker.read());
+            future = executor.scheduleAtFixedRate(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    tick();
+                }
+            }, TICK_SECONDS, TICK_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private static class Check
+    {
+        private final Monitor monitor;
+        private final long firstTick;
+
+        private Check(Monitor monitor, long firstTick)
+        {
+            this.monitor = monitor;
+            this.firstTick = firstTick;
+        }
+    }
+}
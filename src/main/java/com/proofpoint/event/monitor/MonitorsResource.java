@@ -89,16 +89,26 @@ public class MonitorsResource
         private final double oneMinuteRate;
         private final double fiveMinuteRate;
         private final double fifteenMinuteRate;
+        private final boolean degraded;
+        private final long evaluations;
+        private final double averageEvaluationNanos;
         private final URI self;
 
         static MonitorRepresentation of(Monitor monitor, UriInfo context)
         {
             Preconditions.checkNotNull(monitor, "Monitor is null");
             CounterStat stats = Preconditions.checkNotNull(monitor.getEvents(), "monitor.getEvents() is null");
-            return new MonitorRepresentation(monitor.getName(), !monitor.isFailed(), monitor.getMinimumOneMinuteRate(), monitor.getMaximumOneMinuteRate(), stats.getOneMinuteRate(), stats.getFiveMinuteRate(), stats.getFiveMinuteRate(), selfUri(monitor, context));
+            // JSON has no NaN, so a monitor without samples reports no cost
+            double averageEvaluationNanos = monitor.getAverageEvaluationNanos();
+            if (Double.isNaN(averageEvaluationNanos)) {
+                averageEvaluationNanos = 0;
+            }
+            return new MonitorRepresentation(monitor.getName(), !monitor.isFailed(), monitor.getMinimumOneMinuteRate(), monitor.getMaximumOneMinuteRate(), stats.getOneMinuteRate(), stats.getFiveMinuteRate(), stats.getFiveMinuteRate(),
+                    monitor.isDegraded(), monitor.getEvaluations(), averageEvaluationNanos, selfUri(monitor, context));
         }
 
-        private MonitorRepresentation(String name, boolean ok, Double minimumOneMinuteRate, Double maximumOneMinuteRate, double oneMinuteRate, double fiveMinuteRate, double fifteenMinuteRate, URI self)
+        private MonitorRepresentation(String name, boolean ok, Double minimumOneMinuteRate, Double maximumOneMinuteRate, double oneMinuteRate, double fiveMinuteRate, double fifteenMinuteRate,
+                boolean degraded, long evaluations, double averageEvaluationNanos, URI self)
         {
             this.name = name;
             this.ok = ok;
@@ -107,6 +117,9 @@ public class MonitorsResource
             this.oneMinuteRate = oneMinuteRate;
             this.fiveMinuteRate = fiveMinuteRate;
             this.fifteenMinuteRate = fifteenMinuteRate;
+            this.degraded = degraded;
+            this.evaluations = evaluations;
+            this.averageEvaluationNanos = averageEvaluationNanos;
             this.self = self;
         }
 
@@ -152,6 +165,24 @@ public class MonitorsResource
             return fifteenMinuteRate;
         }
 
+        @JsonProperty
+        public boolean isDegraded()
+        {
+            return degraded;
+        }
+
+        @JsonProperty
+        public long getEvaluations()
+        {
+            return evaluations;
+        }
+
+        @JsonProperty
+        public double getAverageEvaluationNanos()
+        {
+            return averageEvaluationNanos;
+        }
+
         @JsonProperty
         public URI getSelf()
         {
@@ -179,6 +210,15 @@ public class MonitorsResource
             if (ok != that.ok) {
                 return false;
             }
+            if (degraded != that.degraded) {
+                return false;
+            }
+            if (evaluations != that.evaluations) {
+                return false;
+            }
+            if (Double.compare(that.averageEvaluationNanos, averageEvaluationNanos) != 0) {
+                return false;
+            }
             if (Double.compare(that.oneMinuteRate, oneMinuteRate) != 0) {
                 return false;
             }
@@ -213,6 +253,10 @@ public class MonitorsResource
             result = 31 * result + (int) (temp ^ (temp >>> 32));
             temp = fifteenMinuteRate != +0.0d ? Double.doubleToLongBits(fifteenMinuteRate) : 0L;
             result = 31 * result + (int) (temp ^ (temp >>> 32));
+            result = 31 * result + (degraded ? 1 : 0);
+            result = 31 * result + (int) (evaluations ^ (evaluations >>> 32));
+            temp = averageEvaluationNanos != +0.0d ? Double.doubleToLongBits(averageEvaluationNanos) : 0L;
+            result = 31 * result + (int) (temp ^ (temp >>> 32));
             result = 31 * result + (self != null ? self.hashCode() : 0);
             return result;
         }
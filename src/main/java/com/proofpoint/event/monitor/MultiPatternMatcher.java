@@ -0,0 +1,190 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Finds which of a set of literals occur in a string with a single pass over
+ * the string (Aho-Corasick).  Transitions on ASCII characters are stored in a
+ * table; other characters follow failure links.
+ */
+@Immutable
+final class MultiPatternMatcher
+{
+    private static final int ASCII = 128;
+
+    private final List<String> patterns;
+    // next state for each state and ASCII character
+    private final int[][] asciiTransitions;
+    // goto function for other characters, completed by the failure links
+    private final List<Map<Character, Integer>> otherTransitions;
+    private final int[] failure;
+    private final BitSet[] outputs;
+    private final BitSet emptyPatterns;
+
+    MultiPatternMatcher(List<String> patterns)
+    {
+        Preconditions.checkNotNull(patterns, "patterns is null");
+        this.patterns = ImmutableList.copyOf(patterns);
+
+        List<int[]> ascii = newArrayList();
+        List<Map<Character, Integer>> other = newArrayList();
+        List<BitSet> output = newArrayList();
+        ascii.add(newRow());
+        other.add(new HashMap<Character, Integer>());
+        output.add(new BitSet());
+
+        emptyPatterns = new BitSet();
+        for (int id = 0; id < patterns.size(); id++) {
+            String pattern = patterns.get(id);
+            if (pattern.isEmpty()) {
+                emptyPatterns.set(id);
+                continue;
+            }
+            int state = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = pattern.charAt(i);
+                int next = c < ASCII ? ascii.get(state)[c] : get(other.get(state), c);
+                if (next < 0) {
+                    next = ascii.size();
+                    ascii.add(newRow());
+                    other.add(new HashMap<Character, Integer>());
+                    output.add(new BitSet());
+                    if (c < ASCII) {
+                        ascii.get(state)[c] = next;
+                    }
+                    else {
+                        other.get(state).put(c, next);
+                    }
+                }
+                state = next;
+            }
+            output.get(state).set(id);
+        }
+
+        int states = ascii.size();
+        failure = new int[states];
+        asciiTransitions = ascii.toArray(new int[states][]);
+        outputs = output.toArray(new BitSet[states]);
+        otherTransitions = ImmutableList.copyOf(other);
+
+        // breadth first, so the failure state of each state is complete before it is used
+        Queue<Integer> queue = new ArrayDeque<Integer>();
+        for (int c = 0; c < ASCII; c++) {
+            int next = asciiTransitions[0][c];
+            if (next < 0) {
+                asciiTransitions[0][c] = 0;
+            }
+            else {
+                queue.add(next);
+            }
+        }
+        queue.addAll(otherTransitions.get(0).values());
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            int fallback = failure[state];
+            outputs[state].or(outputs[fallback]);
+            for (int c = 0; c < ASCII; c++) {
+                int next = asciiTransitions[state][c];
+                if (next < 0) {
+                    asciiTransitions[state][c] = asciiTransitions[fallback][c];
+                }
+                else {
+                    failure[next] = asciiTransitions[fallback][c];
+                    queue.add(next);
+                }
+            }
+            for (Map.Entry<Character, Integer> entry : otherTransitions.get(state).entrySet()) {
+                int next = entry.getValue();
+                failure[next] = transition(fallback, entry.getKey());
+                queue.add(next);
+            }
+        }
+    }
+
+    List<String> getPatterns()
+    {
+        return patterns;
+    }
+
+    int getStateCount()
+    {
+        return failure.length;
+    }
+
+    /**
+     * Returns the indexes of the patterns that occur in the text.
+     */
+    BitSet match(String text)
+    {
+        BitSet matches = (BitSet) emptyPatterns.clone();
+        int state = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            state = c < ASCII ? asciiTransitions[state][c] : transition(state, c);
+            if (!outputs[state].isEmpty()) {
+                matches.or(outputs[state]);
+            }
+        }
+        return matches;
+    }
+
+    private int transition(int state, char c)
+    {
+        while (true) {
+            Integer next = otherTransitions.get(state).get(c);
+            if (next != null) {
+                return next;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = failure[state];
+        }
+    }
+
+    private static int[] newRow()
+    {
+        int[] row = new int[ASCII];
+        Arrays.fill(row, -1);
+        return row;
+    }
+
+    private static int get(Map<Character, Integer> transitions, char c)
+    {
+        Integer next = transitions.get(c);
+        return next == null ? -1 : next;
+    }
+
+    @Override
+    public String toString()
+    {
+        return patterns.toString();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts events in a sliding window of whole seconds, so a threshold such as
+ * "at least 100 events in the last minute" is checked against the exact
+ * count rather than against a decayed rate that takes minutes to settle.
+ * <p/>
+ * The window is the last W completed seconds.  The counts are kept in a
+ * ring with one slot per second of the window and one more for the current,
+ * partial second, which is not counted until it completes.  Slots are
+ * cleared as time moves past them, so adding and reading the count for the
+ * whole window are constant time.
+ */
+@ThreadSafe
+public class SlidingWindowCounter
+{
+    public static final int MAX_WINDOW_SECONDS = 3600;
+
+    private final Ticker ticker;
+    private final long originNanos;
+
+    @GuardedBy("this")
+    private final long[] counts;
+    @GuardedBy("this")
+    private long currentSecond;
+    @GuardedBy("this")
+    private long total; // includes the current second
+
+    public SlidingWindowCounter(int windowSeconds, Ticker ticker)
+    {
+        Preconditions.checkArgument(windowSeconds > 0 && windowSeconds <= MAX_WINDOW_SECONDS, "windowSeconds must be between 1 and %s", MAX_WINDOW_SECONDS);
+        Preconditions.checkNotNull(ticker, "ticker is null");
+
+        this.ticker = ticker;
+        this.originNanos = ticker.read();
+        this.counts = new long[windowSeconds + 1];
+    }
+
+    public int getWindowSeconds()
+    {
+        return counts.length - 1;
+    }
+
+    public synchronized void add(long count)
+    {
+        advance();
+        counts[slot(currentSecond)] += count;
+        total += count;
+    }
+
+    /**
+     * Returns the number of events in the last W completed seconds.
+     */
+    public synchronized long getCount()
+    {
+        advance();
+        return total - counts[slot(currentSecond)];
+    }
+
+    /**
+     * Returns the number of events in the most recent completed seconds of
+     * the window.  This sums the slots, so it is linear in the number of
+     * seconds.
+     */
+    public synchronized long getCount(int seconds)
+    {
+        Preconditions.checkArgument(seconds > 0 && seconds < counts.length, "seconds must be between 1 and %s", counts.length - 1);
+
+        advance();
+        long count = 0;
+        for (int i = 1; i <= seconds && i <= currentSecond; i++) {
+            count += counts[slot(currentSecond - i)];
+        }
+        return count;
+    }
+
+    /**
+     * Returns the events per second over the window.
+     */
+    public double getRate()
+    {
+        return getCount() / (double) (counts.length - 1);
+    }
+
+    /**
+     * Has the counter been running for the whole window?  Until then the
+     * count covers fewer than W completed seconds and is too low.
+     */
+    public synchronized boolean isFull()
+    {
+        advance();
+        return currentSecond >= counts.length - 1;
+    }
+
+    @GuardedBy("this")
+    private void advance()
+    {
+        long second = TimeUnit.NANOSECONDS.toSeconds(ticker.read() - originNanos);
+        if (second <= currentSecond) {
+            return;
+        }
+
+        // clear the slots of the seconds that left the window, at most the whole ring
+        long cleared = Math.min(second - currentSecond, counts.length);
+        for (long i = 1; i <= cleared; i++) {
+            int slot = slot(currentSecond + i);
+            total -= counts[slot];
+            counts[slot] = 0;
+        }
+        currentSecond = second;
+    }
+
+    private int slot(long second)
+    {
+        return (int) (second % counts.length);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter for values updated by many threads.  Updates are spread over a
+ * set of cells selected by the updating thread, so concurrent writers rarely
+ * contend on the same cache line; reads sum all cells.
+ */
+@ThreadSafe
+public class StripedCounter
+{
+    // each cell is padded to its own 64 byte cache line
+    private static final int PADDING = 8;
+    private static final int MAX_STRIPES = 64;
+
+    private final AtomicLongArray cells;
+    private final int mask;
+
+    public StripedCounter()
+    {
+        int stripes = Integer.highestOneBit(Math.min(MAX_STRIPES, Runtime.getRuntime().availableProcessors()) * 2 - 1);
+        cells = new AtomicLongArray(stripes * PADDING);
+        mask = stripes - 1;
+    }
+
+    public void increment()
+    {
+        add(1);
+    }
+
+    public void add(long value)
+    {
+        cells.getAndAdd(cellIndex(), value);
+    }
+
+    public long sum()
+    {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sum and resets the counter.  Updates racing with the reset
+     * are counted either before or after it, but never lost.
+     */
+    public long sumThenReset()
+    {
+        long sum = 0;
+        for (int i = 0; i < cells.length(); i += PADDING) {
+            sum += cells.getAndSet(i, 0);
+        }
+        return sum;
+    }
+
+    private int cellIndex()
+    {
+        long id = Thread.currentThread().getId();
+        // spread sequential thread ids over the stripes
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return ((hash >>> 16) & mask) * PADDING;
+    }
+}
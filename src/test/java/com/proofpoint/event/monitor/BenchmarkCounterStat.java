@@ -0,0 +1,141 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Compares the update throughput of a CounterStat shared by many threads with
+ * the previous design, which added every update to four shared atomic longs.
+ * This is not run as part of the test suite; run the main method directly.
+ */
+public class BenchmarkCounterStat
+{
+    private static final long DURATION_MILLIS = 2000;
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+        ScheduledExecutorService tickExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).build());
+        ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true).build());
+        try {
+            for (int round = 0; round < 2; round++) {
+                for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                    final SharedCounter shared = new SharedCounter();
+                    double sharedRate = benchmark(executor, threads, new Updater()
+                    {
+                        @Override
+                        public void update(long count)
+                        {
+                            shared.update(count);
+                        }
+                    });
+
+                    final CounterStat striped = new CounterStat(new MonitorTicker(tickExecutor));
+                    double stripedRate = benchmark(executor, threads, new Updater()
+                    {
+                        @Override
+                        public void update(long count)
+                        {
+                            striped.update(count);
+                        }
+                    });
+
+                    System.out.printf("%3d threads: shared %,15.0f updates/s  striped %,15.0f updates/s  (%.1fx)%n",
+                            threads, sharedRate, stripedRate, stripedRate / sharedRate);
+                }
+            }
+        }
+        finally {
+            executor.shutdownNow();
+            tickExecutor.shutdownNow();
+        }
+    }
+
+    private static double benchmark(ExecutorService executor, int threads, final Updater updater)
+            throws Exception
+    {
+        final CountDownLatch start = new CountDownLatch(1);
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DURATION_MILLIS);
+        List<Future<Long>> futures = newArrayList();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(new Callable<Long>()
+            {
+                @Override
+                public Long call()
+                        throws Exception
+                {
+                    start.await();
+                    long updates = 0;
+                    while (System.nanoTime() < deadline) {
+                        for (int i = 0; i < 1000; i++) {
+                            updater.update(1);
+                        }
+                        updates += 1000;
+                    }
+                    return updates;
+                }
+            }));
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        long updates = 0;
+        for (Future<Long> future : futures) {
+            updates += future.get();
+        }
+        double seconds = (System.nanoTime() - begin) / 1.0e9;
+        return updates / seconds;
+    }
+
+    private interface Updater
+    {
+        void update(long count);
+    }
+
+    /**
+     * The previous CounterStat: the total and the three rate windows each
+     * take every update.
+     */
+    private static class SharedCounter
+    {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong oneMinute = new AtomicLong();
+        private final AtomicLong fiveMinute = new AtomicLong();
+        private final AtomicLong fifteenMinute = new AtomicLong();
+
+        public void update(long value)
+        {
+            oneMinute.addAndGet(value);
+            fiveMinute.addAndGet(value);
+            fifteenMinute.addAndGet(value);
+            count.addAndGet(value);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.collect.ImmutableMap;
+import org.joda.time.DateTime;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+/**
+ * Compares the size and decode throughput of JSON and Smile event batches.
+ * This is not run as part of the test suite; run the main method directly.
+ */
+public class BenchmarkEventFormats
+{
+    private static final int BATCH_SIZE = 1000;
+    private static final int WARMUP_ITERATIONS = 2000;
+    private static final int ITERATIONS = 5000;
+
+    public static void main(String[] args)
+            throws Exception
+    {
+        List<Event> events = createEvents(BATCH_SIZE);
+
+        JsonFactory jsonFactory = new JsonFactory();
+        SmileFactory smileFactory = new SmileFactory();
+        byte[] json = EventWriter.writeEvents(jsonFactory, events);
+        byte[] smile = EventWriter.writeEvents(smileFactory, events);
+
+        System.out.printf("batch of %d events: json %d bytes, smile %d bytes (%.1f%%)%n",
+                BATCH_SIZE, json.length, smile.length, 100.0 * smile.length / json.length);
+
+        for (int round = 0; round < 3; round++) {
+            benchmark("json", jsonFactory, json);
+            benchmark("smile", smileFactory, smile);
+        }
+    }
+
+    private static void benchmark(String name, JsonFactory factory, byte[] batch)
+            throws IOException
+    {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            decode(factory, batch);
+        }
+
+        long events = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            events += decode(factory, batch);
+        }
+        double seconds = (System.nanoTime() - start) / 1.0e9;
+
+        System.out.printf("%-6s %,12.0f events/s %8.1f MB/s%n",
+                name, events / seconds, (double) batch.length * ITERATIONS / seconds / 1024 / 1024);
+    }
+
+    private static int decode(JsonFactory factory, byte[] batch)
+            throws IOException
+    {
+        int count = 0;
+        EventReader reader = new EventReader(factory.createJsonParser(batch));
+        try {
+            while (reader.next() != null) {
+                count++;
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    private static List<Event> createEvents(int count)
+    {
+        Random random = new Random(42);
+        String[] uris = {"/v1/scorer/message", "/v1/scorer/url", "/v1/health", "/v1/event"};
+        String[] hosts = {"app-1.example.com", "app-2.example.com", "app-3.example.com"};
+
+        List<Event> events = newArrayList();
+        for (int i = 0; i < count; i++) {
+            events.add(new Event("HttpRequest",
+                    "c6a35b4a-6c4e-4f3d-9b8e-" + String.format("%012d", i),
+                    hosts[random.nextInt(hosts.length)],
+                    new DateTime(),
+                    ImmutableMap.<String, Object>builder()
+                            .put("requestUri", uris[random.nextInt(uris.length)])
+                            .put("method", "POST")
+                            .put("responseCode", random.nextInt(10) == 0 ? 500 : 200)
+                            .put("requestSize", random.nextInt(100000))
+                            .put("responseSize", random.nextInt(100000))
+                            .put("timeToLastByte", random.nextDouble() * 100)
+                            .put("clientAddress", "10.0." + random.nextInt(256) + "." + random.nextInt(256))
+                            .put("userAgent", "Apache-HttpClient/4.1 (java 1.5)")
+                            .build()));
+        }
+        return events;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.base.Throwables;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+public class EventWriter
+{
+    private EventWriter()
+    {
+    }
+
+    public static byte[] writeEvents(JsonFactory factory, Iterable<Event> events)
+    {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            JsonGenerator generator = factory.createJsonGenerator(out);
+            generator.writeStartArray();
+            for (Event event : events) {
+                generator.writeStartObject();
+                generator.writeStringField("type", event.getType());
+                generator.writeStringField("uuid", event.getUuid());
+                generator.writeStringField("host", event.getHost());
+                generator.writeStringField("timestamp", event.getTimestamp().toString());
+                generator.writeFieldName("data");
+                writeObject(generator, event.getData());
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.close();
+            return out.toByteArray();
+        }
+        catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private static void writeObject(JsonGenerator generator, Map<String, ?> map)
+            throws IOException
+    {
+        generator.writeStartObject();
+        for (Map.Entry<String, ?> entry : map.entrySet()) {
+            generator.writeFieldName(entry.getKey());
+            writeValue(generator, entry.getValue());
+        }
+        generator.writeEndObject();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeValue(JsonGenerator generator, Object value)
+            throws IOException
+    {
+        if (value == null) {
+            generator.writeNull();
+        }
+        else if (value instanceof String) {
+            generator.writeString((String) value);
+        }
+        else if (value instanceof Integer || value instanceof Long) {
+            generator.writeNumber(((Number) value).longValue());
+        }
+        else if (value instanceof Number) {
+            generator.writeNumber(((Number) value).doubleValue());
+        }
+        else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        }
+        else if (value instanceof Map) {
+            writeObject(generator, (Map<String, ?>) value);
+        }
+        else if (value instanceof Iterable) {
+            generator.writeStartArray();
+            for (Object element : (Iterable<?>) value) {
+                writeValue(generator, element);
+            }
+            generator.writeEndArray();
+        }
+        else {
+            throw new IllegalArgumentException("Unsupported value type " + value.getClass().getName());
+        }
+    }
+}
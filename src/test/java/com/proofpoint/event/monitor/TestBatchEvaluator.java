@@ -0,0 +1,317 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.proofpoint.units.Duration;
+import org.joda.time.DateTime;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Iterables.concat;
+import static java.util.Collections.nCopies;
+
+public class TestBatchEvaluator
+{
+    private ScheduledExecutorService executor;
+    private MonitorTicker ticker;
+
+    @BeforeClass
+    protected void setUp()
+            throws Exception
+    {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).build());
+        ticker = new MonitorTicker(executor);
+    }
+
+    @AfterClass
+    public void tearDown()
+            throws Exception
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Test
+    public void testEvaluate()
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor okMonitor = new Monitor("ok", "HttpRequest", ticker, new EventPredicate("HttpRequest", "responseCode < 300"), 1.0, 2.0, alerter);
+        Monitor errorMonitor = new Monitor("error", "HttpRequest", ticker, new EventPredicate("HttpRequest", "responseCode >= 300"), 1.0, 2.0, alerter);
+        Monitor prsMonitor = new Monitor("prs", "PrsMessage", ticker, new EventPredicate("PrsMessage", null), 1.0, 2.0, alerter);
+        BatchEvaluator evaluator = new BatchEvaluator(new MonitorRegistry(ImmutableSet.of(okMonitor, errorMonitor, prsMonitor)));
+
+        evaluator.evaluate(concat(
+                nCopies(3, new Event("HttpRequest", "id", "host", new DateTime(), ImmutableMap.of("responseCode", 204))),
+                nCopies(5, new Event("PrsMessage", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())),
+                nCopies(7, new Event("HttpRequest", "id", "host", new DateTime(), ImmutableMap.of("responseCode", 500))),
+                nCopies(11, new Event("other", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())),
+                nCopies(13, new Event("HttpRequest", "id", "host", new DateTime(), ImmutableMap.of("responseCode", 200)))
+        ));
+
+        Assert.assertEquals(okMonitor.getEvents().getCount(), 16);
+        Assert.assertEquals(errorMonitor.getEvents().getCount(), 7);
+        Assert.assertEquals(prsMonitor.getEvents().getCount(), 5);
+    }
+
+    @Test
+    public void testSharedClauses()
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor scorerMonitor = new Monitor("scorer", "Log", ticker, new EventPredicate("Log", "status == 'ERROR' && component == 'scorer'"), 1.0, 2.0, alerter);
+        Monitor loaderMonitor = new Monitor("loader", "Log", ticker, new EventPredicate("Log", "status == 'ERROR' && component == 'loader'"), 1.0, 2.0, alerter);
+        Monitor otherMonitor = new Monitor("other", "Log", ticker, new EventPredicate("Log", "!(status == 'ERROR') || component == 'scorer'"), 1.0, 2.0, alerter);
+        MonitorRegistry registry = new MonitorRegistry(ImmutableSet.of(scorerMonitor, loaderMonitor, otherMonitor));
+        Assert.assertEquals(registry.getSharedExpressionCount(), 2);
+
+        new BatchEvaluator(registry).evaluate(concat(
+                nCopies(3, new Event("Log", "id", "host", new DateTime(), ImmutableMap.of("status", "ERROR", "component", "scorer"))),
+                nCopies(5, new Event("Log", "id", "host", new DateTime(), ImmutableMap.of("status", "ERROR", "component", "loader"))),
+                nCopies(7, new Event("Log", "id", "host", new DateTime(), ImmutableMap.of("status", "OK", "component", "loader"))),
+                nCopies(11, new Event("Log", "id", "host", new DateTime(), ImmutableMap.of("component", "loader")))
+        ));
+
+        Assert.assertEquals(scorerMonitor.getEvents().getCount(), 3);
+        Assert.assertEquals(loaderMonitor.getEvents().getCount(), 5);
+        Assert.assertEquals(otherMonitor.getEvents().getCount(), 10);
+        Assert.assertEquals(otherMonitor.getMissingFieldFailures(), 11);
+    }
+
+    @Test
+    public void testIndexedMonitors()
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        ImmutableSet.Builder<Monitor> monitors = ImmutableSet.builder();
+        for (int i = 0; i < 100; i++) {
+            monitors.add(new Monitor("customer" + i, "Log", ticker, new EventPredicate("Log", "customer == 'customer" + i + "' && status == 'ERROR'"), 1.0, 2.0, alerter));
+        }
+        Monitor allMonitor = new Monitor("all", "Log", ticker, new EventPredicate("Log", "status == 'ERROR'"), 1.0, 2.0, alerter);
+        monitors.add(allMonitor);
+        MonitorRegistry registry = new MonitorRegistry(monitors.build());
+        Assert.assertEquals(registry.getIndex("Log").getField(), "customer");
+
+        new BatchEvaluator(registry).evaluate(concat(
+                nCopies(3, new Event("Log", "id", "host", new DateTime(), ImmutableMap.of("status", "ERROR", "customer", "customer7"))),
+                nCopies(5, new Event("Log", "id", "host", new DateTime(), ImmutableMap.of("status", "ERROR", "customer", "customer42"))),
+                nCopies(7, new Event("Log", "id", "host", new DateTime(), ImmutableMap.of("status", "OK", "customer", "customer7"))),
+                nCopies(11, new Event("Log", "id", "host", new DateTime(), ImmutableMap.of("status", "ERROR", "customer", "unknown")))
+        ));
+
+        for (Monitor monitor : registry.getMonitors()) {
+            long expected;
+            if (monitor == allMonitor) {
+                expected = 19;
+            }
+            else if (monitor.getName().equals("customer7")) {
+                expected = 3;
+            }
+            else if (monitor.getName().equals("customer42")) {
+                expected = 5;
+            }
+            else {
+                expected = 0;
+            }
+            Assert.assertEquals(monitor.getEvents().getCount(), expected, monitor.getName());
+        }
+    }
+
+    @Test
+    public void testTallyFlush()
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor monitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
+        BatchEvaluator evaluator = new BatchEvaluator(new MonitorRegistry(ImmutableSet.of(monitor)));
+
+        BatchEvaluator.Tally tally = evaluator.newTally();
+        for (Event event : nCopies(10, new Event("event", "id", "host", new DateTime(), ImmutableMap.<String, Object>of()))) {
+            tally.add(event);
+        }
+
+        // counts are only published when the tally is flushed
+        Assert.assertEquals(monitor.getEvents().getCount(), 0);
+        tally.flush();
+        Assert.assertEquals(monitor.getEvents().getCount(), 10);
+
+        // flushing resets the tally
+        tally.flush();
+        Assert.assertEquals(monitor.getEvents().getCount(), 10);
+
+        evaluator.evaluate(ImmutableList.<Event>of());
+        Assert.assertEquals(monitor.getEvents().getCount(), 10);
+    }
+
+    @Test
+    public void testParallelEvaluate()
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor okMonitor = new Monitor("ok", "HttpRequest", ticker, new EventPredicate("HttpRequest", "responseCode < 300"), 1.0, 2.0, alerter);
+        Monitor errorMonitor = new Monitor("error", "HttpRequest", ticker, new EventPredicate("HttpRequest", "responseCode >= 300"), 1.0, 2.0, alerter);
+        Monitor prsMonitor = new Monitor("prs", "PrsMessage", ticker, new EventPredicate("PrsMessage", null), 1.0, 2.0, alerter);
+        BatchEvaluator evaluator = new BatchEvaluator(new MonitorRegistry(ImmutableSet.of(okMonitor, errorMonitor, prsMonitor)), true, 10);
+        try {
+            evaluator.evaluate(ImmutableList.copyOf(concat(
+                    nCopies(300, new Event("HttpRequest", "id", "host", new DateTime(), ImmutableMap.of("responseCode", 204))),
+                    nCopies(50, new Event("PrsMessage", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())),
+                    nCopies(71, new Event("HttpRequest", "id", "host", new DateTime(), ImmutableMap.of("responseCode", 500))),
+                    nCopies(13, new Event("HttpRequest", "id", "host", new DateTime(), ImmutableMap.of("responseCode", 200)))
+            )));
+
+            Assert.assertEquals(okMonitor.getEvents().getCount(), 313);
+            Assert.assertEquals(errorMonitor.getEvents().getCount(), 71);
+            Assert.assertEquals(prsMonitor.getEvents().getCount(), 50);
+        }
+        finally {
+            evaluator.stop();
+        }
+    }
+
+    @Test
+    public void testParallelEventTimes()
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor monitor = new Monitor("ok", "HttpRequest", ticker, new EventPredicate("HttpRequest", "responseCode < 300"), null, null, 60, 30, null, 1L, null, alerter);
+        BatchEvaluator evaluator = new BatchEvaluator(new MonitorRegistry(ImmutableSet.of(monitor)), true, 10);
+        try {
+            // the events from an hour ago are for windows that are long complete
+            evaluator.evaluate(ImmutableList.copyOf(concat(
+                    nCopies(300, new Event("HttpRequest", "id", "host", new DateTime(), ImmutableMap.of("responseCode", 204))),
+                    nCopies(71, new Event("HttpRequest", "id", "host", new DateTime().minusHours(1), ImmutableMap.of("responseCode", 200))),
+                    nCopies(13, new Event("HttpRequest", "id", "host", new DateTime().minusHours(1), ImmutableMap.of("responseCode", 500)))
+            )));
+
+            Assert.assertTrue(monitor.isEventTimeWindowed());
+            Assert.assertEquals(monitor.getEvents().getCount(), 371);
+            Assert.assertEquals(monitor.getDroppedLateEvents(), 71);
+            Assert.assertEquals(monitor.getLateEvents(), 0);
+        }
+        finally {
+            evaluator.stop();
+        }
+    }
+
+    @Test
+    public void testParallelTally()
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor monitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "value > 10"), 1.0, 2.0, alerter);
+        BatchEvaluator evaluator = new BatchEvaluator(new MonitorRegistry(ImmutableSet.of(monitor)), true, 10);
+        try {
+            BatchEvaluator.Tally tally = evaluator.newTally();
+            for (Event event : concat(
+                    nCopies(25, new Event("event", "id", "host", new DateTime(), ImmutableMap.of("value", 50))),
+                    nCopies(8, new Event("event", "id", "host", new DateTime(), ImmutableMap.of("value", 5))),
+                    nCopies(7, new Event("event", "id", "host", new DateTime(), ImmutableMap.of("value", 50))))) {
+                tally.add(event);
+            }
+
+            // full chunks are evaluated in the background, but nothing is published until the flush
+            Assert.assertEquals(monitor.getEvents().getCount(), 0);
+            tally.flush();
+            Assert.assertEquals(monitor.getEvents().getCount(), 32);
+
+            tally.flush();
+            Assert.assertEquals(monitor.getEvents().getCount(), 32);
+        }
+        finally {
+            evaluator.stop();
+        }
+    }
+
+    @Test
+    public void testSampledEvaluationTime()
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor monitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
+        Monitor otherMonitor = new Monitor("other", "other", ticker, new EventPredicate("other", "true"), 1.0, 2.0, alerter);
+        BatchEvaluator evaluator = new BatchEvaluator(new MonitorRegistry(ImmutableSet.of(monitor, otherMonitor)));
+
+        evaluator.evaluate(nCopies(640, new Event("event", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())));
+
+        Assert.assertEquals(monitor.getEvents().getCount(), 640);
+        Assert.assertEquals(monitor.getEvaluationTime().getCount(), 10);
+        Assert.assertEquals(otherMonitor.getEvaluationTime().getCount(), 0);
+    }
+
+    @Test
+    public void testSampledEvaluationTimeOfSharedClause()
+    {
+        // both filters share the expensive match, so each is charged for it
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor first = new Monitor("first", "Log", ticker, new EventPredicate("Log", "message ~= '.*timeout.*' && status == 'ERROR'"), 1.0, 2.0, alerter);
+        Monitor second = new Monitor("second", "Log", ticker, new EventPredicate("Log", "message ~= '.*timeout.*' && component == 'scorer'"), 1.0, 2.0, alerter);
+        MonitorRegistry registry = new MonitorRegistry(ImmutableSet.of(first, second));
+        Assert.assertEquals(registry.getSharedExpressionCount(), 1);
+
+        String message = Strings.repeat("connection reset ", 1000) + "timeout";
+        new BatchEvaluator(registry).evaluate(nCopies(64 * 100, new Event("Log", "id", "host", new DateTime(), ImmutableMap.of("message", message, "status", "ERROR", "component", "scorer"))));
+
+        Assert.assertEquals(first.getEvents().getCount(), 6400);
+        Assert.assertEquals(second.getEvents().getCount(), 6400);
+        Assert.assertEquals(first.getEvaluationTime().getCount(), 100);
+        Assert.assertEquals(second.getEvaluationTime().getCount(), 100);
+
+        // had the shared match been charged to whichever monitor reached it first, the costs would differ many times over
+        double firstNanos = first.getAverageEvaluationNanos();
+        double secondNanos = second.getAverageEvaluationNanos();
+        Assert.assertTrue(Math.min(firstNanos, secondNanos) > Math.max(firstNanos, secondNanos) / 5, firstNanos + " " + secondNanos);
+    }
+
+    @Test
+    public void testQuarantine()
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor monitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 1.0, null, alerter);
+        BatchEvaluator evaluator = new BatchEvaluator(new MonitorRegistry(ImmutableSet.of(monitor)), false, Integer.MAX_VALUE, new Duration(1, TimeUnit.NANOSECONDS));
+
+        // every filter takes longer than a nanosecond, so the first window of samples exceeds the budget
+        int events = 64 * EvaluationCost.WINDOW;
+        Assert.assertFalse(monitor.isDegraded());
+        evaluator.evaluate(nCopies(events, new Event("event", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())));
+        Assert.assertTrue(monitor.isDegraded());
+
+        // the events after the last sample are not evaluated
+        long evaluations = monitor.getEvaluations();
+        Assert.assertTrue(evaluations > events - 64 && evaluations <= events, String.valueOf(evaluations));
+        Assert.assertEquals(monitor.getEvents().getCount(), evaluations);
+
+        // a quarantined filter is not evaluated
+        evaluator.evaluate(nCopies(100, new Event("event", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())));
+        Assert.assertEquals(monitor.getEvaluations(), evaluations);
+        Assert.assertEquals(monitor.getEvents().getCount(), evaluations);
+
+        monitor.checkState();
+        Assert.assertEquals(alerter.getAlerts().size(), 1);
+        Assert.assertTrue(alerter.getAlerts().get(0).isFailed());
+        Assert.assertTrue(alerter.getAlerts().get(0).getDescription().contains("budget of 1ns"), alerter.getAlerts().get(0).getDescription());
+
+        monitor.releaseQuarantine();
+        Assert.assertFalse(monitor.isDegraded());
+        evaluator.evaluate(nCopies(100, new Event("event", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())));
+        Assert.assertEquals(monitor.getEvaluations(), evaluations + 100);
+    }
+}
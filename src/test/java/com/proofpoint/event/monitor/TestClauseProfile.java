@@ -0,0 +1,107 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.primitives.Ints;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestClauseProfile
+{
+    @Test
+    public void testInitialOrder()
+    {
+        ClauseProfile profile = new ClauseProfile(3);
+        assertOrder(profile, 0, 1, 2);
+        Assert.assertEquals(profile.getPassRate(0), 1.0);
+        Assert.assertEquals(profile.getAverageNanos(0), 0.0);
+
+        // without samples every clause looks like it always passes, so nothing moves
+        profile.reorder();
+        assertOrder(profile, 0, 1, 2);
+    }
+
+    @Test
+    public void testSelectiveClauseFirst()
+    {
+        ClauseProfile profile = new ClauseProfile(2);
+        for (int i = 0; i < 100; i++) {
+            profile.record(0, i < 90, 100);
+            profile.record(1, i < 10, 100);
+        }
+        Assert.assertEquals(profile.getPassRate(0), 0.9);
+        Assert.assertEquals(profile.getPassRate(1), 0.1);
+        Assert.assertEquals(profile.getAverageNanos(1), 100.0);
+
+        profile.reorder();
+        assertOrder(profile, 1, 0);
+    }
+
+    @Test
+    public void testCheapClauseFirst()
+    {
+        ClauseProfile profile = new ClauseProfile(3);
+        for (int i = 0; i < 100; i++) {
+            // the same selectivity, but clause 1 is ten times cheaper
+            profile.record(0, i % 2 == 0, 1000);
+            profile.record(1, i % 2 == 0, 100);
+            // always passes
+            profile.record(2, true, 1);
+        }
+        profile.reorder();
+        assertOrder(profile, 1, 0, 2);
+    }
+
+    @Test
+    public void testDecay()
+    {
+        ClauseProfile profile = new ClauseProfile(2);
+        for (int i = 0; i < 100; i++) {
+            profile.record(0, false, 10);
+        }
+        profile.reorder();
+        Assert.assertEquals(profile.getEvaluations(0), 50);
+        Assert.assertEquals(profile.getAverageNanos(0), 10.0);
+
+        // recent samples outweigh the decayed ones
+        for (int i = 0; i < 100; i++) {
+            profile.record(0, true, 10);
+            profile.record(1, false, 10);
+        }
+        profile.reorder();
+        assertOrder(profile, 1, 0);
+    }
+
+    @Test
+    public void testPeriodicReorder()
+    {
+        ClauseProfile profile = new ClauseProfile(2);
+        for (int i = 0; i < ClauseProfile.REORDER_INTERVAL - 1; i++) {
+            profile.record(0, true, 10);
+            profile.record(1, false, 10);
+            profile.sampled();
+        }
+        assertOrder(profile, 0, 1);
+
+        profile.sampled();
+        assertOrder(profile, 1, 0);
+    }
+
+    private static void assertOrder(ClauseProfile profile, int... expected)
+    {
+        Assert.assertEquals(Ints.asList(profile.getOrder()), Ints.asList(expected));
+    }
+}
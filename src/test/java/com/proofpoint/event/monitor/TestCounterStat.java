@@ -0,0 +1,114 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+public class TestCounterStat
+{
+    private ScheduledExecutorService executor;
+
+    @BeforeClass
+    protected void setUp()
+            throws Exception
+    {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).build());
+    }
+
+    @AfterClass
+    public void tearDown()
+            throws Exception
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Test
+    public void testDrainOnTick()
+    {
+        CounterStat counter = new CounterStat(new MonitorTicker(executor));
+        counter.update(30);
+        counter.update(20);
+
+        // counted right away, but only rated once the tick drains the updates
+        Assert.assertEquals(counter.getCount(), 50);
+        Assert.assertEquals(counter.getOneMinuteRate(), 0.0);
+
+        counter.tick(TimeUnit.SECONDS.toNanos(5));
+        Assert.assertEquals(counter.getCount(), 50);
+        Assert.assertEquals(counter.getOneMinuteRate(), 10.0, 0.001);
+        Assert.assertEquals(counter.getFiveMinuteRate(), 10.0, 0.001);
+        Assert.assertEquals(counter.getFifteenMinuteRate(), 10.0, 0.001);
+
+        // nothing is drained twice
+        counter.tick(TimeUnit.SECONDS.toNanos(5));
+        Assert.assertEquals(counter.getCount(), 50);
+        Assert.assertTrue(counter.getOneMinuteRate() < 10.0);
+    }
+
+    @Test
+    public void testConcurrentUpdates()
+            throws Exception
+    {
+        final CounterStat counter = new CounterStat(new MonitorTicker(executor));
+        ExecutorService updaters = Executors.newFixedThreadPool(8, new ThreadFactoryBuilder().setDaemon(true).build());
+        try {
+            List<Future<?>> futures = newArrayList();
+            for (int thread = 0; thread < 8; thread++) {
+                futures.add(updaters.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                    {
+                        for (int i = 0; i < 10000; i++) {
+                            counter.update(1);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            // ticks racing with the updates lose nothing
+            for (int i = 0; i < 10; i++) {
+                counter.tick(TimeUnit.SECONDS.toNanos(5));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            counter.tick(TimeUnit.SECONDS.toNanos(5));
+            Assert.assertEquals(counter.getCount(), 80000);
+        }
+        finally {
+            updaters.shutdownNow();
+        }
+    }
+}
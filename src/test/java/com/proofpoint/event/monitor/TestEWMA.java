@@ -0,0 +1,78 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TestEWMA
+{
+    @Test
+    public void testLateTick()
+    {
+        EWMA onTime = EWMA.oneMinuteEWMA();
+        EWMA late = EWMA.oneMinuteEWMA();
+        onTime.update(50);
+        late.update(50);
+        onTime.tick();
+        late.tick(TimeUnit.SECONDS.toNanos(5));
+        Assert.assertEquals(late.rate(TimeUnit.SECONDS), 10.0, 0.001);
+
+        // 100 events over a tick delayed to 10 seconds are still 10 per second
+        onTime.update(50);
+        onTime.tick();
+        onTime.update(50);
+        onTime.tick();
+        late.update(100);
+        late.tick(TimeUnit.SECONDS.toNanos(10));
+        Assert.assertEquals(late.rate(TimeUnit.SECONDS), 10.0, 0.001);
+        Assert.assertEquals(late.rate(TimeUnit.SECONDS), onTime.rate(TimeUnit.SECONDS), 0.001);
+    }
+
+    @Test
+    public void testDecayByElapsedTime()
+    {
+        EWMA onTime = EWMA.fiveMinuteEWMA();
+        EWMA late = EWMA.fiveMinuteEWMA();
+        onTime.update(500);
+        late.update(500);
+        onTime.tick();
+        late.tick();
+
+        // one tick delayed to 15 seconds decays as much as three on time
+        onTime.tick();
+        onTime.tick();
+        onTime.tick();
+        late.tick(TimeUnit.SECONDS.toNanos(15));
+        Assert.assertTrue(late.rate(TimeUnit.SECONDS) < 100.0);
+        Assert.assertEquals(late.rate(TimeUnit.SECONDS), onTime.rate(TimeUnit.SECONDS), 0.000001);
+    }
+
+    @Test
+    public void testNoElapsedTime()
+    {
+        EWMA ewma = EWMA.oneMinuteEWMA();
+        ewma.update(50);
+        ewma.tick(0);
+        Assert.assertEquals(ewma.rate(TimeUnit.SECONDS), 0.0);
+
+        // the events are counted by the next tick
+        ewma.tick(TimeUnit.SECONDS.toNanos(5));
+        Assert.assertEquals(ewma.rate(TimeUnit.SECONDS), 10.0, 0.001);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class TestEvaluationCost
+{
+    @Test
+    public void testAverage()
+    {
+        EvaluationCost cost = new EvaluationCost();
+        Assert.assertTrue(Double.isNaN(cost.getAverageNanos()));
+        cost.add(100);
+        cost.add(300);
+        Assert.assertEquals(cost.getAverageNanos(), 200.0);
+        Assert.assertEquals(cost.getSamples(), 2);
+
+        // no window is complete yet
+        Assert.assertTrue(Double.isNaN(cost.getWindowNanos()));
+    }
+
+    @Test
+    public void testWindowIgnoresOutliers()
+    {
+        EvaluationCost cost = new EvaluationCost();
+        for (int i = 0; i < EvaluationCost.WINDOW - EvaluationCost.TRIMMED; i++) {
+            cost.add(100);
+        }
+        for (int i = 0; i < EvaluationCost.TRIMMED; i++) {
+            // a pause during the evaluation
+            cost.add(50000000);
+        }
+        Assert.assertEquals(cost.getWindowNanos(), 100.0);
+        Assert.assertTrue(cost.getAverageNanos() > 100000);
+
+        // the next window replaces the last
+        for (int i = 0; i < EvaluationCost.WINDOW; i++) {
+            cost.add(1000);
+        }
+        Assert.assertEquals(cost.getWindowNanos(), 1000.0);
+    }
+
+    @Test
+    public void testReset()
+    {
+        EvaluationCost cost = new EvaluationCost();
+        for (int i = 0; i < EvaluationCost.WINDOW; i++) {
+            cost.add(1000);
+        }
+        cost.reset();
+        Assert.assertTrue(Double.isNaN(cost.getWindowNanos()));
+        Assert.assertTrue(Double.isNaN(cost.getAverageNanos()));
+        Assert.assertEquals(cost.getSamples(), 0);
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableMap;
+import com.proofpoint.units.Duration;
+import org.joda.time.DateTime;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+public class TestEventDeduplicator
+{
+    @Test
+    public void testWindow()
+    {
+        TestingTicker ticker = new TestingTicker();
+        EventDeduplicator deduplicator = new EventDeduplicator(true, new Duration(3, TimeUnit.MINUTES), 1000, 0.001, ticker);
+
+        Assert.assertFalse(isDuplicate(deduplicator, "a"));
+        Assert.assertTrue(isDuplicate(deduplicator, "a"));
+
+        // still remembered at the end of the window
+        ticker.advance(3, TimeUnit.MINUTES);
+        Assert.assertTrue(isDuplicate(deduplicator, "a"));
+
+        // forgotten once the window has fully passed
+        ticker.advance(2, TimeUnit.MINUTES);
+        Assert.assertFalse(isDuplicate(deduplicator, "a"));
+
+        Assert.assertEquals(deduplicator.getCheckedCount(), 4);
+        Assert.assertEquals(deduplicator.getDuplicateCount(), 2);
+    }
+
+    @Test
+    public void testIdle()
+    {
+        TestingTicker ticker = new TestingTicker();
+        EventDeduplicator deduplicator = new EventDeduplicator(true, new Duration(3, TimeUnit.MINUTES), 1000, 0.001, ticker);
+
+        Assert.assertFalse(isDuplicate(deduplicator, "a"));
+        ticker.advance(1, TimeUnit.DAYS);
+        Assert.assertFalse(isDuplicate(deduplicator, "a"));
+        Assert.assertTrue(isDuplicate(deduplicator, "a"));
+    }
+
+    @Test
+    public void testUncommittedBatch()
+    {
+        EventDeduplicator deduplicator = new EventDeduplicator(true, new Duration(3, TimeUnit.MINUTES), 1000, 0.001, Ticker.systemTicker());
+
+        EventDeduplicator.Batch batch = deduplicator.newBatch();
+        Assert.assertFalse(batch.isDuplicate(event("a")));
+        Assert.assertTrue(batch.isDuplicate(event("a")));
+        Assert.assertFalse(batch.isDuplicate(event(null)));
+
+        // the batch was abandoned, so nothing was recorded
+        Assert.assertFalse(isDuplicate(deduplicator, "a"));
+        Assert.assertEquals(deduplicator.getDuplicateCount(), 0);
+    }
+
+    @Test
+    public void testLargeBatch()
+    {
+        EventDeduplicator deduplicator = new EventDeduplicator(true, new Duration(3, TimeUnit.MINUTES), 100000, 0.001, Ticker.systemTicker());
+
+        // duplicates within a batch are found after the batch has grown its set
+        for (int round = 0; round < 2; round++) {
+            EventDeduplicator.Batch batch = deduplicator.newBatch();
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertFalse(batch.isDuplicate(event(round + "-" + i)));
+            }
+            for (int i = 0; i < 1000; i++) {
+                Assert.assertTrue(batch.isDuplicate(event(round + "-" + i)));
+            }
+            batch.commit();
+        }
+        Assert.assertEquals(deduplicator.getCheckedCount(), 4000);
+        Assert.assertEquals(deduplicator.getDuplicateCount(), 2000);
+    }
+
+    @Test
+    public void testFalsePositiveRate()
+    {
+        EventDeduplicator deduplicator = new EventDeduplicator(true, new Duration(3, TimeUnit.MINUTES), 30000, 0.01, Ticker.systemTicker());
+        Assert.assertEquals(deduplicator.getEstimatedFalsePositiveRate(), 0.0);
+
+        EventDeduplicator.Batch batch = deduplicator.newBatch();
+        for (int i = 0; i < 10000; i++) {
+            batch.isDuplicate(event(UUID.randomUUID().toString()));
+        }
+        batch.commit();
+
+        // a full generation stays within the configured error budget
+        batch = deduplicator.newBatch();
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (batch.isDuplicate(event(UUID.randomUUID().toString()))) {
+                falsePositives++;
+            }
+        }
+        Assert.assertTrue(falsePositives < 100, "false positives " + falsePositives);
+        Assert.assertTrue(deduplicator.getEstimatedFalsePositiveRate() > 0.0);
+        Assert.assertTrue(deduplicator.getEstimatedFalsePositiveRate() < 0.01);
+    }
+
+    @Test
+    public void testDisabled()
+    {
+        EventDeduplicator deduplicator = new EventDeduplicator(false, new Duration(3, TimeUnit.MINUTES), 1000, 0.001, Ticker.systemTicker());
+        Assert.assertFalse(deduplicator.isEnabled());
+        Assert.assertEquals(deduplicator.getMemoryUsage(), 0);
+    }
+
+    private static boolean isDuplicate(EventDeduplicator deduplicator, String uuid)
+    {
+        EventDeduplicator.Batch batch = deduplicator.newBatch();
+        boolean duplicate = batch.isDuplicate(event(uuid));
+        batch.commit();
+        return duplicate;
+    }
+
+    private static Event event(String uuid)
+    {
+        return new Event("event", uuid, "host", new DateTime(), ImmutableMap.<String, Object>of());
+    }
+
+    private static class TestingTicker
+            extends Ticker
+    {
+        private long time;
+
+        @Override
+        public long read()
+        {
+            return time;
+        }
+
+        public void advance(long duration, TimeUnit unit)
+        {
+            time += unit.toNanos(duration);
+        }
+    }
+}
@@ -15,12 +15,18 @@
  */
 package com.proofpoint.event.monitor;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import org.joda.time.DateTime;
+import org.mvel2.MVEL;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import java.util.List;
 import java.util.Map;
 
+import static com.google.common.collect.Lists.newArrayList;
 import static com.google.common.collect.Maps.newHashMap;
 
 public class TestEventPredicate
@@ -49,6 +55,213 @@ public class TestEventPredicate
 
     }
 
+    @Test
+    public void testDataFields()
+    {
+        Assert.assertEquals(new EventPredicate("HttpRequest", null).getDataFields(), ImmutableSet.of());
+        Assert.assertEquals(new EventPredicate("HttpRequest", "true").getDataFields(), ImmutableSet.of());
+        Assert.assertEquals(new EventPredicate("HttpRequest", "requestUri.startsWith('/v1/scorer') && (responseCode < 200 || responseCode >= 300)").getDataFields(),
+                ImmutableSet.of("requestUri", "responseCode"));
+        Assert.assertEquals(new EventPredicate("HttpRequest", "message == 'status == error' && count > 1.5e3 && flag != null").getDataFields(),
+                ImmutableSet.of("message", "count", "flag"));
+        Assert.assertEquals(new EventPredicate("HttpRequest", "request.headers.host == \"example.com\"").getDataFields(),
+                ImmutableSet.of("request"));
+        Assert.assertNull(new EventPredicate("HttpRequest", "this.size() > 2").getDataFields());
+    }
+
+    @Test
+    public void testRequiredFields()
+    {
+        Assert.assertEquals(new EventPredicate("HttpRequest", null).getRequiredFields(), ImmutableSet.of());
+        Assert.assertEquals(new EventPredicate("HttpRequest", "requestUri.substring(1) == 'v1' && responseCode >= 500").getRequiredFields(),
+                ImmutableSet.of("requestUri", "responseCode"));
+        Assert.assertEquals(new EventPredicate("HttpRequest", "Math.abs(delta) > 10 and message == 'a || !b'").getRequiredFields(),
+                ImmutableSet.of("delta", "message"));
+        Assert.assertEquals(new EventPredicate("HttpRequest", "request.headers.host != null").getRequiredFields(),
+                ImmutableSet.of("request"));
+
+        // any of these may skip a field
+        Assert.assertEquals(new EventPredicate("HttpRequest", "responseCode >= 500 || requestUri == '/'").getRequiredFields(), ImmutableSet.of());
+        Assert.assertEquals(new EventPredicate("HttpRequest", "!(responseCode >= 500 && requestUri == '/')").getRequiredFields(), ImmutableSet.of());
+        Assert.assertEquals(new EventPredicate("HttpRequest", "(responseCode >= 500 && requestUri == '/') == false").getRequiredFields(), ImmutableSet.of());
+        Assert.assertEquals(new EventPredicate("HttpRequest", "responseCode > 500 ? requestUri == '/' : true").getRequiredFields(), ImmutableSet.of());
+        Assert.assertEquals(new EventPredicate("HttpRequest", "isdef responseCode").getRequiredFields(), ImmutableSet.of());
+        Assert.assertEquals(new EventPredicate("HttpRequest", "x = responseCode; x > 1").getRequiredFields(), ImmutableSet.of());
+    }
+
+    @Test
+    public void testRequiredFieldsMatchMvel()
+    {
+        List<String> filters = ImmutableList.of(
+                "requestUri.substring(1) == 'v1/scorer' && responseCode >= 200",
+                "requestUri.substring(1) == 'v1/scorer' || responseCode >= 200",
+                "!(requestUri.substring(1) == 'v1/foo' && responseCode >= 200)",
+                "(requestUri.substring(1) == 'v1/foo' && responseCode >= 200) == false",
+                "isdef responseCode",
+                "Math.max(responseCode, 0) >= 0");
+
+        List<Map<String, Object>> events = newArrayList();
+        events.add(ImmutableMap.<String, Object>of());
+        events.add(ImmutableMap.<String, Object>of("requestUri", "/v1/scorer"));
+        events.add(ImmutableMap.<String, Object>of("responseCode", 204));
+        events.add(ImmutableMap.<String, Object>of("requestUri", "/v1/foo", "responseCode", 204));
+        events.add(ImmutableMap.<String, Object>of("requestUri", "/v1/scorer", "responseCode", 204));
+
+        for (String filter : filters) {
+            for (Map<String, Object> data : events) {
+                boolean expected;
+                try {
+                    expected = MVEL.executeExpression(MVEL.compileExpression(filter), data, Boolean.class) == Boolean.TRUE;
+                }
+                catch (Exception e) {
+                    expected = false;
+                }
+                Event event = new Event("HttpRequest", "id", "host", new DateTime(), data);
+                Assert.assertEquals(new EventPredicate("HttpRequest", filter).apply(event), expected, filter + " " + data);
+            }
+        }
+    }
+
+    @Test
+    public void testFailureCounts()
+    {
+        // compiled
+        assertFailures("responseCode >= 500", "missing", FilterFailure.MISSING_FIELD);
+        assertFailures("requestUri.startsWith('/v1')", null, FilterFailure.NULL_VALUE);
+        assertFailures("requestUri && true", "/v1", FilterFailure.TYPE_MISMATCH);
+        assertFailures("!requestUri", null, FilterFailure.NULL_VALUE);
+
+        // checked up front
+        assertFailures("requestUri.substring(1) == 'v1' && responseCode >= 500", "missing", FilterFailure.MISSING_FIELD);
+
+        // thrown by MVEL
+        assertFailures("requestUri.substring(1) == 'v1'", null, FilterFailure.NULL_VALUE);
+        assertFailures("requestUri.substring(1) == 'v1' || responseCode > 500", "missing", FilterFailure.MISSING_FIELD);
+        assertFailures("requestUri.substring(1) == 'v1' || requestUri", "/v2", FilterFailure.TYPE_MISMATCH);
+        assertFailures("requestUri.charAt(10) == 'a'", "/v1", FilterFailure.ERROR);
+    }
+
+    @Test
+    public void testNullData()
+    {
+        Event event = new Event("HttpRequest", "id", "host", new DateTime(), null);
+        for (String filter : ImmutableList.of(
+                "responseCode >= 500",
+                "requestUri.substring(1) == 'v1' && responseCode >= 500",
+                "requestUri.substring(1) == 'v1' || responseCode > 500")) {
+            EventPredicate predicate = new EventPredicate("HttpRequest", filter);
+            Assert.assertFalse(predicate.apply(event), filter);
+            Assert.assertEquals(predicate.getFailureCount(FilterFailure.MISSING_FIELD), 1, filter);
+        }
+    }
+
+    @Test
+    public void testClauseOrder()
+    {
+        EventPredicate predicate = new EventPredicate("HttpRequest", "requestUri.startsWith('/v1') && responseCode >= 500");
+        Assert.assertEquals(predicate.getClauseOrder(), "requestUri.startsWith('/v1') && (responseCode >= 500)");
+
+        ClauseProfile profile = ((FilterExpression.Conjunction) predicate.getCompiledExpression()).getProfile();
+        for (int i = 0; i < 10; i++) {
+            profile.record(0, true, 200);
+            profile.record(1, i < 2, 100);
+        }
+        profile.reorder();
+        Assert.assertEquals(predicate.getClauseOrder(), "(responseCode >= 500) && requestUri.startsWith('/v1')");
+        Assert.assertEquals(predicate.getClauseStats(),
+                "(responseCode >= 500): passed 20.0%, 100ns (5 samples); requestUri.startsWith('/v1'): passed 100.0%, 200ns (5 samples)");
+
+        Assert.assertNull(new EventPredicate("HttpRequest", "responseCode >= 500").getClauseOrder());
+        Assert.assertNull(new EventPredicate("HttpRequest", "responseCode >= 500").getClauseStats());
+    }
+
+    @Test
+    public void testCacheNestedPath()
+    {
+        String filter = "request.headers.host == 'example.com' && responseCode >= 500";
+        EventPredicate cached = new EventPredicate("HttpRequest", filter, 100);
+        EventPredicate uncached = new EventPredicate("HttpRequest", filter);
+
+        // the requests differ in fields the filter does not read, which must not split the key
+        List<Map<String, Object>> events = newArrayList();
+        for (int i = 0; i < 100; i++) {
+            Map<String, Object> headers = newHashMap();
+            headers.put("host", i % 2 == 0 ? "example.com" : "other.com");
+            headers.put("requestId", i);
+            events.add(ImmutableMap.<String, Object>of("request", ImmutableMap.of("headers", headers), "responseCode", 503));
+        }
+        events.add(ImmutableMap.<String, Object>of("request", ImmutableMap.of("headers", ImmutableMap.of("host", ImmutableList.of("example.com"))), "responseCode", 503));
+        events.add(null);
+
+        for (Map<String, Object> data : events) {
+            Event event = new Event("HttpRequest", "id", "host", new DateTime(), data);
+            Assert.assertEquals(cached.apply(event), uncached.apply(event), String.valueOf(data));
+        }
+        for (FilterFailure failure : FilterFailure.values()) {
+            Assert.assertEquals(cached.getFailureCount(failure), uncached.getFailureCount(failure), failure.toString());
+        }
+        Assert.assertEquals(cached.getCacheHitRate(), 98 / 100.0);
+    }
+
+    @Test
+    public void testCache()
+    {
+        List<Map<String, Object>> events = newArrayList();
+        for (Object uri : new Object[] {"/v1/scorer", "/v2", null, "missing", 42}) {
+            for (Object responseCode : new Object[] {204, 503, "500", null, "missing"}) {
+                Map<String, Object> data = newHashMap();
+                if (!"missing".equals(uri)) {
+                    data.put("requestUri", uri);
+                }
+                if (!"missing".equals(responseCode)) {
+                    data.put("responseCode", responseCode);
+                }
+                events.add(data);
+            }
+        }
+
+        for (String filter : ImmutableList.of(
+                "requestUri.startsWith('/v1') && responseCode >= 500",
+                "requestUri.substring(1) == 'v1/scorer' || responseCode == 204",
+                "requestUri ~= '/v[0-9]' && responseCode != null")) {
+            EventPredicate cached = new EventPredicate("HttpRequest", filter, 100);
+            EventPredicate uncached = new EventPredicate("HttpRequest", filter);
+            Assert.assertTrue(cached.isCacheEnabled());
+            for (int i = 0; i < 3; i++) {
+                for (Map<String, Object> data : events) {
+                    Event event = new Event("HttpRequest", "id", "host", new DateTime(), data);
+                    Assert.assertEquals(cached.apply(event), uncached.apply(event), filter + " " + data);
+                }
+            }
+            for (FilterFailure failure : FilterFailure.values()) {
+                Assert.assertEquals(cached.getFailureCount(failure), uncached.getFailureCount(failure), filter + " " + failure);
+            }
+            Assert.assertEquals(cached.getCacheHitRate(), 2 / 3.0, filter);
+        }
+
+        // the key cannot cover a filter on the entire data map
+        EventPredicate predicate = new EventPredicate("HttpRequest", "this.size() > 1", 100);
+        Assert.assertFalse(predicate.isCacheEnabled());
+        Assert.assertNull(predicate.getCacheHitRate());
+        Assert.assertNull(new EventPredicate("HttpRequest", "true").getCacheHitRate());
+    }
+
+    private void assertFailures(String eventFilter, String uri, FilterFailure expected)
+    {
+        EventPredicate predicate = new EventPredicate("HttpRequest", eventFilter);
+        Map<String, Object> data = newHashMap();
+        if (!"missing".equals(uri)) {
+            data.put("requestUri", uri);
+        }
+        Event event = new Event("HttpRequest", "id", "host", new DateTime(), data);
+
+        Assert.assertFalse(predicate.apply(event));
+        Assert.assertFalse(predicate.apply(event));
+        for (FilterFailure failure : FilterFailure.values()) {
+            Assert.assertEquals(predicate.getFailureCount(failure), failure == expected ? 2 : 0, eventFilter + " " + failure);
+        }
+    }
+
     private boolean applyPredicate(String eventFilter, String uri, Integer responseCode)
     {
         return new EventPredicate("HttpRequest", eventFilter).apply(createHttpRequestEvent(uri, responseCode));
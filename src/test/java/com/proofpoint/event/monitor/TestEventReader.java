@@ -0,0 +1,228 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+public class TestEventReader
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private ScheduledExecutorService executor;
+    private MonitorTicker ticker;
+
+    @BeforeClass
+    protected void setUp()
+            throws Exception
+    {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).build());
+        ticker = new MonitorTicker(executor);
+    }
+
+    @AfterClass
+    public void tearDown()
+            throws Exception
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Test
+    public void testReadEvents()
+            throws Exception
+    {
+        List<Event> events = readAll("[" +
+                "{\"type\":\"HttpRequest\",\"uuid\":\"1\",\"host\":\"a\",\"timestamp\":\"2012-01-02T03:04:05.006Z\"," +
+                "\"data\":{\"requestUri\":\"/v1/scorer\",\"responseCode\":204,\"latency\":1.5,\"bytes\":12345678901,\"ok\":true,\"missing\":null," +
+                "\"nested\":{\"values\":[1,\"two\",{\"three\":3}]}}}," +
+                "{\"data\":{},\"host\":\"b\",\"extra\":{\"ignored\":[1,2]},\"type\":\"PrsMessage\",\"timestamp\":1325473445006,\"uuid\":\"2\"}" +
+                "]");
+
+        Assert.assertEquals(events.size(), 2);
+
+        Event httpRequest = events.get(0);
+        Assert.assertEquals(httpRequest.getType(), "HttpRequest");
+        Assert.assertEquals(httpRequest.getUuid(), "1");
+        Assert.assertEquals(httpRequest.getHost(), "a");
+        Assert.assertEquals(httpRequest.getTimestamp(), new DateTime(2012, 1, 2, 3, 4, 5, 6, DateTimeZone.UTC));
+        Assert.assertEquals(httpRequest.getData().get("requestUri"), "/v1/scorer");
+        Assert.assertEquals(httpRequest.getData().get("responseCode"), 204);
+        Assert.assertEquals(httpRequest.getData().get("latency"), 1.5);
+        Assert.assertEquals(httpRequest.getData().get("bytes"), 12345678901L);
+        Assert.assertEquals(httpRequest.getData().get("ok"), true);
+        Assert.assertTrue(httpRequest.getData().containsKey("missing"));
+        Assert.assertNull(httpRequest.getData().get("missing"));
+        Assert.assertEquals(httpRequest.getData().get("nested"), ImmutableMap.of("values", Arrays.asList(1, "two", ImmutableMap.of("three", 3))));
+
+        Event prsMessage = events.get(1);
+        Assert.assertEquals(prsMessage.getType(), "PrsMessage");
+        Assert.assertEquals(prsMessage.getUuid(), "2");
+        Assert.assertEquals(prsMessage.getHost(), "b");
+        Assert.assertEquals(prsMessage.getTimestamp(), new DateTime(2012, 1, 2, 3, 4, 5, 6, DateTimeZone.UTC));
+        Assert.assertEquals(prsMessage.getData(), ImmutableMap.of());
+    }
+
+    @Test
+    public void testSelectDataFields()
+            throws Exception
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        MonitorRegistry registry = new MonitorRegistry(ImmutableSet.of(
+                new Monitor("ok", "HttpRequest", ticker, new EventPredicate("HttpRequest", "responseCode < 300"), 1.0, 2.0, alerter),
+                new Monitor("prs", "PrsMessage", ticker, new EventPredicate("PrsMessage", null), 1.0, 2.0, alerter)));
+
+        List<Event> events = readAll("[" +
+                "{\"type\":\"HttpRequest\",\"data\":{\"requestUri\":\"/v1/scorer\",\"responseCode\":204,\"nested\":{\"values\":[1,2]}}}," +
+                "{\"type\":\"PrsMessage\",\"data\":{\"message\":\"hello\"}}," +
+                "{\"type\":\"Other\",\"data\":{\"message\":\"hello\"}}," +
+                "{\"data\":{\"requestUri\":\"/v1/scorer\",\"responseCode\":204},\"type\":\"HttpRequest\"}" +
+                "]", registry);
+
+        Assert.assertEquals(events.size(), 4);
+        Assert.assertEquals(events.get(0).getData(), ImmutableMap.of("responseCode", 204));
+        Assert.assertEquals(events.get(1).getData(), ImmutableMap.of());
+        Assert.assertEquals(events.get(2).getData(), ImmutableMap.of());
+
+        // data preceding the type can not be filtered
+        Assert.assertEquals(events.get(3).getData(), ImmutableMap.of("requestUri", "/v1/scorer", "responseCode", 204));
+    }
+
+    @Test
+    public void testExtractFieldPaths()
+            throws Exception
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor host = new Monitor("host", "HttpRequest", ticker, new EventPredicate("HttpRequest", "request.headers.host == 'example.com'"), 1.0, 2.0, alerter);
+        MonitorRegistry registry = new MonitorRegistry(ImmutableSet.of(
+                host,
+                new Monitor("agent", "HttpRequest", ticker, new EventPredicate("HttpRequest", "request.headers.agent != null && responseCode < 300"), 1.0, 2.0, alerter)));
+        FieldPaths paths = registry.getFieldPaths("HttpRequest");
+        Assert.assertEquals(paths.getFields().toString(), "[request.headers.host, request.headers.agent]");
+
+        List<Event> events = readAll("[" +
+                "{\"type\":\"HttpRequest\",\"data\":{\"request\":{\"headers\":{\"host\":\"example.com\"}},\"responseCode\":204}}," +
+                "{\"type\":\"HttpRequest\",\"data\":{\"request\":null,\"responseCode\":204}}" +
+                "]", registry);
+
+        FieldPaths.Data data = (FieldPaths.Data) events.get(0).getData();
+        Assert.assertSame(data.getPaths(), paths);
+        Assert.assertEquals(data.getValue(0), "example.com");
+        Assert.assertSame(data.getValue(1), FilterExpression.FALLBACK);
+        Assert.assertEquals(data, ImmutableMap.of("request", ImmutableMap.of("headers", ImmutableMap.of("host", "example.com")), "responseCode", 204));
+
+        data = (FieldPaths.Data) events.get(1).getData();
+        Assert.assertSame(data.getValue(0), FilterExpression.NULL_VALUE);
+
+        // the filters read the slots
+        new BatchEvaluator(registry).evaluate(events);
+        Assert.assertEquals(host.getEvents().getCount(), 1);
+        Assert.assertEquals(host.getNullValueFailures(), 1);
+    }
+
+    @Test
+    public void testEmptyBatch()
+            throws Exception
+    {
+        Assert.assertEquals(readAll("[]"), ImmutableList.of());
+        Assert.assertEquals(readAll(""), ImmutableList.of());
+    }
+
+    @Test(expectedExceptions = JsonParseException.class)
+    public void testNotAnArray()
+            throws Exception
+    {
+        readAll("{\"type\":\"HttpRequest\"}");
+    }
+
+    @Test(expectedExceptions = JsonParseException.class)
+    public void testMissingType()
+            throws Exception
+    {
+        readAll("[{\"uuid\":\"1\",\"data\":{}}]");
+    }
+
+    @Test(expectedExceptions = JsonParseException.class)
+    public void testInvalidData()
+            throws Exception
+    {
+        readAll("[{\"type\":\"HttpRequest\",\"data\":[1,2,3]}]");
+    }
+
+    @Test(expectedExceptions = JsonParseException.class)
+    public void testMissingData()
+            throws Exception
+    {
+        readAll("[{\"type\":\"HttpRequest\",\"uuid\":\"1\"}]");
+    }
+
+    @Test(expectedExceptions = JsonParseException.class)
+    public void testNullData()
+            throws Exception
+    {
+        readAll("[{\"type\":\"HttpRequest\",\"data\":null}]");
+    }
+
+    @Test(expectedExceptions = JsonParseException.class)
+    public void testTruncatedBatch()
+            throws Exception
+    {
+        readAll("[{\"type\":\"HttpRequest\",\"data\":{\"a\":1}}");
+    }
+
+    private static List<Event> readAll(String json)
+            throws IOException
+    {
+        return readAll(json, null);
+    }
+
+    private static List<Event> readAll(String json, MonitorRegistry registry)
+            throws IOException
+    {
+        List<Event> events = newArrayList();
+        EventReader reader = new EventReader(JSON_FACTORY.createJsonParser(json.getBytes(Charsets.UTF_8)), registry);
+        try {
+            for (Event event = reader.next(); event != null; event = reader.next()) {
+                events.add(event);
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return events;
+    }
+}
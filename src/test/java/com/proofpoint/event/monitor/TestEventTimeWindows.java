@@ -0,0 +1,133 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TestEventTimeWindows
+{
+    private static final long ORIGIN = new DateTime(2012, 1, 1, 0, 0, 0, 0, DateTimeZone.UTC).getMillis();
+
+    private TestingTicker ticker;
+    private EventTimeWindows windows;
+
+    @BeforeMethod
+    public void setUp()
+    {
+        ticker = new TestingTicker();
+        // one minute windows, 30 seconds of lateness, and a watermark at most 5 minutes behind the clock
+        windows = new EventTimeWindows(60, 30, 300, ticker, ORIGIN);
+    }
+
+    @Test
+    public void testCompleteWindows()
+    {
+        // the window the counter started in is never reported
+        ticker.advance(120, TimeUnit.SECONDS);
+        for (int second = 60; second < 120; second++) {
+            add(second);
+        }
+        Assert.assertNull(windows.getLastCompleteCount());
+        Assert.assertEquals(windows.getWatermarkMillis(), ORIGIN + TimeUnit.SECONDS.toMillis(89));
+
+        // the watermark passes the end of the window 30 seconds after the newest event does
+        ticker.advance(30, TimeUnit.SECONDS);
+        add(150);
+        Assert.assertEquals(windows.getLastCompleteStart(), (Long) (ORIGIN + TimeUnit.SECONDS.toMillis(60)));
+        Assert.assertEquals(windows.getLastCompleteCount(), (Long) 60L);
+        Assert.assertEquals(windows.getLateEvents(), 0);
+        Assert.assertEquals(windows.getDroppedEvents(), 0);
+    }
+
+    @Test
+    public void testLateEvents()
+    {
+        ticker.advance(170, TimeUnit.SECONDS);
+        add(170);
+        Assert.assertEquals(windows.getWatermarkMillis(), ORIGIN + TimeUnit.SECONDS.toMillis(140));
+
+        // behind the watermark, but its window is still open
+        add(130);
+        Assert.assertEquals(windows.getLateEvents(), 1);
+        Assert.assertEquals(windows.getDroppedEvents(), 0);
+
+        // its window is already complete
+        add(100);
+        Assert.assertEquals(windows.getLateEvents(), 1);
+        Assert.assertEquals(windows.getDroppedEvents(), 1);
+
+        ticker.advance(40, TimeUnit.SECONDS);
+        add(210);
+        Assert.assertEquals(windows.getLastCompleteStart(), (Long) (ORIGIN + TimeUnit.SECONDS.toMillis(120)));
+        Assert.assertEquals(windows.getLastCompleteCount(), (Long) 2L);
+    }
+
+    @Test
+    public void testBacklog()
+    {
+        // the collector stalls for two minutes, then flushes its backlog
+        ticker.advance(60, TimeUnit.SECONDS);
+        add(60);
+        ticker.advance(120, TimeUnit.SECONDS);
+        Assert.assertEquals(windows.getWatermarkMillis(), ORIGIN + TimeUnit.SECONDS.toMillis(30));
+        for (int second = 61; second < 180; second++) {
+            add(second);
+        }
+
+        // each window holds the events that happened in it, not those that arrived in it
+        Assert.assertEquals(windows.getLastCompleteStart(), (Long) (ORIGIN + TimeUnit.SECONDS.toMillis(60)));
+        Assert.assertEquals(windows.getLastCompleteCount(), (Long) 60L);
+        Assert.assertEquals(windows.getDroppedEvents(), 0);
+    }
+
+    @Test
+    public void testIdleWatermark()
+    {
+        ticker.advance(60, TimeUnit.SECONDS);
+        add(60);
+
+        // with no events the watermark follows the clock, so a dead source still completes windows
+        ticker.advance(400, TimeUnit.SECONDS);
+        Assert.assertEquals(windows.getWatermarkMillis(), ORIGIN + TimeUnit.SECONDS.toMillis(460 - 300 - 30));
+        Assert.assertEquals(windows.getLastCompleteStart(), (Long) (ORIGIN + TimeUnit.SECONDS.toMillis(60)));
+        Assert.assertEquals(windows.getLastCompleteCount(), (Long) 1L);
+
+        ticker.advance(60, TimeUnit.SECONDS);
+        Assert.assertEquals(windows.getLastCompleteCount(), (Long) 0L);
+    }
+
+    @Test
+    public void testUnusableTimestamps()
+    {
+        ticker.advance(60, TimeUnit.SECONDS);
+        windows.add(new long[] {EventTimeWindows.NO_TIMESTAMP, ORIGIN + TimeUnit.HOURS.toMillis(1)}, 2);
+        Assert.assertEquals(windows.getDroppedEvents(), 2);
+
+        // a future event does not hold the watermark back or push it ahead
+        Assert.assertEquals(windows.getWatermarkMillis(), ORIGIN - TimeUnit.SECONDS.toMillis(30));
+    }
+
+    private void add(int second)
+    {
+        windows.add(new long[] {ORIGIN + TimeUnit.SECONDS.toMillis(second)}, 1);
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.Maps.newHashMap;
+
+public class TestFieldPaths
+{
+    @Test
+    public void testCreate()
+    {
+        FieldPaths paths = FieldPaths.create(Arrays.asList(
+                FilterParser.parse("request.headers.host == 'example.com' && responseCode < 300"),
+                null,
+                FilterParser.parse("request.headers.host.startsWith('api.') || request.method == 'POST'")));
+        Assert.assertEquals(paths.getFields().toString(), "[request.headers.host, request.method]");
+
+        Assert.assertTrue(FieldPaths.create(ImmutableList.of(FilterParser.parse("responseCode < 300"))).isEmpty());
+    }
+
+    @Test
+    public void testRewrite()
+    {
+        List<FilterExpression> filters = ImmutableList.of(
+                FilterParser.parse("request.headers.host == 'example.com' && responseCode < 300"),
+                FilterParser.parse("request.method contains 'P'"));
+        FieldPaths paths = FieldPaths.create(filters);
+        List<FilterExpression> rewritten = paths.rewrite(filters);
+        Assert.assertEquals(rewritten.toString(), filters.toString());
+
+        FilterExpression comparison = rewritten.get(0).getOperands().get(0);
+        Assert.assertTrue(comparison.getOperands().get(0) instanceof FilterExpression.PathSlot);
+        Assert.assertTrue(rewritten.get(0).getOperands().get(1).getOperands().get(0) instanceof FilterExpression.Field);
+    }
+
+    @Test
+    public void testMatchesUnextracted()
+    {
+        List<String> filters = ImmutableList.of(
+                "request.headers.host == 'example.com'",
+                "request.headers.host.startsWith('ex') && request.method != 'GET'",
+                "request.method == null");
+        List<FilterExpression> expressions = ImmutableList.of(
+                FilterParser.parse(filters.get(0)),
+                FilterParser.parse(filters.get(1)),
+                FilterParser.parse(filters.get(2)));
+        FieldPaths paths = FieldPaths.create(expressions);
+        List<FilterExpression> rewritten = paths.rewrite(expressions);
+
+        Map<String, Object> nullRequest = newHashMap();
+        nullRequest.put("request", null);
+        for (Map<String, Object> data : ImmutableList.<Map<String, Object>>of(
+                ImmutableMap.<String, Object>of("request", ImmutableMap.of("headers", ImmutableMap.of("host", "example.com"), "method", "POST")),
+                ImmutableMap.<String, Object>of("request", ImmutableMap.of("headers", ImmutableMap.of(), "method", "GET")),
+                ImmutableMap.<String, Object>of("request", ImmutableMap.of("headers", "host")),
+                ImmutableMap.<String, Object>of("request", 1),
+                nullRequest,
+                ImmutableMap.<String, Object>of())) {
+            Map<String, Object> extracted = paths.extract(data);
+            Assert.assertTrue(extracted instanceof FieldPaths.Data);
+            Assert.assertEquals(extracted, data);
+            for (int i = 0; i < filters.size(); i++) {
+                Object expected = expressions.get(i).evaluate(data);
+                Assert.assertEquals(rewritten.get(i).evaluate(extracted), expected, filters.get(i) + " " + data);
+                // data that was not extracted is read through the field
+                Assert.assertEquals(rewritten.get(i).evaluate(data), expected, filters.get(i) + " " + data);
+            }
+        }
+
+        // slots extracted for other paths are not used
+        FieldPaths otherPaths = FieldPaths.create(ImmutableList.of(FilterParser.parse("request.method == 'GET'")));
+        Map<String, Object> data = ImmutableMap.<String, Object>of("request", ImmutableMap.of("method", "GET"));
+        Assert.assertEquals(rewritten.get(2).evaluate(otherPaths.extract(data)), Boolean.FALSE);
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.mvel2.MVEL;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+
+public class TestFilterGraph
+{
+    @Test
+    public void testShared()
+    {
+        FilterGraph graph = createGraph(
+                "status == 'ERROR' && component == 'scorer'",
+                "status == 'ERROR' && component == 'loader'",
+                "status == 'ERROR' && component == 'scorer'",
+                "message.startsWith('timeout') && status == 'ERROR'");
+
+        // status == 'ERROR' is shared by all, the whole first filter by two
+        Assert.assertEquals(graph.getSharedCount(), 2);
+        List<FilterExpression> expressions = graph.getExpressions();
+        Assert.assertSame(expressions.get(0), expressions.get(2));
+        Assert.assertTrue(expressions.get(0) instanceof FilterExpression.Shared);
+        Assert.assertFalse(expressions.get(1) instanceof FilterExpression.Shared);
+        Assert.assertSame(expressions.get(0).getOperands().get(0), expressions.get(1).getOperands().get(0));
+        Assert.assertSame(expressions.get(1).getOperands().get(0), expressions.get(3).getOperands().get(1));
+
+        // distinct nodes: status, 'ERROR', ==, component, 'scorer', ==, &&, 'loader', ==, &&, message, 'timeout', startsWith, &&
+        Assert.assertEquals(graph.getNodeCount(), 14);
+    }
+
+    @Test
+    public void testNothingShared()
+    {
+        FilterGraph graph = createGraph("a == 1", "b == 1", null, "a == 2");
+        Assert.assertEquals(graph.getSharedCount(), 0);
+        Assert.assertNull(graph.getExpressions().get(2));
+        Assert.assertEquals(graph.getExpressions().get(0).toString(), "(a == 1)");
+    }
+
+    @Test
+    public void testSlots()
+    {
+        // slots are numbered from the first slot, so graphs for several event types can share a memo
+        FilterGraph graph = new FilterGraph(ImmutableList.of(
+                FilterParser.parse("a == 1 && b"),
+                FilterParser.parse("a == 1 && c"),
+                FilterParser.parse("!(a == 1)")), 7);
+        Assert.assertEquals(graph.getSharedCount(), 1);
+        FilterExpression.Shared shared = (FilterExpression.Shared) graph.getExpressions().get(2).getOperands().get(0);
+        Assert.assertEquals(shared.getSlot(), 7);
+    }
+
+    @Test
+    public void testEvaluatedOnce()
+    {
+        CountingExpression clause = new CountingExpression();
+        FilterExpression first = new FilterExpression.Conjunction(ImmutableList.of(clause, new FilterExpression.Field(ImmutableList.of("a"))));
+        FilterExpression second = new FilterExpression.Conjunction(ImmutableList.of(clause, new FilterExpression.Field(ImmutableList.of("b"))));
+        FilterGraph graph = new FilterGraph(ImmutableList.of(first, second), 0);
+
+        Map<String, Object> data = ImmutableMap.<String, Object>of("a", true, "b", false);
+        FilterExpression.Memo memo = new FilterExpression.Memo(graph.getSharedCount());
+        for (int i = 0; i < 3; i++) {
+            memo.clear();
+            Assert.assertEquals(graph.getExpressions().get(0).evaluate(data, memo), Boolean.TRUE);
+            Assert.assertEquals(graph.getExpressions().get(1).evaluate(data, memo), Boolean.FALSE);
+        }
+        Assert.assertEquals(clause.count, 3);
+
+        // without a memo the shared clause is evaluated by each filter
+        Assert.assertEquals(graph.getExpressions().get(0).evaluate(data), Boolean.TRUE);
+        Assert.assertEquals(graph.getExpressions().get(1).evaluate(data), Boolean.FALSE);
+        Assert.assertEquals(clause.count, 5);
+    }
+
+    @Test
+    public void testMatchesUnshared()
+    {
+        List<String> filters = ImmutableList.of(
+                "status == 'ERROR' && component == 'scorer'",
+                "status == 'ERROR' && (component == 'scorer' || component == 'loader')",
+                "!(status == 'ERROR') && component == 'scorer'",
+                "status == 'ERROR' || missing == 1",
+                "status.startsWith('ERR') && component.length() > 5",
+                "component == 'scorer' && status.startsWith('ERR')");
+        FilterGraph graph = createGraph(filters.toArray(new String[filters.size()]));
+
+        List<Map<String, Object>> events = ImmutableList.<Map<String, Object>>of(
+                ImmutableMap.<String, Object>of("status", "ERROR", "component", "scorer"),
+                ImmutableMap.<String, Object>of("status", "ERROR", "component", "loader"),
+                ImmutableMap.<String, Object>of("status", "OK", "component", "scorer"),
+                ImmutableMap.<String, Object>of("status", "ERROR"),
+                ImmutableMap.<String, Object>of("component", "scorer"));
+
+        FilterExpression.Memo memo = new FilterExpression.Memo(graph.getSharedCount());
+        for (Map<String, Object> data : events) {
+            memo.clear();
+            for (int i = 0; i < filters.size(); i++) {
+                Object expected = FilterParser.parse(filters.get(i)).evaluate(data);
+                Assert.assertEquals(graph.getExpressions().get(i).evaluate(data, memo), expected, filters.get(i) + " " + data);
+            }
+        }
+    }
+
+    @Test
+    public void testScannedLiterals()
+    {
+        List<String> filters = ImmutableList.of(
+                "message contains 'timeout' && status == 'ERROR'",
+                "message contains 'refused'",
+                "message.contains('timeout') || message contains 'reset'",
+                "message ~= '.*connection (refused|reset).*'",
+                "message ~= 'read timeout after [0-9]+ms'",
+                "message ~= '[0-9]+'",
+                "status contains 'ERR'");
+        FilterGraph graph = createGraph(filters.toArray(new String[filters.size()]));
+
+        // message is scanned once for timeout, refused, reset, connection and "read timeout after "
+        FilterExpression.Scan scan = findScan(graph.getExpressions().get(1));
+        Assert.assertNotNull(scan);
+        Assert.assertEquals(scan.getMatcher().getPatterns(), ImmutableList.of("timeout", "refused", "reset", "connection ", "read timeout after "));
+        Assert.assertSame(findScan(graph.getExpressions().get(3)), scan);
+        Assert.assertNull(findScan(graph.getExpressions().get(5)));
+        Assert.assertNull(findScan(graph.getExpressions().get(6)));
+
+        List<Map<String, Object>> events = newArrayList();
+        for (Object message : Arrays.asList("read timeout after 250ms", "connection refused", "a connection reset", "timeout", "123",
+                "", 404, true, null, ImmutableList.of("timeout"), ImmutableMap.of("refused", 1))) {
+            Map<String, Object> data = newHashMap();
+            data.put("message", message);
+            data.put("status", "ERROR");
+            events.add(data);
+        }
+        events.add(ImmutableMap.<String, Object>of("status", "ERROR"));
+
+        FilterExpression.Memo memo = new FilterExpression.Memo(graph.getSharedCount());
+        for (Map<String, Object> data : events) {
+            memo.clear();
+            for (int i = 0; i < filters.size(); i++) {
+                Object expected = FilterParser.parse(filters.get(i)).evaluate(data);
+                Assert.assertEquals(graph.getExpressions().get(i).evaluate(data, memo), expected, filters.get(i) + " " + data);
+            }
+        }
+    }
+
+    @Test
+    public void testRequiredLiteral()
+    {
+        assertRequiredLiteral("abc", "abc");
+        assertRequiredLiteral(".*timeout.*", "timeout");
+        assertRequiredLiteral("^GET /v1/(scorer|loader)$", "GET /v1/");
+        assertRequiredLiteral("ab*cd", "cd");
+        assertRequiredLiteral("abc?d", "ab");
+        assertRequiredLiteral("ab+c", "ab");
+        assertRequiredLiteral("a{2}bc", "bc");
+        assertRequiredLiteral("x[abc]yz", "yz");
+        assertRequiredLiteral("a\\.b\\d+cd", "a.b");
+        assertRequiredLiteral("foo\\.?", "foo");
+        assertRequiredLiteral("a|b", null);
+        assertRequiredLiteral("(?i)abc", null);
+        assertRequiredLiteral("\\Qa.b\\E", null);
+        assertRequiredLiteral(".*", null);
+        assertRequiredLiteral("[0-9]+", null);
+
+        // escapes longer than two characters and nested classes are not parsed
+        assertRequiredLiteral("\\x41BC", null);
+        assertRequiredLiteral("\\u00e9te", null);
+        assertRequiredLiteral("\\0101BC", null);
+        assertRequiredLiteral("\\cABC", null);
+        assertRequiredLiteral("(?<name>a)\\k<name>", null);
+        assertRequiredLiteral("\\p{Lu}abc", null);
+        assertRequiredLiteral("\\N{LATIN SMALL LETTER A}bc", null);
+        assertRequiredLiteral("[a-z&&[^aeiou]]x", null);
+    }
+
+    @Test
+    public void testScannedRegexMatchesMvel()
+    {
+        List<String> filters = ImmutableList.of(
+                "message contains 'ABC'",
+                "message contains 'timeout'",
+                "message ~= '.*\\\\x41BC.*'",
+                "message ~= '.*\\\\u0041BC.*'",
+                "message ~= '.*\\\\0101BC.*'",
+                "message ~= '[a-z&&[^aeiou]]x'",
+                "message ~= '\\\\p{Lu}BC'");
+        FilterGraph graph = createGraph(filters.toArray(new String[filters.size()]));
+        Assert.assertNotNull(findScan(graph.getExpressions().get(0)));
+
+        FilterExpression.Memo memo = new FilterExpression.Memo(graph.getSharedCount());
+        for (String message : ImmutableList.of("ABC", "xABCx", "timeout", "bx", "ax", "]x", "41BC", "x41BC", "0101BC")) {
+            Map<String, Object> data = ImmutableMap.<String, Object>of("message", message);
+            memo.clear();
+            for (int i = 0; i < filters.size(); i++) {
+                boolean expected = MVEL.executeExpression(MVEL.compileExpression(filters.get(i)), newHashMap(data), Boolean.class);
+                Assert.assertEquals(graph.getExpressions().get(i).evaluate(data, memo), expected, filters.get(i) + " " + data);
+            }
+        }
+    }
+
+    private static void assertRequiredLiteral(String regex, String expected)
+    {
+        Assert.assertEquals(FilterExpression.Matches.findRequiredLiteral(regex), expected, regex);
+    }
+
+    private static FilterExpression.Scan findScan(FilterExpression expression)
+    {
+        if (expression instanceof FilterExpression.Shared) {
+            expression = ((FilterExpression.Shared) expression).getExpression();
+        }
+        if (expression instanceof FilterExpression.Scan) {
+            return (FilterExpression.Scan) expression;
+        }
+        for (FilterExpression operand : expression.getOperands()) {
+            FilterExpression.Scan scan = findScan(operand);
+            if (scan != null) {
+                return scan;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testMemoGenerations()
+    {
+        FilterExpression.Memo memo = new FilterExpression.Memo(2);
+        Assert.assertFalse(memo.isSet(0));
+        memo.set(0, "value");
+        Assert.assertTrue(memo.isSet(0));
+        Assert.assertEquals(memo.get(0), "value");
+        Assert.assertFalse(memo.isSet(1));
+
+        memo.clear();
+        Assert.assertFalse(memo.isSet(0));
+
+        memo.set(1, null);
+        Assert.assertTrue(memo.isSet(1));
+        Assert.assertNull(memo.get(1));
+    }
+
+    private static FilterGraph createGraph(String... filters)
+    {
+        List<FilterExpression> expressions = newArrayList();
+        for (String filter : Arrays.asList(filters)) {
+            expressions.add(filter == null ? null : FilterParser.parse(filter));
+        }
+        return new FilterGraph(expressions, 0);
+    }
+
+    private static class CountingExpression
+            extends FilterExpression
+    {
+        private int count;
+
+        @Override
+        Object evaluate(Map<String, ?> data, Memo memo)
+        {
+            count++;
+            return Boolean.TRUE;
+        }
+
+        @Override
+        List<FilterExpression> getOperands()
+        {
+            // composite, so the graph may share it
+            return ImmutableList.<FilterExpression>of(new Literal(true));
+        }
+
+        @Override
+        FilterExpression withOperands(List<FilterExpression> operands)
+        {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.mvel2.MVEL;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.Maps.newHashMap;
+
+public class TestFilterParser
+{
+    private static final Object MISSING = new Object();
+
+    @Test
+    public void testParse()
+    {
+        assertParse("true", "true");
+        assertParse("responseCode >= 200", "(responseCode >= 200)");
+        assertParse("requestUri.startsWith('/v1/scorer') && responseCode >= 200 && responseCode < 300",
+                "(requestUri.startsWith('/v1/scorer') && (responseCode >= 200) && (responseCode < 300))");
+        assertParse("a && (b && c) && (d || e)", "(a && b && c && (d || e))");
+        assertParse("requestUri.startsWith('/v1/scorer') && (responseCode < 200 || responseCode >= 300)",
+                "(requestUri.startsWith('/v1/scorer') && ((responseCode < 200) || (responseCode >= 300)))");
+        assertParse("a || b && c", "(a || (b && c))");
+        assertParse("!(a == null)", "!((a == null))");
+        assertParse("!a.isEmpty()", "!(a.isEmpty())");
+        assertParse("request.headers.host == \"example.com\"", "(request.headers.host == 'example.com')");
+        assertParse("x > -1.5e3 && y != 10L && z == nil", "((x > -1500.0) && (y != 10) && (z == null))");
+        assertParse("'abc'.contains(x)", "'abc'.contains(x)");
+        assertParse("message == 'it\\'s'", "(message == 'it's')");
+        assertParse("message contains 'timeout' && host ~= 'web-[0-9]+'", "((message contains 'timeout') && (host ~= 'web-[0-9]+'))");
+    }
+
+    @Test
+    public void testUnsupported()
+    {
+        for (String filter : ImmutableList.of(
+                "",
+                "x + 1 > 2",
+                "x = 1",
+                "x === 1",
+                "x ~= y",
+                "x ~= '(a'",
+                "x contains 'a' == true",
+                "x contains 'a' ~= 'b'",
+                "x containsy",
+                "x instanceof String",
+                "x == 1 == true",
+                "!x == true",
+                "x in [1, 2]",
+                "x['y'] == 1",
+                "x.y().z == 1",
+                "x.substring(1) == 'a'",
+                "size(x) > 1",
+                "this.size() > 1",
+                "Integer.MAX_VALUE > x",
+                "x == 0x10",
+                "x == 1.5f",
+                "x == 'abc",
+                "x == '\\u0041'",
+                "x > 1; y > 2",
+                "(x > 1")) {
+            Assert.assertNull(FilterParser.parse(filter), filter);
+        }
+    }
+
+    @Test
+    public void testMatchesMvel()
+    {
+        List<String> filters = ImmutableList.of(
+                "x",
+                "!x",
+                "x == 200",
+                "x != 200",
+                "x == 200.0",
+                "x == 200L",
+                "x == '200'",
+                "x == 'abc'",
+                "x == null",
+                "x != null",
+                "x == true",
+                "x < 300",
+                "x >= 200",
+                "x > 199.5",
+                "x <= -1",
+                "x < 'b'",
+                "x < null",
+                "x == y",
+                "x < y",
+                "x && y",
+                "x || y",
+                "!x && y",
+                "true || x",
+                "false && x",
+                "x && true",
+                "true && x",
+                "false || x",
+                "x && y && true",
+                "true && x && y",
+                "x > 100 && (y > 1 && x < 300)",
+                "x.startsWith('a') && y",
+                "x.startsWith('a')",
+                "x.endsWith(y)",
+                "x.contains('b')",
+                "x.equals('abc')",
+                "x.equalsIgnoreCase('ABC')",
+                "x.length() == 3",
+                "x.isEmpty()",
+                "x.y == 1",
+                "x.y == null",
+                "x contains 'b'",
+                "x contains y",
+                "'abc' contains x",
+                "!(x contains 'b') && x ~= '[a-z]+'",
+                "x ~= 'a.*'",
+                "x ~= '2.*'",
+                "x ~= 'null'",
+                "x ~= 'true' || y contains '0'",
+                "(x > 100 && x < 300) || y == 'abc'");
+
+        Map<String, Object> nested = newHashMap();
+        nested.put("y", 1);
+        List<Object> values = Arrays.<Object>asList(MISSING, null, 200, 200L, 200.0, 200.5, 201.5f, (short) 200, -1, Long.MAX_VALUE,
+                "200", "abc", "ABC", "", "b", true, false, nested, ImmutableMap.of(), ImmutableList.of(1, 2));
+
+        for (String filter : filters) {
+            Assert.assertTrue(new EventPredicate("event", filter).isCompiled(), filter);
+            for (Object x : values) {
+                for (Object y : values) {
+                    // MVEL optimizes property access for the values it sees first, so each case starts fresh
+                    EventPredicate predicate = new EventPredicate("event", filter);
+                    Object expression = MVEL.compileExpression(filter);
+
+                    Map<String, Object> data = newHashMap();
+                    if (x != MISSING) {
+                        data.put("x", x);
+                    }
+                    if (y != MISSING) {
+                        data.put("y", y);
+                    }
+                    String message = String.format("%s with x=%s, y=%s", filter, describe(x), describe(y));
+                    boolean expected = applyMvel(expression, data);
+                    Assert.assertEquals(predicate.apply(new Event("event", "id", "host", null, data)), expected, message);
+
+                    // the order of the clauses does not change the result
+                    FilterExpression compiled = predicate.getCompiledExpression();
+                    if (compiled instanceof FilterExpression.Conjunction) {
+                        FilterExpression.Conjunction conjunction = (FilterExpression.Conjunction) compiled;
+                        int[] reversed = new int[conjunction.getOperands().size()];
+                        for (int i = 0; i < reversed.length; i++) {
+                            reversed[i] = reversed.length - 1 - i;
+                        }
+                        conjunction.getProfile().setOrder(reversed);
+                        Assert.assertEquals(predicate.apply(new Event("event", "id", "host", null, data)), expected, message + " reversed");
+                        Assert.assertEquals(conjunction.evaluateSampled(data, null), conjunction.evaluate(data), message + " sampled");
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNoFallbackForCommonValues()
+    {
+        Map<String, Object> data = newHashMap();
+        data.put("requestUri", "/v1/scorer/foo");
+        data.put("responseCode", 204);
+        data.put("latency", 12.5);
+        data.put("optional", null);
+
+        for (String filter : ImmutableList.of(
+                "requestUri.startsWith('/v1/scorer') && responseCode >= 200 && responseCode < 300",
+                "latency > 10 && responseCode != 500",
+                "optional == null || optional == 'x'",
+                "missing == 'x'")) {
+            Object result = FilterParser.parse(filter).evaluate(data);
+            Assert.assertNotSame(result, FilterExpression.FALLBACK, filter);
+        }
+    }
+
+    @Test
+    public void testNullData()
+    {
+        for (String filter : ImmutableList.of(
+                "responseCode == 500",
+                "request.headers.host == 'example.com'",
+                "optional == null",
+                "!(missing == 'x')")) {
+            Object result = FilterParser.parse(filter).evaluate(null);
+            Assert.assertEquals(FilterExpression.getFailure(result), FilterFailure.MISSING_FIELD, filter);
+        }
+    }
+
+    private static void assertParse(String filter, String expected)
+    {
+        FilterExpression expression = FilterParser.parse(filter);
+        Assert.assertNotNull(expression, filter);
+        Assert.assertEquals(expression.toString(), expected);
+    }
+
+    private static boolean applyMvel(Object expression, Map<String, Object> data)
+    {
+        try {
+            return MVEL.executeExpression(expression, data, Boolean.class) == Boolean.TRUE;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static String describe(Object value)
+    {
+        if (value == MISSING) {
+            return "<missing>";
+        }
+        if (value == null) {
+            return "null";
+        }
+        return value.getClass().getSimpleName() + "(" + value + ")";
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+public class TestFilterResultCache
+{
+    @Test
+    public void testKey()
+    {
+        FilterResultCache cache = new FilterResultCache(fields("status", "component"), 10);
+        List<Object> key = cache.getKey(ImmutableMap.<String, Object>of("status", "ERROR", "component", "scorer", "other", 1));
+        Assert.assertEquals(key, cache.getKey(ImmutableMap.<String, Object>of("component", "scorer", "status", "ERROR")));
+        Assert.assertFalse(key.equals(cache.getKey(ImmutableMap.<String, Object>of("status", "ERROR", "component", "loader"))));
+
+        // a missing field is not the same as a null one
+        Map<String, Object> nullComponent = Collections.<String, Object>singletonMap("component", null);
+        Assert.assertFalse(cache.getKey(nullComponent).equals(cache.getKey(ImmutableMap.<String, Object>of())));
+
+        Assert.assertNull(cache.get(key));
+        cache.put(key, Boolean.TRUE);
+        Assert.assertEquals(cache.get(key), Boolean.TRUE);
+        Assert.assertEquals(cache.getHitRate(), 0.5);
+    }
+
+    @Test
+    public void testNestedKey()
+    {
+        FilterResultCache cache = new FilterResultCache(fields("request.headers.host", "responseCode"), 10);
+
+        // the key holds the value read, not the request map
+        Map<String, Object> request = ImmutableMap.<String, Object>of("headers", ImmutableMap.of("host", "example.com", "agent", "curl"), "body", "...");
+        Assert.assertEquals(cache.getKey(ImmutableMap.of("request", request, "responseCode", 204)), Arrays.<Object>asList("example.com", 204));
+
+        // a missing map is not the same as a null one
+        Map<String, Object> nullRequest = Collections.<String, Object>singletonMap("request", null);
+        Assert.assertFalse(cache.getKey(nullRequest).equals(cache.getKey(ImmutableMap.<String, Object>of())));
+
+        // nested data the filter reads as a whole, and data that is not a map, are not cached
+        Assert.assertNull(cache.getKey(ImmutableMap.of("request", ImmutableMap.of("headers", ImmutableMap.of("host", ImmutableList.of("a", "b"))))));
+        Assert.assertNull(cache.getKey(ImmutableMap.of("responseCode", ImmutableMap.of("code", 204))));
+        Assert.assertNull(cache.getKey(ImmutableMap.of("request", "not a map")));
+        Assert.assertNull(cache.getKey(null));
+    }
+
+    @Test
+    public void testKeyFields()
+    {
+        FilterExpression expression = FilterParser.parse("request.headers.host == 'example.com' && (responseCode >= 500 || request.headers.host == null)");
+        Assert.assertEquals(FilterResultCache.findKeyFields(expression, null), fields("request.headers.host", "responseCode"));
+
+        // a filter that is not compiled is keyed on its top-level fields
+        Assert.assertEquals(FilterResultCache.findKeyFields(null, ImmutableSet.of("request", "responseCode")), fields("request", "responseCode"));
+    }
+
+    @Test
+    public void testBounded()
+    {
+        FilterResultCache cache = new FilterResultCache(fields("id"), 10);
+        for (int id = 0; id < 100; id++) {
+            cache.put(cache.getKey(ImmutableMap.of("id", id)), Boolean.FALSE);
+        }
+        Assert.assertTrue(cache.getSize() <= 10);
+    }
+
+    @Test
+    public void testLowHitRate()
+    {
+        FilterResultCache cache = new FilterResultCache(fields("id"), 1000);
+        for (int id = 0; id < FilterResultCache.MIN_LOOKUPS; id++) {
+            List<Object> key = cache.getKey(ImmutableMap.of("id", id));
+            if (cache.get(key) == null) {
+                cache.put(key, Boolean.FALSE);
+            }
+        }
+        cache.checkHitRate();
+        Assert.assertFalse(cache.isEnabled());
+        Assert.assertEquals(cache.getSize(), 0);
+    }
+
+    @Test
+    public void testHighHitRate()
+    {
+        FilterResultCache cache = new FilterResultCache(fields("status"), 1000);
+        for (int i = 0; i < FilterResultCache.MIN_LOOKUPS; i++) {
+            List<Object> key = cache.getKey(ImmutableMap.of("status", i % 10));
+            if (cache.get(key) == null) {
+                cache.put(key, Boolean.TRUE);
+            }
+        }
+        cache.checkHitRate();
+        Assert.assertTrue(cache.isEnabled());
+        Assert.assertEquals(cache.getSize(), 10);
+    }
+
+    private static List<FilterExpression.Field> fields(String... paths)
+    {
+        List<FilterExpression.Field> fields = newArrayList();
+        for (String path : paths) {
+            fields.add(new FilterExpression.Field(ImmutableList.copyOf(Splitter.on('.').split(path))));
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TestHistogram
+{
+    @Test
+    public void testBuckets()
+    {
+        for (long value = 0; value < 100000; value++) {
+            int index = Histogram.bucketIndex(value);
+            Assert.assertTrue(Histogram.bucketLowerBound(index) <= value);
+            Assert.assertTrue(Histogram.bucketLowerBound(index + 1) > value);
+        }
+        Assert.assertTrue(Histogram.bucketLowerBound(Histogram.bucketIndex(Long.MAX_VALUE)) <= Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        Histogram histogram = Histogram.valueHistogram();
+        Assert.assertEquals(histogram.getCount(), 0);
+        Assert.assertTrue(Double.isNaN(histogram.getMean()));
+        Assert.assertTrue(Double.isNaN(histogram.getP50()));
+    }
+
+    @Test
+    public void testQuantiles()
+    {
+        Histogram histogram = Histogram.valueHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.add(i);
+        }
+
+        Assert.assertEquals(histogram.getCount(), 1000);
+        Assert.assertEquals(histogram.getMean(), 500.5);
+        Assert.assertEquals(histogram.getMax(), 1000.0);
+        Assert.assertEquals(histogram.getP50(), 500, 500 * 0.125);
+        Assert.assertEquals(histogram.getP90(), 900, 900 * 0.125);
+        Assert.assertEquals(histogram.getP99(), 990, 990 * 0.125);
+        Assert.assertTrue(histogram.getP999() <= 1000);
+
+        histogram.reset();
+        Assert.assertEquals(histogram.getCount(), 0);
+        Assert.assertTrue(Double.isNaN(histogram.getMax()));
+    }
+
+    @Test
+    public void testDuration()
+    {
+        Histogram histogram = Histogram.durationHistogram();
+        histogram.add(TimeUnit.MILLISECONDS.toNanos(3));
+        histogram.add(TimeUnit.MILLISECONDS.toNanos(5));
+
+        Assert.assertEquals(histogram.getMean(), 4.0);
+        Assert.assertEquals(histogram.getMax(), 5.0);
+    }
+}
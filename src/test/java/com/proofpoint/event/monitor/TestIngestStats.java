@@ -0,0 +1,133 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+public class TestIngestStats
+{
+    private ScheduledExecutorService executor;
+
+    @BeforeClass
+    protected void setUp()
+            throws Exception
+    {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).build());
+    }
+
+    @AfterClass
+    public void tearDown()
+            throws Exception
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Test
+    public void testBatch()
+    {
+        IngestStats ingestStats = new IngestStats(executor);
+
+        IngestStats.Batch batch = ingestStats.newBatch();
+        batch.add("foo", 10);
+        batch.add("foo", 20);
+        batch.add("bar", 5);
+        batch.add("foo", 30);
+
+        // nothing is published until the batch is committed
+        Assert.assertEquals(ingestStats.getStats().size(), 0);
+        batch.commit();
+
+        Assert.assertEquals(ingestStats.getStats().keySet(), ImmutableSet.of("foo", "bar"));
+        IngestStats.EventTypeStats foo = ingestStats.getStats().get("foo");
+        Assert.assertEquals(foo.getEventCount(), 3);
+        Assert.assertEquals(foo.getByteCount(), 60);
+        Assert.assertEquals(foo.getBatchCount(), 1);
+        IngestStats.EventTypeStats bar = ingestStats.getStats().get("bar");
+        Assert.assertEquals(bar.getEventCount(), 1);
+        Assert.assertEquals(bar.getByteCount(), 5);
+        Assert.assertEquals(bar.getBatchCount(), 1);
+
+        batch = ingestStats.newBatch();
+        batch.add("foo", 10);
+        batch.addDecodeTime(1000);
+        batch.commit();
+
+        Assert.assertEquals(ingestStats.getBatchSize().getCount(), 2);
+        Assert.assertEquals(ingestStats.getBatchSize().getMax(), 4.0);
+        Assert.assertEquals(ingestStats.getDecodeTime().getCount(), 2);
+        // batches without evaluation time, such as those queued for the workers, are not recorded
+        Assert.assertEquals(ingestStats.getEvaluationTime().getCount(), 0);
+        Assert.assertEquals(foo.getEventCount(), 4);
+        Assert.assertEquals(foo.getBatchCount(), 2);
+        Assert.assertEquals(bar.getBatchCount(), 1);
+
+        ingestStats.reset();
+        Assert.assertEquals(ingestStats.getStats().size(), 0);
+    }
+
+    @Test
+    public void testRates()
+    {
+        TestingTicker ticker = new TestingTicker();
+        IngestStats ingestStats = new IngestStats(executor, ticker);
+
+        IngestStats.Batch batch = ingestStats.newBatch();
+        for (int i = 0; i < 50; i++) {
+            batch.add("foo", 1);
+        }
+        batch.commit();
+
+        IngestStats.EventTypeStats foo = ingestStats.getStats().get("foo");
+        Assert.assertEquals(foo.getOneMinuteRate(), 0.0);
+
+        // 50 events in one 5 second tick
+        ticker.advance(5, TimeUnit.SECONDS);
+        ingestStats.tick();
+        Assert.assertEquals(foo.getOneMinuteRate(), 10.0, 0.001);
+        Assert.assertEquals(foo.getFiveMinuteRate(), 10.0, 0.001);
+        Assert.assertEquals(foo.getFifteenMinuteRate(), 10.0, 0.001);
+
+        // the rates decay once events stop arriving
+        ticker.advance(5, TimeUnit.SECONDS);
+        ingestStats.tick();
+        Assert.assertTrue(foo.getOneMinuteRate() < 10.0);
+        Assert.assertTrue(foo.getFifteenMinuteRate() > foo.getOneMinuteRate());
+
+        // 100 events in a tick that ran late are spread over the time that actually elapsed
+        batch = ingestStats.newBatch();
+        for (int i = 0; i < 100; i++) {
+            batch.add("foo", 1);
+        }
+        batch.commit();
+        double rate = foo.getOneMinuteRate();
+        ticker.advance(10, TimeUnit.SECONDS);
+        ingestStats.tick();
+        Assert.assertTrue(foo.getOneMinuteRate() < 10.0);
+        Assert.assertTrue(foo.getOneMinuteRate() > rate);
+    }
+}
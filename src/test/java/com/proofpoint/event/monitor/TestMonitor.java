@@ -19,6 +19,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.proofpoint.event.monitor.InMemoryAlerter.InMemoryAlert;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.testng.Assert;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
@@ -26,6 +27,7 @@ import org.testng.annotations.Test;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import static com.google.common.collect.Iterables.concat;
 import static java.util.Collections.nCopies;
@@ -34,12 +36,14 @@ public class TestMonitor
 {
 
     private ScheduledExecutorService executor;
+    private MonitorTicker ticker;
 
     @BeforeClass
     protected void setUp()
             throws Exception
     {
         executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).build());
+        ticker = new MonitorTicker(executor);
     }
 
     @AfterClass
@@ -57,7 +61,7 @@ public class TestMonitor
     {
 
         InMemoryAlerter alerter = new InMemoryAlerter();
-        Monitor monitor = new Monitor("foo", "event", executor, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
+        Monitor monitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
         Assert.assertEquals(monitor.getName(), "foo");
         Assert.assertEquals(monitor.getEventType(), "event");
         Assert.assertEquals(monitor.getMinimumOneMinuteRate(), 1.0);
@@ -70,7 +74,7 @@ public class TestMonitor
     public void testProcessEvents()
     {
         InMemoryAlerter alerter = new InMemoryAlerter();
-        Monitor monitor = new Monitor("foo", "event", executor, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
+        Monitor monitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
 
         monitor.processEvents(nCopies(100, new Event("event", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())));
         Assert.assertEquals(monitor.getEvents().getCount(), 100);
@@ -80,7 +84,7 @@ public class TestMonitor
     public void testFilterEvents()
     {
         InMemoryAlerter alerter = new InMemoryAlerter();
-        Monitor monitor = new Monitor("foo", "event", executor, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
+        Monitor monitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
 
         monitor.processEvents(concat(
                 nCopies(100, new Event("event", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())),
@@ -94,7 +98,7 @@ public class TestMonitor
             throws Exception
     {
         InMemoryAlerter alerter = new InMemoryAlerter();
-        Monitor monitor = new Monitor("foo", "event", executor, new EventPredicate("event", "true"), 2.0, null, alerter);
+        Monitor monitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 2.0, null, alerter);
         Assert.assertEquals(monitor.getName(), "foo");
         Assert.assertEquals(monitor.getEventType(), "event");
 
@@ -153,7 +157,7 @@ public class TestMonitor
     {
 
         InMemoryAlerter alerter = new InMemoryAlerter();
-        Monitor monitor = new Monitor("foo", "event", executor, new EventPredicate("event", "true"), null, 10.0, alerter);
+        Monitor monitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), null, 10.0, alerter);
         Assert.assertEquals(monitor.getName(), "foo");
         Assert.assertEquals(monitor.getEventType(), "event");
 
@@ -207,7 +211,7 @@ public class TestMonitor
             throws Exception
     {
         InMemoryAlerter alerter = new InMemoryAlerter();
-        Monitor monitor = new Monitor("foo", "event", executor, new EventPredicate("event", "true"), 2.0, 100.0, alerter);
+        Monitor monitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 2.0, 100.0, alerter);
         Assert.assertEquals(monitor.getName(), "foo");
         Assert.assertEquals(monitor.getEventType(), "event");
 
@@ -293,4 +297,91 @@ public class TestMonitor
         Assert.assertTrue(alert.isFailed());
         Assert.assertTrue(alert.getDescription().toLowerCase().contains("between"));
     }
+
+    @Test
+    public void testFailRecoveryWindowCount()
+            throws Exception
+    {
+        TestingTicker clock = new TestingTicker();
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor monitor = new Monitor("foo", "event", new MonitorTicker(executor, clock), new EventPredicate("event", "true"), null, null, 60, null, null, 100L, null, alerter);
+        Assert.assertEquals(monitor.getWindowSeconds(), (Integer) 60);
+        Assert.assertEquals(monitor.getMinimumWindowCount(), (Long) 100L);
+
+        // the window has not been running for a minute yet
+        monitor.checkState();
+        Assert.assertFalse(monitor.isFailed());
+        Assert.assertEquals(alerter.getAlerts().size(), 0);
+
+        clock.advance(59, TimeUnit.SECONDS);
+        monitor.processEvents(nCopies(99, new Event("event", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())));
+        clock.advance(1, TimeUnit.SECONDS);
+        monitor.checkState();
+
+        // failed : one event short, where a decayed rate could not tell
+        Assert.assertTrue(monitor.isFailed());
+        Assert.assertEquals(alerter.getAlerts().size(), 1);
+        Assert.assertTrue(alerter.getAlerts().get(0).getDescription().contains("count of events in the last 60 seconds to be greater than 100, but is 99"));
+
+        alerter.getAlerts().clear();
+        monitor.processEvents(nCopies(1, new Event("event", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())));
+        clock.advance(1, TimeUnit.SECONDS);
+        monitor.checkState();
+
+        // not-failed : at the threshold, once the second of the event has completed
+        Assert.assertFalse(monitor.isFailed());
+        Assert.assertEquals(alerter.getAlerts().size(), 1);
+        Assert.assertEquals(monitor.getWindowCount(), (Long) 100L);
+
+        // failed : the events left the window
+        clock.advance(60, TimeUnit.SECONDS);
+        monitor.checkState();
+        Assert.assertTrue(monitor.isFailed());
+        Assert.assertEquals(monitor.getWindowCount(), (Long) 0L);
+    }
+
+    @Test
+    public void testEventTimeWindowCount()
+            throws Exception
+    {
+        TestingTicker clock = new TestingTicker();
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor monitor = new Monitor("foo", "event", new MonitorTicker(executor, clock), new EventPredicate("event", "true"), null, null, 60, 0, 300, 100L, null, alerter);
+        Assert.assertTrue(monitor.isEventTimeWindowed());
+        // the first window that starts after the monitor
+        DateTime start = new DateTime(DateTimeZone.UTC).withSecondOfMinute(0).withMillisOfSecond(0).plusMinutes(1);
+
+        // no window is complete yet
+        monitor.checkState();
+        Assert.assertFalse(monitor.isFailed());
+        Assert.assertNull(monitor.getWindowCount());
+
+        // a collector flushes a backlog of 100 events from the same second, minutes after they happened
+        clock.advance(180, TimeUnit.SECONDS);
+        monitor.processEvents(nCopies(100, new Event("event", "id", "host", start.plusSeconds(1), ImmutableMap.<String, Object>of())));
+        monitor.processEvents(nCopies(1, new Event("event", "id", "host", start.plusSeconds(60), ImmutableMap.<String, Object>of())));
+        monitor.checkState();
+
+        // not-failed : the window holds the events that happened in it
+        Assert.assertFalse(monitor.isFailed());
+        Assert.assertEquals(monitor.getWindowCount(), (Long) 100L);
+        Assert.assertEquals(monitor.getDroppedLateEvents(), 0);
+
+        // the events arrived after their window was complete
+        monitor.processEvents(nCopies(5, new Event("event", "id", "host", start.minusSeconds(1), ImmutableMap.<String, Object>of())));
+        Assert.assertEquals(monitor.getDroppedLateEvents(), 5);
+
+        // failed : the source died, and the watermark moved on with the clock
+        clock.advance(10, TimeUnit.MINUTES);
+        monitor.checkState();
+        Assert.assertTrue(monitor.isFailed());
+        Assert.assertEquals(monitor.getWindowCount(), (Long) 0L);
+        Assert.assertTrue(alerter.getAlerts().get(0).getDescription().contains("second window starting at"));
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWindowCountWithoutWindow()
+    {
+        new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), null, null, null, null, null, 100L, null, new InMemoryAlerter());
+    }
 }
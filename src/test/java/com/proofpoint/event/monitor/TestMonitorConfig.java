@@ -17,9 +17,11 @@ package com.proofpoint.event.monitor;
 
 import com.google.common.collect.ImmutableMap;
 import com.proofpoint.configuration.testing.ConfigAssertions;
+import com.proofpoint.units.Duration;
 import org.testng.annotations.Test;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class TestMonitorConfig
 {
@@ -28,6 +30,18 @@ public class TestMonitorConfig
     {
         ConfigAssertions.assertRecordedDefaults(ConfigAssertions.recordDefaults(MonitorConfig.class)
                 .setMonitorRulesFile("etc/monitor.json")
+                .setAsyncIngestEnabled(false)
+                .setIngestQueueSize(1000)
+                .setIngestThreads(4)
+                .setIngestRetryAfter(new Duration(1, TimeUnit.SECONDS))
+                .setParallelEvaluationEnabled(false)
+                .setParallelEvaluationThreshold(10000)
+                .setDeduplicationEnabled(false)
+                .setDeduplicationWindow(new Duration(5, TimeUnit.MINUTES))
+                .setDeduplicationExpectedEvents(1000000)
+                .setDeduplicationFalsePositiveRate(0.001)
+                .setEvaluationBudget(null)
+                .setSpecializationEnabled(false)
         );
     }
 
@@ -36,10 +50,34 @@ public class TestMonitorConfig
     {
         Map<String, String> properties = new ImmutableMap.Builder<String, String>()
                 .put("monitor.file", "file")
+                .put("monitor.ingest.async", "true")
+                .put("monitor.ingest.queue-size", "10")
+                .put("monitor.ingest.threads", "2")
+                .put("monitor.ingest.retry-after", "5s")
+                .put("monitor.parallel.enabled", "true")
+                .put("monitor.parallel.threshold", "500")
+                .put("monitor.dedup.enabled", "true")
+                .put("monitor.dedup.window", "1m")
+                .put("monitor.dedup.expected-events", "1000")
+                .put("monitor.dedup.false-positive-rate", "0.01")
+                .put("monitor.evaluation-budget", "50us")
+                .put("monitor.specialization.enabled", "true")
                 .build();
 
         MonitorConfig expected = new MonitorConfig()
-                .setMonitorRulesFile("file");
+                .setMonitorRulesFile("file")
+                .setAsyncIngestEnabled(true)
+                .setIngestQueueSize(10)
+                .setIngestThreads(2)
+                .setIngestRetryAfter(new Duration(5, TimeUnit.SECONDS))
+                .setParallelEvaluationEnabled(true)
+                .setParallelEvaluationThreshold(500)
+                .setDeduplicationEnabled(true)
+                .setDeduplicationWindow(new Duration(1, TimeUnit.MINUTES))
+                .setDeduplicationExpectedEvents(1000)
+                .setDeduplicationFalsePositiveRate(0.01)
+                .setEvaluationBudget(new Duration(50, TimeUnit.MICROSECONDS))
+                .setSpecializationEnabled(true);
 
         ConfigAssertions.assertFullMapping(properties, expected);
     }
@@ -15,28 +15,54 @@
  */
 package com.proofpoint.event.monitor;
 
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.proofpoint.event.monitor.MonitorEventTapResource.EventTypeStatsRepresentation;
+import com.proofpoint.json.JsonCodec;
+import com.proofpoint.units.Duration;
 import org.joda.time.DateTime;
 import org.testng.Assert;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
 
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
 import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.collect.Iterables.concat;
+import static java.util.Collections.nCopies;
 
 public class TestMonitorEventTapResource
 {
+    private static final JsonCodec<List<Event>> EVENTS_CODEC = JsonCodec.listJsonCodec(Event.class);
+
     private ScheduledExecutorService executor;
+    private MonitorTicker ticker;
 
     @BeforeClass
     protected void setUp()
             throws Exception
     {
         executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).build());
+        ticker = new MonitorTicker(executor);
     }
 
     @AfterClass
@@ -51,14 +77,298 @@ public class TestMonitorEventTapResource
 
     @Test
     public void testPostEvents()
+            throws Exception
     {
         InMemoryAlerter alerter = new InMemoryAlerter();
-        Monitor fooMonitor = new Monitor("foo", "event", executor, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
-        Monitor barMonitor = new Monitor("bar", "event", executor, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
-        MonitorEventTapResource resource = new MonitorEventTapResource(ImmutableSet.of(fooMonitor, barMonitor));
-        resource.post(Collections.nCopies(100, new Event("event", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())));
+        Monitor fooMonitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
+        Monitor barMonitor = new Monitor("bar", "event", ticker, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
+        MonitorEventTapResource resource = createResource(fooMonitor, barMonitor);
+        resource.post(toJson(Collections.nCopies(100, new Event("event", "id", "host", new DateTime(), ImmutableMap.<String, Object>of()))));
 
         Assert.assertEquals(fooMonitor.getEvents().getCount(), 100);
         Assert.assertEquals(barMonitor.getEvents().getCount(), 100);
     }
+
+    @Test
+    public void testPostMixedEvents()
+            throws Exception
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor fooMonitor = new Monitor("foo", "foo", ticker, new EventPredicate("foo", "true"), 1.0, 2.0, alerter);
+        Monitor barMonitor = new Monitor("bar", "bar", ticker, new EventPredicate("bar", "true"), 1.0, 2.0, alerter);
+        MonitorEventTapResource resource = createResource(fooMonitor, barMonitor);
+        resource.post(toJson(ImmutableList.copyOf(concat(
+                nCopies(3, new Event("foo", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())),
+                nCopies(5, new Event("bar", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())),
+                nCopies(7, new Event("other", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())),
+                nCopies(11, new Event("foo", "id", "host", new DateTime(), ImmutableMap.<String, Object>of()))
+        ))));
+
+        Assert.assertEquals(fooMonitor.getEvents().getCount(), 14);
+        Assert.assertEquals(barMonitor.getEvents().getCount(), 5);
+        Assert.assertEquals(getEventCounts(resource), ImmutableMap.<String, Long>of("foo", 14L, "bar", 5L, "other", 7L));
+    }
+
+    @Test
+    public void testPostEmptyBatch()
+            throws Exception
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor fooMonitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
+        MonitorEventTapResource resource = createResource(fooMonitor);
+        resource.post(toJson(ImmutableList.<Event>of()));
+
+        Assert.assertEquals(fooMonitor.getEvents().getCount(), 0);
+        Assert.assertEquals(getEventCounts(resource), ImmutableMap.<String, Long>of());
+    }
+
+    @Test
+    public void testPostMalformedBatch()
+            throws Exception
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor fooMonitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
+        MonitorEventTapResource resource = createResource(fooMonitor);
+
+        try {
+            resource.post(new ByteArrayInputStream("[{\"type\":\"event\",\"data\":{}},{\"type\":".getBytes(Charsets.UTF_8)));
+            Assert.fail("expected WebApplicationException");
+        }
+        catch (WebApplicationException e) {
+            Assert.assertEquals(e.getResponse().getStatus(), 400);
+        }
+
+        // the partial batch is discarded
+        Assert.assertEquals(fooMonitor.getEvents().getCount(), 0);
+        Assert.assertEquals(getEventCounts(resource), ImmutableMap.<String, Long>of());
+    }
+
+    @Test
+    public void testPostEventWithoutData()
+            throws Exception
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor fooMonitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "value > 0"), 1.0, 2.0, alerter);
+        MonitorEventTapResource resource = createResource(fooMonitor);
+
+        try {
+            resource.post(new ByteArrayInputStream("[{\"type\":\"event\",\"data\":{\"value\":1}},{\"type\":\"event\"}]".getBytes(Charsets.UTF_8)));
+            Assert.fail("expected WebApplicationException");
+        }
+        catch (WebApplicationException e) {
+            Assert.assertEquals(e.getResponse().getStatus(), 400);
+        }
+
+        // the batch is rejected as malformed, rather than failing part way through
+        Assert.assertEquals(fooMonitor.getEvents().getCount(), 0);
+        Assert.assertEquals(getEventCounts(resource), ImmutableMap.<String, Long>of());
+    }
+
+    @Test
+    public void testPostSmileEvents()
+            throws Exception
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor fooMonitor = new Monitor("foo", "foo", ticker, new EventPredicate("foo", "value > 10"), 1.0, 2.0, alerter);
+        Monitor barMonitor = new Monitor("bar", "bar", ticker, new EventPredicate("bar", "true"), 1.0, 2.0, alerter);
+        MonitorEventTapResource resource = createResource(fooMonitor, barMonitor);
+        resource.postSmile(new ByteArrayInputStream(EventWriter.writeEvents(new SmileFactory(), concat(
+                nCopies(3, new Event("foo", "id", "host", new DateTime(), ImmutableMap.of("value", 5))),
+                nCopies(5, new Event("bar", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())),
+                nCopies(7, new Event("foo", "id", "host", new DateTime(), ImmutableMap.of("value", 50)))
+        ))));
+
+        Assert.assertEquals(fooMonitor.getEvents().getCount(), 7);
+        Assert.assertEquals(barMonitor.getEvents().getCount(), 5);
+        Assert.assertEquals(getEventCounts(resource), ImmutableMap.<String, Long>of("foo", 10L, "bar", 5L));
+    }
+
+    @Test
+    public void testPostEventsTimed()
+            throws Exception
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor fooMonitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
+        MonitorRegistry monitorRegistry = new MonitorRegistry(ImmutableSet.of(fooMonitor));
+        BatchEvaluator batchEvaluator = new BatchEvaluator(monitorRegistry);
+        IngestStats ingestStats = new IngestStats(executor);
+        IngestQueue ingestQueue = new IngestQueue(false, 1, 1, new Duration(1, TimeUnit.SECONDS), batchEvaluator, ingestStats);
+        MonitorEventTapResource resource = new MonitorEventTapResource(monitorRegistry, batchEvaluator, ingestQueue, ingestStats, new EventDeduplicator(false, new Duration(1, TimeUnit.MINUTES), 1, 0.01, Ticker.systemTicker()));
+        resource.post(toJson(Collections.nCopies(100, new Event("event", "id", "host", new DateTime(), ImmutableMap.<String, Object>of()))));
+
+        // one time for each phase of the batch
+        Assert.assertEquals(fooMonitor.getEvents().getCount(), 100);
+        Assert.assertEquals(ingestStats.getDecodeTime().getCount(), 1);
+        Assert.assertEquals(ingestStats.getEvaluationTime().getCount(), 1);
+    }
+
+    @Test
+    public void testSplitDecodeTime()
+    {
+        Assert.assertEquals(MonitorEventTapResource.splitDecodeTime(1000, 30, 10), 750);
+        Assert.assertEquals(MonitorEventTapResource.splitDecodeTime(1000, 0, 10), 0);
+        Assert.assertEquals(MonitorEventTapResource.splitDecodeTime(1000, 0, 0), 1000);
+    }
+
+    @Test
+    public void testPostEventsAsync()
+            throws Exception
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor fooMonitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
+        MonitorRegistry monitorRegistry = new MonitorRegistry(ImmutableSet.of(fooMonitor));
+        BatchEvaluator batchEvaluator = new BatchEvaluator(monitorRegistry);
+        IngestStats ingestStats = new IngestStats(executor);
+        IngestQueue ingestQueue = new IngestQueue(true, 1, 1, new Duration(1, TimeUnit.SECONDS), batchEvaluator, ingestStats);
+        try {
+            MonitorEventTapResource resource = new MonitorEventTapResource(monitorRegistry, batchEvaluator, ingestQueue, ingestStats, new EventDeduplicator(false, new Duration(1, TimeUnit.MINUTES), 1, 0.01, Ticker.systemTicker()));
+            Response response = resource.post(toJson(Collections.nCopies(100, new Event("event", "id", "host", new DateTime(), ImmutableMap.<String, Object>of()))));
+
+            Assert.assertEquals(response.getStatus(), Status.NO_CONTENT.getStatusCode());
+            Assert.assertEquals(getEventCounts(resource), ImmutableMap.<String, Long>of("event", 100L));
+            for (int i = 0; i < 100 && ingestQueue.getProcessedCount() == 0; i++) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(ingestQueue.getProcessedCount(), 1);
+            Assert.assertEquals(fooMonitor.getEvents().getCount(), 100);
+            Assert.assertEquals(ingestStats.getEvaluationTime().getCount(), 1);
+        }
+        finally {
+            ingestQueue.stop();
+        }
+    }
+
+    @Test
+    public void testPostEventsAsyncQueueFull()
+            throws Exception
+    {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor fooMonitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true")
+        {
+            @Override
+            boolean apply(Event event, FilterExpression filterExpression, FilterExpression.Memo memo)
+            {
+                started.countDown();
+                Uninterruptibles.awaitUninterruptibly(release);
+                return true;
+            }
+        }, 1.0, 2.0, alerter);
+        MonitorRegistry monitorRegistry = new MonitorRegistry(ImmutableSet.of(fooMonitor));
+        BatchEvaluator batchEvaluator = new BatchEvaluator(monitorRegistry);
+        IngestStats ingestStats = new IngestStats(executor);
+        IngestQueue ingestQueue = new IngestQueue(true, 1, 1, new Duration(5, TimeUnit.SECONDS), batchEvaluator, ingestStats);
+        try {
+            MonitorEventTapResource resource = new MonitorEventTapResource(monitorRegistry, batchEvaluator, ingestQueue, ingestStats, new EventDeduplicator(false, new Duration(1, TimeUnit.MINUTES), 1, 0.01, Ticker.systemTicker()));
+            List<Event> events = ImmutableList.of(new Event("event", "id", "host", new DateTime(), ImmutableMap.<String, Object>of()));
+
+            // the first batch occupies the only worker and the second fills the queue
+            Assert.assertEquals(resource.post(toJson(events)).getStatus(), Status.NO_CONTENT.getStatusCode());
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(resource.post(toJson(events)).getStatus(), Status.NO_CONTENT.getStatusCode());
+
+            Response response = resource.post(toJson(events));
+            Assert.assertEquals(response.getStatus(), Status.SERVICE_UNAVAILABLE.getStatusCode());
+            Assert.assertEquals(response.getMetadata().getFirst("Retry-After"), 5L);
+            Assert.assertEquals(ingestQueue.getRejectedCount(), 1);
+            Assert.assertEquals(getEventCounts(resource), ImmutableMap.<String, Long>of("event", 2L));
+        }
+        finally {
+            release.countDown();
+            ingestQueue.stop();
+        }
+    }
+
+    @Test
+    public void testStats()
+            throws Exception
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor fooMonitor = new Monitor("foo", "foo", ticker, new EventPredicate("foo", "true"), 1.0, 2.0, alerter);
+        MonitorEventTapResource resource = createResource(fooMonitor);
+        List<Event> fooEvents = nCopies(3, new Event("foo", "id", "host", new DateTime(), ImmutableMap.<String, Object>of("value", "abc")));
+        List<Event> barEvents = nCopies(2, new Event("bar", "id", "host", new DateTime(), ImmutableMap.<String, Object>of()));
+        resource.post(toJson(ImmutableList.copyOf(concat(fooEvents, barEvents))));
+        resource.post(toJson(fooEvents));
+
+        Map<String, EventTypeStatsRepresentation> stats = resource.getStats();
+        Assert.assertEquals(stats.keySet(), ImmutableSet.of("foo", "bar"));
+        Assert.assertEquals(stats.get("foo").getEvents(), 6);
+        Assert.assertEquals(stats.get("foo").getBatches(), 2);
+        Assert.assertEquals(stats.get("bar").getEvents(), 2);
+        Assert.assertEquals(stats.get("bar").getBatches(), 1);
+
+        // every event is charged its encoded size, including the separator before it
+        int fooSize = EVENTS_CODEC.toJson(ImmutableList.of(fooEvents.get(0))).getBytes(Charsets.UTF_8).length - 2;
+        int barSize = EVENTS_CODEC.toJson(ImmutableList.of(barEvents.get(0))).getBytes(Charsets.UTF_8).length - 2;
+        Assert.assertTrue(stats.get("foo").getBytes() >= 6 * fooSize && stats.get("foo").getBytes() <= 6 * (fooSize + 1), "bytes " + stats.get("foo").getBytes());
+        Assert.assertTrue(stats.get("bar").getBytes() >= 2 * barSize && stats.get("bar").getBytes() <= 2 * (barSize + 1), "bytes " + stats.get("bar").getBytes());
+
+        resource.resetStats();
+        Assert.assertEquals(resource.getStats(), ImmutableMap.of());
+    }
+
+    @Test
+    public void testDeduplication()
+            throws Exception
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor fooMonitor = new Monitor("foo", "foo", ticker, new EventPredicate("foo", "true"), 1.0, 2.0, alerter);
+        MonitorRegistry monitorRegistry = new MonitorRegistry(ImmutableSet.of(fooMonitor));
+        BatchEvaluator batchEvaluator = new BatchEvaluator(monitorRegistry);
+        EventDeduplicator deduplicator = new EventDeduplicator(true, new Duration(1, TimeUnit.MINUTES), 1000, 0.001, Ticker.systemTicker());
+        IngestStats ingestStats = new IngestStats(executor);
+        IngestQueue ingestQueue = new IngestQueue(false, 1, 1, new Duration(1, TimeUnit.SECONDS), batchEvaluator, ingestStats);
+        MonitorEventTapResource resource = new MonitorEventTapResource(monitorRegistry, batchEvaluator, ingestQueue, ingestStats, deduplicator);
+
+        // repeats within a batch are dropped
+        resource.post(toJson(ImmutableList.of(
+                new Event("foo", "a", "host", new DateTime(), ImmutableMap.<String, Object>of()),
+                new Event("foo", "b", "host", new DateTime(), ImmutableMap.<String, Object>of()),
+                new Event("foo", "a", "host", new DateTime(), ImmutableMap.<String, Object>of()))));
+        Assert.assertEquals(fooMonitor.getEvents().getCount(), 2);
+
+        // a truncated batch is not recorded, so its events are accepted when resent
+        try {
+            resource.post(new ByteArrayInputStream("[{\"type\":\"foo\",\"uuid\":\"c\",\"data\":{}},{\"type\":".getBytes(Charsets.UTF_8)));
+            Assert.fail("expected WebApplicationException");
+        }
+        catch (WebApplicationException e) {
+            Assert.assertEquals(e.getResponse().getStatus(), 400);
+        }
+        resource.post(toJson(ImmutableList.of(
+                new Event("foo", "a", "host", new DateTime(), ImmutableMap.<String, Object>of()),
+                new Event("foo", "c", "host", new DateTime(), ImmutableMap.<String, Object>of()))));
+        Assert.assertEquals(fooMonitor.getEvents().getCount(), 3);
+
+        Assert.assertEquals(deduplicator.getCheckedCount(), 5);
+        Assert.assertEquals(deduplicator.getDuplicateCount(), 2);
+    }
+
+    private MonitorEventTapResource createResource(Monitor... monitors)
+    {
+        MonitorRegistry monitorRegistry = new MonitorRegistry(ImmutableSet.copyOf(monitors));
+        BatchEvaluator batchEvaluator = new BatchEvaluator(monitorRegistry);
+        IngestStats ingestStats = new IngestStats(executor);
+        IngestQueue ingestQueue = new IngestQueue(false, 1, 1, new Duration(1, TimeUnit.SECONDS), batchEvaluator, ingestStats);
+        return new MonitorEventTapResource(monitorRegistry, batchEvaluator, ingestQueue, ingestStats, new EventDeduplicator(false, new Duration(1, TimeUnit.MINUTES), 1, 0.01, Ticker.systemTicker()));
+    }
+
+    private static Map<String, Long> getEventCounts(MonitorEventTapResource resource)
+    {
+        return Maps.transformValues(resource.getStats(), new Function<EventTypeStatsRepresentation, Long>()
+        {
+            @Override
+            public Long apply(EventTypeStatsRepresentation stats)
+            {
+                return stats.getEvents();
+            }
+        });
+    }
+
+    private static InputStream toJson(List<Event> events)
+    {
+        return new ByteArrayInputStream(EVENTS_CODEC.toJson(events).getBytes(Charsets.UTF_8));
+    }
 }
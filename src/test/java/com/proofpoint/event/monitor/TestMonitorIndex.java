@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Ints;
+import org.mvel2.MVEL;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static com.google.common.collect.Maps.newHashMap;
+
+public class TestMonitorIndex
+{
+    @Test
+    public void testIndex()
+    {
+        MonitorIndex index = createIndex(
+                "customer == 'acme'",
+                "customer == 'acme' && responseCode >= 500",
+                "'globex' == customer",
+                "responseCode >= 500",
+                null,
+                "customer == 'initech' || responseCode >= 500");
+
+        Assert.assertEquals(index.getField(), "customer");
+        assertSlots(index.getSlots(ImmutableMap.of("customer", "acme")), 10, 11, 13, 14, 15);
+        assertSlots(index.getSlots(ImmutableMap.of("customer", "globex")), 12, 13, 14, 15);
+        assertSlots(index.getSlots(ImmutableMap.of("customer", "initech")), 13, 14, 15);
+        assertSlots(index.getSlots(ImmutableMap.<String, Object>of()), 13, 14, 15);
+        assertSlots(index.getSlots(ImmutableMap.of("customer", 42)), 13, 14, 15);
+        assertSlots(index.getSlots(ImmutableMap.of("customer", true)), 10, 11, 12, 13, 14, 15);
+        assertSlots(index.getSlots(null), 13, 14, 15);
+    }
+
+    @Test
+    public void testNumbers()
+    {
+        MonitorIndex index = createIndex(
+                "responseCode == 500",
+                "responseCode == 503L",
+                "responseCode == 404.0",
+                "responseCode == 0.5",
+                "responseCode == '200'");
+
+        // numbers may also be equal to strings containing digits
+        assertSlots(index.getSlots(ImmutableMap.of("responseCode", 500)), 10, 14);
+        assertSlots(index.getSlots(ImmutableMap.of("responseCode", 500.0)), 10, 14);
+        assertSlots(index.getSlots(ImmutableMap.of("responseCode", 503)), 11, 14);
+        assertSlots(index.getSlots(ImmutableMap.of("responseCode", 404L)), 12, 14);
+        assertSlots(index.getSlots(ImmutableMap.of("responseCode", 0.5)), 13, 14);
+        assertSlots(index.getSlots(ImmutableMap.of("responseCode", 200)), 14);
+        assertSlots(index.getSlots(ImmutableMap.of("responseCode", 999)), 14);
+
+        // strings may be coerced to numbers
+        assertSlots(index.getSlots(ImmutableMap.of("responseCode", "200")), 10, 11, 12, 13, 14);
+        assertSlots(index.getSlots(ImmutableMap.of("responseCode", "500.0")), 10, 11, 12, 13);
+    }
+
+    @Test
+    public void testNotIndexed()
+    {
+        MonitorIndex index = createIndex("customer == 'acme'", "customer != 'globex'", "!(customer == 'initech')", "customer.equals('acme')");
+        Assert.assertNull(index.getField());
+        assertSlots(index.getSlots(ImmutableMap.of("customer", "other")), 10, 11, 12, 13);
+
+        // nested fields are not indexed
+        index = createIndex("request.customer == 'acme'", "request.customer == 'globex'");
+        Assert.assertNull(index.getField());
+
+        Assert.assertEquals(MonitorIndex.empty().getSlots(ImmutableMap.of("customer", "acme")).length, 0);
+    }
+
+    @Test
+    public void testMostCommonField()
+    {
+        MonitorIndex index = createIndex(
+                "customer == 'acme' && status == 'ERROR'",
+                "customer == 'globex' && status == 'ERROR'",
+                "customer == 'initech'",
+                "status == 'WARN'");
+        Assert.assertEquals(index.getField(), "customer");
+        assertSlots(index.getSlots(ImmutableMap.of("customer", "globex", "status", "WARN")), 11, 13);
+    }
+
+    @Test
+    public void testSkippedMonitorsDoNotMatch()
+    {
+        List<String> filters = ImmutableList.of(
+                "x == 'a'",
+                "x == 'b' && y > 1",
+                "y > 1 && x == '200'",
+                "x == 200",
+                "x == 200.5",
+                "x == 0",
+                "x == true",
+                "y == 1 && (x == 'a' || x == 'b')",
+                "x == 'a' && x == 'b'",
+                "x == '200.'",
+                "x == '0'");
+        MonitorIndex index = createIndex(filters.toArray(new String[filters.size()]));
+
+        List<Object> values = Arrays.<Object>asList("a", "b", "c", "200", "200.0", "200.5", "0", "", 200, 200L, 200.0, 200.5, 0, -0.0, 0.0,
+                Long.MAX_VALUE, Double.NaN, true, false, null);
+        for (Object value : values) {
+            Map<String, Object> data = newHashMap();
+            data.put("x", value);
+            data.put("y", 2);
+            List<Integer> selected = Ints.asList(index.getSlots(data));
+            for (int i = 0; i < filters.size(); i++) {
+                if (!selected.contains(10 + i)) {
+                    Assert.assertFalse(evaluateMvel(filters.get(i), data), filters.get(i) + " with x=" + value);
+                }
+            }
+        }
+    }
+
+    private static boolean evaluateMvel(String filter, Map<String, Object> data)
+    {
+        try {
+            return MVEL.executeExpression(MVEL.compileExpression(filter), data, Boolean.class) == Boolean.TRUE;
+        }
+        catch (Exception e) {
+            return false;
+        }
+    }
+
+    private static MonitorIndex createIndex(String... filters)
+    {
+        // use slots that differ from the positions to catch mixing them up
+        int[] slots = new int[filters.length];
+        List<FilterExpression> expressions = newArrayList();
+        for (int i = 0; i < filters.length; i++) {
+            slots[i] = 10 + i;
+            expressions.add(filters[i] == null ? null : FilterParser.parse(filters[i]));
+        }
+        return MonitorIndex.create(slots, expressions);
+    }
+
+    private static void assertSlots(int[] actual, int... expected)
+    {
+        Assert.assertEquals(Ints.asList(actual), Ints.asList(expected));
+    }
+}
@@ -17,6 +17,7 @@ package com.proofpoint.event.monitor;
 
 import com.google.common.base.Charsets;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.io.Resources;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.proofpoint.json.JsonCodec;
@@ -37,12 +38,14 @@ import static java.util.Collections.nCopies;
 public class TestMonitorLoader
 {
     private ScheduledExecutorService executor;
+    private MonitorTicker ticker;
 
     @BeforeClass
     protected void setUp()
             throws Exception
     {
         executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).build());
+        ticker = new MonitorTicker(executor);
     }
 
     @AfterClass
@@ -60,7 +63,7 @@ public class TestMonitorLoader
             throws Exception
     {
         String json = Resources.toString(Resources.getResource("monitor.json"), Charsets.UTF_8);
-        MonitorLoader loader = new MonitorLoader(executor, new InMemoryAlerter(), JsonCodec.mapJsonCodec(String.class, MonitorJson.class));
+        MonitorLoader loader = new MonitorLoader(ticker, new InMemoryAlerter(), JsonCodec.mapJsonCodec(String.class, MonitorJson.class));
 
         Map<String, Monitor> monitors = newHashMap();
         for (Monitor monitor : loader.load(json)) {
@@ -80,6 +83,8 @@ public class TestMonitorLoader
                 nCopies(100, new Event("HttpRequest", "id", "host", new DateTime(), ImmutableMap.of("requestUri", "/other/path")))
         ));
         Assert.assertEquals(scorerHttpMonitor.getEvents().getCount(), 100);
+        Assert.assertTrue(scorerHttpMonitor.isFilterCacheEnabled());
+        Assert.assertEquals(scorerHttpMonitor.getFilterCacheHitRate(), 297 / 300.0);
 
         Monitor prsMessageMonitor = monitors.get("PrsMessageMonitor");
         Assert.assertNotNull(prsMessageMonitor);
@@ -90,6 +95,8 @@ public class TestMonitorLoader
                 nCopies(100, new Event("not-PrsMessage", "id", "host", new DateTime(), ImmutableMap.<String, Object>of()))
         ));
         Assert.assertEquals(prsMessageMonitor.getEvents().getCount(), 100);
+        Assert.assertFalse(prsMessageMonitor.isFilterCacheEnabled());
+        Assert.assertNull(prsMessageMonitor.getFilterCacheHitRate());
 
         Monitor minMonitor = monitors.get("Min");
         Assert.assertNotNull(minMonitor);
@@ -112,4 +119,26 @@ public class TestMonitorLoader
         Assert.assertEquals(betweenMonitor.getMinimumOneMinuteRate(), 111.0);
         Assert.assertEquals(betweenMonitor.getMaximumOneMinuteRate(), 333.0);
     }
+
+    @Test
+    public void testLoadWindow()
+            throws Exception
+    {
+        String json = "{\"Window\": {\"eventType\": \"WindowEvent\", \"windowSeconds\": 300, \"minWindowCount\": 10, \"maxWindowCount\": 1000}}";
+        MonitorLoader loader = new MonitorLoader(ticker, new InMemoryAlerter(), JsonCodec.mapJsonCodec(String.class, MonitorJson.class));
+
+        Monitor monitor = Iterables.getOnlyElement(loader.load(json));
+        Assert.assertEquals(monitor.getName(), "Window");
+        Assert.assertNull(monitor.getMinimumOneMinuteRate());
+        Assert.assertNull(monitor.getMaximumOneMinuteRate());
+        Assert.assertEquals(monitor.getWindowSeconds(), (Integer) 300);
+        Assert.assertEquals(monitor.getMinimumWindowCount(), (Long) 10L);
+        Assert.assertEquals(monitor.getMaximumWindowCount(), (Long) 1000L);
+        Assert.assertFalse(monitor.isEventTimeWindowed());
+
+        json = "{\"EventTime\": {\"eventType\": \"WindowEvent\", \"windowSeconds\": 60, \"allowedLatenessSeconds\": 30, \"maxWatermarkDelaySeconds\": 600, \"minWindowCount\": 10}}";
+        monitor = Iterables.getOnlyElement(loader.load(json));
+        Assert.assertEquals(monitor.getWindowSeconds(), (Integer) 60);
+        Assert.assertTrue(monitor.isEventTimeWindowed());
+    }
 }
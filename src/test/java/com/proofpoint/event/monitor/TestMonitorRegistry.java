@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+public class TestMonitorRegistry
+{
+    private ScheduledExecutorService executor;
+    private MonitorTicker ticker;
+
+    @BeforeClass
+    protected void setUp()
+            throws Exception
+    {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).build());
+        ticker = new MonitorTicker(executor);
+    }
+
+    @AfterClass
+    public void tearDown()
+            throws Exception
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    @Test
+    public void testMonitorsByEventType()
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor fooMonitor = new Monitor("foo", "foo", ticker, new EventPredicate("foo", "true"), 1.0, 2.0, alerter);
+        Monitor otherFooMonitor = new Monitor("otherFoo", "foo", ticker, new EventPredicate("foo", "false"), 1.0, 2.0, alerter);
+        Monitor barMonitor = new Monitor("bar", "bar", ticker, new EventPredicate("bar", "true"), 1.0, 2.0, alerter);
+        MonitorRegistry registry = new MonitorRegistry(ImmutableSet.of(fooMonitor, otherFooMonitor, barMonitor));
+
+        Assert.assertEquals(registry.getMonitors(), ImmutableSet.of(fooMonitor, otherFooMonitor, barMonitor));
+        Assert.assertEquals(registry.getEventTypes(), ImmutableSet.of("foo", "bar"));
+        Assert.assertEquals(ImmutableSet.copyOf(registry.getMonitors("foo")), ImmutableSet.of(fooMonitor, otherFooMonitor));
+        Assert.assertEquals(ImmutableSet.copyOf(registry.getMonitors("bar")), ImmutableSet.of(barMonitor));
+        Assert.assertTrue(registry.getMonitors("unknown").isEmpty());
+    }
+
+    @Test
+    public void testDataFields()
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor okMonitor = new Monitor("ok", "HttpRequest", ticker, new EventPredicate("HttpRequest", "responseCode < 300"), 1.0, 2.0, alerter);
+        Monitor scorerMonitor = new Monitor("scorer", "HttpRequest", ticker, new EventPredicate("HttpRequest", "requestUri.startsWith('/v1/scorer')"), 1.0, 2.0, alerter);
+        Monitor prsMonitor = new Monitor("prs", "PrsMessage", ticker, new EventPredicate("PrsMessage", null), 1.0, 2.0, alerter);
+        Monitor anyMonitor = new Monitor("any", "Any", ticker, new EventPredicate("Any", "this.isEmpty()"), 1.0, 2.0, alerter);
+        MonitorRegistry registry = new MonitorRegistry(ImmutableSet.of(okMonitor, scorerMonitor, prsMonitor, anyMonitor));
+
+        Assert.assertEquals(registry.getDataFields("HttpRequest"), ImmutableSet.of("responseCode", "requestUri"));
+        Assert.assertEquals(registry.getDataFields("PrsMessage"), ImmutableSet.of());
+        Assert.assertNull(registry.getDataFields("Any"));
+        Assert.assertEquals(registry.getDataFields("unknown"), ImmutableSet.of());
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.joda.time.DateTime;
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.proofpoint.event.monitor.MonitorTicker.CHECK_TICKS;
+import static com.proofpoint.event.monitor.MonitorTicker.FIRST_CHECK_TICKS;
+import static java.util.Collections.nCopies;
+
+public class TestMonitorTicker
+{
+    private ScheduledExecutorService executor;
+    private TestingTicker clock;
+    private MonitorTicker ticker;
+
+    @BeforeMethod
+    protected void setUp()
+            throws Exception
+    {
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).build());
+        clock = new TestingTicker();
+        ticker = new MonitorTicker(executor, clock);
+    }
+
+    @AfterMethod
+    public void tearDown()
+            throws Exception
+    {
+        ticker.stop();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testTickCounters()
+            throws Exception
+    {
+        CounterStat first = new CounterStat(ticker);
+        CounterStat second = new CounterStat(ticker);
+        first.start();
+        second.start();
+        // starting twice does not tick twice
+        first.start();
+        Assert.assertEquals(ticker.getCounterCount(), 2);
+
+        first.update(100);
+        second.update(100);
+        tick();
+        Assert.assertTrue(first.getOneMinuteRate() > 0);
+        Assert.assertEquals(second.getOneMinuteRate(), first.getOneMinuteRate());
+
+        second.stop();
+        Assert.assertEquals(ticker.getCounterCount(), 1);
+        // the rate of the stopped counter no longer decays
+        double rate = second.getOneMinuteRate();
+        tick();
+        Assert.assertTrue(first.getOneMinuteRate() < rate);
+        Assert.assertEquals(second.getOneMinuteRate(), rate);
+    }
+
+    @Test
+    public void testLateTick()
+            throws Exception
+    {
+        CounterStat counter = new CounterStat(ticker);
+        counter.start();
+        counter.update(50);
+        tick();
+        Assert.assertEquals(counter.getOneMinuteRate(), 10.0, 0.001);
+
+        // the pool was busy, so the tick ran 10 seconds after the last one
+        counter.update(100);
+        clock.advance(10, TimeUnit.SECONDS);
+        ticker.tick();
+        Assert.assertEquals(counter.getOneMinuteRate(), 10.0, 0.001);
+    }
+
+    @Test
+    public void testCheckMonitors()
+            throws Exception
+    {
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor monitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 2.0, null, alerter);
+        monitor.start();
+        Assert.assertEquals(ticker.getCounterCount(), 1);
+        Assert.assertEquals(ticker.getMonitorCount(), 1);
+
+        for (int i = 1; i < FIRST_CHECK_TICKS; i++) {
+            tick();
+        }
+        Assert.assertFalse(monitor.isFailed());
+
+        tick();
+        Assert.assertTrue(monitor.isFailed());
+        Assert.assertEquals(alerter.getAlerts().size(), 1);
+
+        // recovered at the next check, not before
+        monitor.processEvents(nCopies(1000, new Event("event", "id", "host", new DateTime(), ImmutableMap.<String, Object>of())));
+        for (int i = 1; i < CHECK_TICKS; i++) {
+            tick();
+        }
+        Assert.assertTrue(monitor.isFailed());
+        tick();
+        Assert.assertFalse(monitor.isFailed());
+
+        monitor.stop();
+        Assert.assertEquals(ticker.getCounterCount(), 0);
+        Assert.assertEquals(ticker.getMonitorCount(), 0);
+    }
+
+    @Test
+    public void testFailedCheckDoesNotStopTicks()
+            throws Exception
+    {
+        Alerter brokenAlerter = new Alerter()
+        {
+            @Override
+            public void failed(Monitor monitor, String description)
+            {
+                throw new IllegalStateException("alerter is broken");
+            }
+
+            @Override
+            public void recovered(Monitor monitor, String description)
+            {
+                throw new IllegalStateException("alerter is broken");
+            }
+        };
+        InMemoryAlerter alerter = new InMemoryAlerter();
+        Monitor broken = new Monitor("broken", "event", ticker, new EventPredicate("event", "true"), 2.0, null, brokenAlerter);
+        Monitor monitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 2.0, null, alerter);
+        broken.start();
+        monitor.start();
+
+        for (int i = 0; i < FIRST_CHECK_TICKS; i++) {
+            tick();
+        }
+        Assert.assertTrue(monitor.isFailed());
+        Assert.assertEquals(alerter.getAlerts().size(), 1);
+    }
+
+    @Test(timeOut = 10000)
+    public void testSlowCheckDoesNotDelayTicks()
+            throws Exception
+    {
+        final CountDownLatch release = new CountDownLatch(1);
+        Alerter slowAlerter = new Alerter()
+        {
+            @Override
+            public void failed(Monitor monitor, String description)
+            {
+                Uninterruptibles.awaitUninterruptibly(release);
+            }
+
+            @Override
+            public void recovered(Monitor monitor, String description)
+            {
+            }
+        };
+        Monitor monitor = new Monitor("slow", "event", ticker, new EventPredicate("event", "true"), 2.0, null, slowAlerter);
+        monitor.start();
+        try {
+            for (int i = 1; i < FIRST_CHECK_TICKS; i++) {
+                tick();
+            }
+            clock.advance(MonitorTicker.TICK_SECONDS, TimeUnit.SECONDS);
+            ticker.tick();
+
+            // the alert is blocked, but the counters are still ticked
+            clock.advance(MonitorTicker.TICK_SECONDS, TimeUnit.SECONDS);
+            monitor.getEvents().update(50);
+            ticker.tick();
+            Assert.assertEquals(monitor.getEvents().getOneMinuteRate(), 10.0 * (1 - Math.exp(-5 / 60.0)), 0.001);
+        }
+        finally {
+            release.countDown();
+        }
+        awaitChecks();
+        Assert.assertTrue(monitor.isFailed());
+    }
+
+    @Test
+    public void testFailedTickDoesNotStopTicks()
+            throws Exception
+    {
+        CounterStat broken = new CounterStat(ticker)
+        {
+            @Override
+            public void tick(long elapsedNanos)
+            {
+                throw new IllegalStateException("counter is broken");
+            }
+        };
+        broken.start();
+
+        // the exception does not reach the executor, which would cancel the periodic task
+        tick();
+        tick();
+        Assert.assertEquals(ticker.getCounterCount(), 1);
+    }
+
+    private void tick()
+            throws Exception
+    {
+        clock.advance(MonitorTicker.TICK_SECONDS, TimeUnit.SECONDS);
+        ticker.tick();
+        awaitChecks();
+    }
+
+    private void awaitChecks()
+            throws Exception
+    {
+        // the checks run on the single executor thread, so they are done once a later task is
+        executor.submit(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        }).get();
+    }
+}
@@ -36,6 +36,7 @@ import static org.testng.Assert.assertEquals;
 public class TestMonitorsResource
 {
     private ScheduledExecutorService executor;
+    private MonitorTicker ticker;
     private Monitor fooMonitor;
     private Monitor barMonitor;
     private MonitorsResource resource;
@@ -45,6 +46,7 @@ public class TestMonitorsResource
             throws Exception
     {
         executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true).build());
+        ticker = new MonitorTicker(executor);
     }
 
     @AfterClass
@@ -62,8 +64,8 @@ public class TestMonitorsResource
             throws Exception
     {
         InMemoryAlerter alerter = new InMemoryAlerter();
-        fooMonitor = new Monitor("foo", "event", executor, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
-        barMonitor = new Monitor("bar", "event", executor, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
+        fooMonitor = new Monitor("foo", "event", ticker, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
+        barMonitor = new Monitor("bar", "event", ticker, new EventPredicate("event", "true"), 1.0, 2.0, alerter);
         resource = new MonitorsResource(ImmutableSet.of(fooMonitor, barMonitor));
     }
 
@@ -92,6 +94,9 @@ public class TestMonitorsResource
         assertEquals(representation.getMinimumOneMinuteRate(), 1.0);
         assertEquals(representation.getMaximumOneMinuteRate(), 2.0);
         assertEquals(representation.getOneMinuteRate(), 0.0);
+        assertEquals(representation.isDegraded(), false);
+        assertEquals(representation.getEvaluations(), 0);
+        assertEquals(representation.getAverageEvaluationNanos(), 0.0);
     }
 
     @Test
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.collect.ImmutableList;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+public class TestMultiPatternMatcher
+{
+    @Test
+    public void testMatch()
+    {
+        MultiPatternMatcher matcher = new MultiPatternMatcher(ImmutableList.of("he", "she", "his", "hers"));
+        assertMatches(matcher, "ushers", 0, 1, 3);
+        assertMatches(matcher, "his", 2);
+        assertMatches(matcher, "h");
+        assertMatches(matcher, "");
+        assertMatches(matcher, "HE");
+    }
+
+    @Test
+    public void testOverlapping()
+    {
+        // a pattern that is a suffix of a partial match of another
+        MultiPatternMatcher matcher = new MultiPatternMatcher(ImmutableList.of("abcd", "bc", "c", "abce"));
+        assertMatches(matcher, "abcabce", 1, 2, 3);
+        assertMatches(matcher, "xabcd", 0, 1, 2);
+    }
+
+    @Test
+    public void testEmptyPattern()
+    {
+        MultiPatternMatcher matcher = new MultiPatternMatcher(ImmutableList.of("", "a"));
+        assertMatches(matcher, "", 0);
+        assertMatches(matcher, "bab", 0, 1);
+    }
+
+    @Test
+    public void testNonAscii()
+    {
+        MultiPatternMatcher matcher = new MultiPatternMatcher(ImmutableList.of("café", "été", "日本"));
+        assertMatches(matcher, "un café d'été", 0, 1);
+        assertMatches(matcher, "cafété", 0, 1);
+        assertMatches(matcher, "日日本", 2);
+        assertMatches(matcher, "cafe");
+    }
+
+    @Test
+    public void testMatchesContains()
+    {
+        Random random = new Random(42);
+        String alphabet = "abé";
+        for (int test = 0; test < 200; test++) {
+            ImmutableList.Builder<String> builder = ImmutableList.builder();
+            for (int i = random.nextInt(6); i >= 0; i--) {
+                builder.add(randomString(random, alphabet, 4));
+            }
+            List<String> patterns = builder.build();
+            MultiPatternMatcher matcher = new MultiPatternMatcher(patterns);
+            for (int i = 0; i < 20; i++) {
+                String text = randomString(random, alphabet, 12);
+                BitSet matches = matcher.match(text);
+                for (int pattern = 0; pattern < patterns.size(); pattern++) {
+                    Assert.assertEquals(matches.get(pattern), text.contains(patterns.get(pattern)), patterns + " in " + text);
+                }
+            }
+        }
+    }
+
+    private static String randomString(Random random, String alphabet, int maxLength)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = random.nextInt(maxLength + 1); i > 0; i--) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+
+    private static void assertMatches(MultiPatternMatcher matcher, String text, int... expected)
+    {
+        BitSet expectedMatches = new BitSet();
+        for (int pattern : expected) {
+            expectedMatches.set(pattern);
+        }
+        Assert.assertEquals(matcher.match(text), expectedMatches, text);
+    }
+}
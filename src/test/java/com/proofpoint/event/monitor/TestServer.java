@@ -19,6 +19,7 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.inject.Binder;
 import com.google.inject.Injector;
@@ -74,7 +75,7 @@ import static org.testng.Assert.assertEquals;
 
 public class TestServer
 {
-    private static final JsonCodec<Map<String, Integer>> STATS_CODEC = JsonCodec.mapJsonCodec(String.class, Integer.class);
+    private static final JsonCodec<Map<String, Map<String, Object>>> STATS_CODEC = JsonCodec.mapJsonCodec(String.class, JsonCodec.mapJsonCodec(String.class, Object.class));
     private static final JsonCodec<Map<String, Object>> MONITOR_CODEC = JsonCodec.mapJsonCodec(String.class, Object.class);
     private static final JsonCodec<List<Map<String, Object>>> MONITOR_LIST_CODEC = JsonCodec.listJsonCodec(JsonCodec.mapJsonCodec(String.class, Object.class));
 
@@ -225,6 +226,9 @@ public class TestServer
                 .put("oneMinuteRate", 0.0)
                 .put("fiveMinuteRate", 0.0)
                 .put("fifteenMinuteRate", 0.0)
+                .put("degraded", false)
+                .put("evaluations", 0)
+                .put("averageEvaluationNanos", 0.0)
                 .put("self", urlFor("/v1/monitor/ScorerHttpMonitor").toString())
                 .build());
     }
@@ -275,10 +279,14 @@ public class TestServer
         request = prepareGet()
                 .setUri(urlFor("/v1/event/stats"))
                 .build();
-        JsonResponse<Map<String, Integer>> response = client.execute(request, createFullJsonResponseHandler(STATS_CODEC));
+        JsonResponse<Map<String, Map<String, Object>>> response = client.execute(request, createFullJsonResponseHandler(STATS_CODEC));
 
         assertEquals(response.getStatusCode(), Status.OK.getStatusCode());
-        assertEquals(response.getValue(), ImmutableMap.of("HttpRequest", 3));
+        assertEquals(response.getValue().keySet(), ImmutableSet.of("HttpRequest"));
+        Map<String, Object> stats = response.getValue().get("HttpRequest");
+        assertEquals(stats.get("events"), 3);
+        assertEquals(stats.get("batches"), 1);
+        assertEquals(((Number) stats.get("bytes")).longValue() > 0, true);
 
         request = prepareDelete()
                 .setUri(urlFor("/v1/event/stats"))
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class TestSlidingWindowCounter
+{
+    @Test
+    public void testSlide()
+    {
+        TestingTicker ticker = new TestingTicker();
+        SlidingWindowCounter counter = new SlidingWindowCounter(60, ticker);
+        Assert.assertEquals(counter.getWindowSeconds(), 60);
+        Assert.assertEquals(counter.getCount(), 0);
+
+        // one event per second for two minutes
+        for (int second = 0; second < 120; second++) {
+            counter.add(1);
+            Assert.assertEquals(counter.getCount(), Math.min(second, 60));
+            ticker.advance(1, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(counter.getCount(), 60);
+        Assert.assertEquals(counter.getCount(10), 10);
+        Assert.assertEquals(counter.getCount(1), 1);
+
+        // the current second is not counted until it completes
+        counter.add(60);
+        Assert.assertEquals(counter.getCount(), 60);
+        ticker.advance(1, TimeUnit.SECONDS);
+        Assert.assertEquals(counter.getCount(), 119);
+        Assert.assertEquals(counter.getCount(1), 60);
+        Assert.assertEquals(counter.getRate(), 119 / 60.0);
+
+        // the events leave the window one second at a time
+        ticker.advance(30, TimeUnit.SECONDS);
+        Assert.assertEquals(counter.getCount(), 89);
+        ticker.advance(29, TimeUnit.SECONDS);
+        Assert.assertEquals(counter.getCount(), 60);
+        ticker.advance(1, TimeUnit.SECONDS);
+        Assert.assertEquals(counter.getCount(), 0);
+    }
+
+    @Test
+    public void testIdle()
+    {
+        TestingTicker ticker = new TestingTicker();
+        SlidingWindowCounter counter = new SlidingWindowCounter(3600, ticker);
+        counter.add(100);
+
+        // a gap longer than the window clears every slot once
+        ticker.advance(10, TimeUnit.HOURS);
+        Assert.assertEquals(counter.getCount(), 0);
+        Assert.assertEquals(counter.getCount(3600), 0);
+        counter.add(5);
+        Assert.assertEquals(counter.getCount(), 0);
+        ticker.advance(1, TimeUnit.SECONDS);
+        Assert.assertEquals(counter.getCount(), 5);
+    }
+
+    @Test
+    public void testExactWindow()
+    {
+        TestingTicker ticker = new TestingTicker();
+        SlidingWindowCounter counter = new SlidingWindowCounter(60, ticker);
+
+        // a steady 10 events per second, added in tenths of a second
+        for (int i = 0; i < 1205; i++) {
+            counter.add(1);
+            ticker.advance(100, TimeUnit.MILLISECONDS);
+        }
+
+        // however far into the current second, the window holds exactly 60 seconds
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(counter.getCount(), 600);
+            counter.add(1);
+            ticker.advance(100, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    public void testFull()
+    {
+        TestingTicker ticker = new TestingTicker();
+        SlidingWindowCounter counter = new SlidingWindowCounter(10, ticker);
+        Assert.assertFalse(counter.isFull());
+        ticker.advance(9, TimeUnit.SECONDS);
+        Assert.assertFalse(counter.isFull());
+        ticker.advance(1, TimeUnit.SECONDS);
+        Assert.assertTrue(counter.isFull());
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testWindowTooLong()
+    {
+        new SlidingWindowCounter(SlidingWindowCounter.MAX_WINDOW_SECONDS + 1, new TestingTicker());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.proofpoint.event.monitor.FilterExpression.SpecializedComparison;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.collect.Maps.newHashMap;
+
+public class TestSpecializedComparison
+{
+    private static final Object MISSING = new Object();
+
+    @Test
+    public void testSpecialize()
+    {
+        FilterExpression expression = SpecializedComparison.specialize(FilterParser.parse("latencyMs > 500 && 'GET' == method && a == b"));
+        Assert.assertEquals(expression.toString(), "((latencyMs > 500) && ('GET' == method) && (a == b))");
+        Assert.assertTrue(expression.getOperands().get(0) instanceof SpecializedComparison);
+        Assert.assertTrue(expression.getOperands().get(1) instanceof SpecializedComparison);
+        Assert.assertTrue(expression.getOperands().get(2) instanceof FilterExpression.Comparison);
+    }
+
+    @Test
+    public void testSpecialization()
+    {
+        assertSpecialization("latencyMs > 500", 250, "long");
+        assertSpecialization("latencyMs > 500", 5000000000L, "long");
+        assertSpecialization("latencyMs > 500", 250.5, "double");
+        assertSpecialization("latencyMs > 500.5", 250.5, "double");
+        assertSpecialization("method == 'GET'", "POST", "string");
+
+        // no primitive comparison for mixed types, or strings ordered by MVEL
+        assertSpecialization("latencyMs > 500.5", 250, null);
+        assertSpecialization("latencyMs > 9007199254740993", 250.5, null);
+        assertSpecialization("method < 'GET'", "POST", null);
+        assertSpecialization("method == 'GET'", 1, null);
+    }
+
+    @Test
+    public void testMatchesGeneric()
+    {
+        List<String> filters = ImmutableList.of(
+                "x > 500",
+                "500 <= x",
+                "x != -1",
+                "x == 200",
+                "x < 199.5",
+                "199.5 > x",
+                "x == 'abc'",
+                "'abc' != x",
+                "x.length() > 2");
+        List<Object> warmups = Arrays.<Object>asList(200, 600L, 199.5, 1e300, "abc", "");
+        List<Object> values = Arrays.<Object>asList(MISSING, null, 200, 500, 501, -1, 5000000000L, Long.MAX_VALUE, 199.5, 500.0, Double.NaN,
+                Double.POSITIVE_INFINITY, "abc", "500", "", true, ImmutableList.of(1));
+
+        for (String filter : filters) {
+            for (Object warmup : warmups) {
+                FilterExpression generic = FilterParser.parse(filter);
+                FilterExpression specialized = SpecializedComparison.specialize(generic);
+                Map<String, Object> warmupData = ImmutableMap.of("x", warmup);
+                for (int i = 0; i < SpecializedComparison.WARMUP; i++) {
+                    Assert.assertEquals(specialized.evaluate(warmupData), generic.evaluate(warmupData), filter);
+                }
+
+                for (Object value : values) {
+                    Map<String, Object> data = newHashMap();
+                    if (value != MISSING) {
+                        data.put("x", value);
+                    }
+                    Assert.assertEquals(specialized.evaluate(data), generic.evaluate(data), String.format("%s with x=%s after %s", filter, value, warmup));
+                }
+            }
+        }
+    }
+
+    private static void assertSpecialization(String filter, Object value, String expected)
+    {
+        SpecializedComparison comparison = (SpecializedComparison) SpecializedComparison.specialize(FilterParser.parse(filter));
+        String field = filter.substring(0, filter.indexOf(' '));
+        Map<String, Object> data = ImmutableMap.of(field, value);
+        for (int i = 0; i < SpecializedComparison.WARMUP - 1; i++) {
+            comparison.evaluate(data);
+        }
+        Assert.assertNull(comparison.getSpecialization());
+        comparison.evaluate(data);
+        Assert.assertEquals(comparison.getSpecialization(), expected, filter + " with " + value);
+    }
+}
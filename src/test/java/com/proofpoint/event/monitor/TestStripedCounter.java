@@ -0,0 +1,76 @@
+/*
+ * Copyright 2011 Proofpoint, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.proofpoint.event.monitor;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.google.common.collect.Lists.newArrayList;
+
+public class TestStripedCounter
+{
+    @Test
+    public void testAdd()
+    {
+        StripedCounter counter = new StripedCounter();
+        Assert.assertEquals(counter.sum(), 0);
+
+        counter.increment();
+        counter.add(41);
+        Assert.assertEquals(counter.sum(), 42);
+
+        Assert.assertEquals(counter.sumThenReset(), 42);
+        Assert.assertEquals(counter.sum(), 0);
+    }
+
+    @Test
+    public void testConcurrentAdd()
+            throws Exception
+    {
+        final StripedCounter counter = new StripedCounter();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = newArrayList();
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(new Callable<Void>()
+                {
+                    @Override
+                    public Void call()
+                    {
+                        for (int j = 0; j < 100000; j++) {
+                            counter.increment();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(counter.sum(), 800000);
+    }
+}